@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.as400.access.AS400ByteArray;
+import com.ibm.as400.access.AS400Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of entries and parameters in the text format (EBCDIC, CCSID
+ * 37) compared with the binary format, for typical entry sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Jt400ConversionBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int size;
+
+    private AS400Text text;
+
+    private AS400ByteArray binary;
+
+    private String string;
+
+    private byte[] ebcdic;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        text = new AS400Text(size, 37);
+        binary = new AS400ByteArray(size);
+        string = Jt400BenchmarkSupport.text(size);
+        ebcdic = text.toBytes(string);
+        bytes = binary.toBytes(ebcdic);
+    }
+
+    @Benchmark
+    public byte[] textToBytes() {
+        return text.toBytes(string);
+    }
+
+    @Benchmark
+    public Object textFromBytes() {
+        return text.toObject(ebcdic);
+    }
+
+    @Benchmark
+    public byte[] binaryToBytes() {
+        return binary.toBytes(bytes);
+    }
+
+    @Benchmark
+    public Object binaryFromBytes() {
+        return binary.toObject(bytes);
+    }
+
+}
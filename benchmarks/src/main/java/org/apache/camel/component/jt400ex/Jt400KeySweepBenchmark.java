@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.util.ServiceHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sweep of the keys of a search keys provider by a consumer of a keyed
+ * in-memory data queue: a full sweep of an empty queue, and a sweep until
+ * the entry just written under a random key is found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Jt400KeySweepBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int keys;
+
+    @Param({"true", "false"})
+    private boolean keyStatistics;
+
+    private Jt400BenchmarkSupport support;
+
+    private Jt400DataQueueConsumer consumer;
+
+    private Jt400QueueAccess queue;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = new Jt400BenchmarkSupport();
+        SearchKeysProviderImpl searchKeysProvider = new SearchKeysProviderImpl();
+        for (int i = 0; i < keys; i++) {
+            searchKeysProvider.addKey(key(i));
+        }
+        support.bind("searchKeysProvider", searchKeysProvider);
+        support.start();
+
+        Jt400Endpoint endpoint = support.dataQueue("sweep",
+                "keyed=true&searchKeysProvider=searchKeysProvider&keyStatistics=" + keyStatistics);
+        consumer = (Jt400DataQueueConsumer) endpoint.createConsumer(Jt400BenchmarkSupport.NOOP);
+        ServiceHelper.startService(consumer);
+        queue = support.getMemoryQueues().createQueueAccess(endpoint, endpoint.getSystemName());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ServiceHelper.stopService(consumer);
+        support.stop();
+    }
+
+    @Benchmark
+    public Exchange sweepEmpty() {
+        return consumer.receive(0);
+    }
+
+    @Benchmark
+    public Exchange sweepUntilFound() throws Exception {
+        // a fixed stride visits the keys in an order unrelated to the sweep
+        next = (next + 7919) % keys;
+        queue.write(key(next), "entry");
+        return consumer.receive(0);
+    }
+
+    private static String key(int i) {
+        return "K" + i;
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.ProgramParameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parameter list build and result handling of {@link Jt400PgmProducer},
+ * around the call itself: three parameters, one input only and two output
+ * (one of them also input).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Jt400PgmCallBenchmark {
+
+    private static final int[] LENGTHS = {10, 512, 255};
+
+    @Param({"text", "binary"})
+    private String format;
+
+    private Jt400BenchmarkSupport support;
+
+    private Jt400CallDescriptor descriptor;
+
+    private Object[] params;
+
+    private ProgramParameter[] results;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        support = new Jt400BenchmarkSupport();
+        support.start();
+        Jt400Endpoint endpoint = support.program("prog", "format=" + format + "&outputFieldsIdx=1,2&fieldsLength=10,512,255");
+        // a system that never connects, with the usual CCSID of US systems
+        AS400 system = new AS400("localhost", "user", "password") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public int getCcsid() {
+                return 37;
+            }
+        };
+        descriptor = new Jt400CallDescriptor(endpoint, system);
+
+        boolean binary = "binary".equals(format);
+        params = new Object[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            String value = Jt400BenchmarkSupport.text(LENGTHS[i] / 2);
+            params[i] = binary ? value.getBytes("UTF-8") : value;
+        }
+        // the output data of the call is the converted input
+        ProgramParameter[] inputs = descriptor.createParameterList(params);
+        results = new ProgramParameter[LENGTHS.length];
+        for (int i = 0; i < LENGTHS.length; i++) {
+            results[i] = output(i == 0 ? null : inputs[i].getInputData(), LENGTHS[i]);
+        }
+        // the last parameter is output only
+        params[2] = null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        support.stop();
+    }
+
+    @Benchmark
+    public ProgramParameter[] buildParameterList() throws Exception {
+        return descriptor.createParameterList(params);
+    }
+
+    @Benchmark
+    public Object[] handleResult() {
+        return descriptor.toOutput(params, results);
+    }
+
+    /**
+     * Returns a parameter with the given output data, as after a call.
+     */
+    private static ProgramParameter output(final byte[] outputData, int length) {
+        final byte[] data = outputData == null ? null : Arrays.copyOf(outputData, length);
+        return new ProgramParameter(length) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public byte[] getOutputData() {
+                return data;
+            }
+
+            @Override
+            public int getOutputDataLength() {
+                return data != null ? data.length : 0;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.as400.access.AS400Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion between EBCDIC (CCSID 37) entries and UTF-8 bodies, going
+ * through a <code>String</code> as the text format and a route encoding its
+ * bodies in UTF-8 do, compared with the direct conversion of the utf8 format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Jt400Utf8ConversionBenchmark {
+
+    @Param({"1024", "8192", "32768"})
+    private int size;
+
+    private AS400Text text;
+
+    private Jt400TextConverter converter;
+
+    private byte[] ebcdic;
+
+    private byte[] utf8;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        text = new AS400Text(size, 37);
+        converter = Jt400TextConverter.forCcsid(37);
+        String string = Jt400BenchmarkSupport.text(size);
+        ebcdic = text.toBytes(string);
+        utf8 = string.getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] stringToUtf8() throws UnsupportedEncodingException {
+        return ((String) text.toObject(ebcdic)).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] stringFromUtf8() throws UnsupportedEncodingException {
+        return text.toBytes(new String(utf8, "UTF-8"));
+    }
+
+    @Benchmark
+    public byte[] directToUtf8() {
+        return converter.toUtf8(ebcdic);
+    }
+
+    @Benchmark
+    public byte[] directFromUtf8() {
+        return converter.fromUtf8(utf8);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link SearchKeysProviderImpl} refreshed by a thread adding keys, as
+ * {@link AddSearchKeyProcessor} does, while consumer threads sweep its keys.
+ * Keys are added from a fixed set, so that sweeps see a stable set of keys.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchKeysProviderBenchmark {
+
+    @Param({"100", "10000"})
+    private int keyCount;
+
+    private SearchKeysProviderImpl provider;
+
+    private String[] keys;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        provider = new SearchKeysProviderImpl();
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "K" + i;
+            provider.addKey(keys[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void add() {
+        // only the adding thread updates next
+        next = next + 1 == keyCount ? 0 : next + 1;
+        provider.addKey(keys[next]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void sweep(Blackhole blackhole) {
+        for (String key : provider.getKeys()) {
+            blackhole.consume(key);
+        }
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public void get(Blackhole blackhole) {
+        blackhole.consume(provider.getKeys());
+    }
+
+}
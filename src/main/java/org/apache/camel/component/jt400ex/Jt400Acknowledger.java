@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the entries peeked by a keyed queue consumer with the
+ * <code>atLeastOnce</code> option once all their exchanges have completed,
+ * so that an entry whose processing did not complete is read again.
+ * <p/>
+ * An entry is removed with a destructive read of its exact key, which takes
+ * the first entry of the key: the queue must be FIFO and its keys read by a
+ * single consumer. Until then, the key of the entry is pending and the
+ * consumer skips it, since a peek would return the same entry. Removals run
+ * on a connection of their own, on a thread that drains them in batches, so
+ * that their round trips overlap with the peeks and the processing of the
+ * next entries rather than adding to them.
+ */
+final class Jt400Acknowledger {
+
+    /**
+     * Exchange property holding the {@link Ack} of the entry of an exchange.
+     */
+    static final String ACK = "Jt400Ack";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400Acknowledger.class);
+
+    /**
+     * Largest number of removals made in a row before looking for new ones.
+     */
+    private static final int MAX_BATCH = 100;
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final Jt400Endpoint endpoint;
+
+    private final BlockingQueue<Ack> removals = new LinkedBlockingQueue<Ack>();
+
+    private final Set<String> pendingSearchKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Set<ByteBuffer> pendingKeys = Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+
+    /**
+     * Accesses to the data queue used for removals by system, used by the
+     * remover thread only.
+     */
+    private final Map<String, Jt400DataQueueService> services = new HashMap<String, Jt400DataQueueService>();
+
+    private volatile boolean running;
+
+    Jt400Acknowledger(Jt400Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Starts the remover thread.
+     *
+     * @param executor executor with a thread for the removals
+     */
+    void start(ExecutorService executor) {
+        running = true;
+        executor.execute(new Runnable() {
+            public void run() {
+                runRemover();
+            }
+        });
+    }
+
+    /**
+     * Stops taking removals; the remover thread makes the removals it holds
+     * and then releases its connections.
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Returns whether the entry last peeked with a search key is still to be
+     * removed.
+     */
+    boolean isPending(String searchKey) {
+        return pendingSearchKeys.contains(searchKey);
+    }
+
+    /**
+     * Returns the number of entries peeked and not removed yet.
+     */
+    int getPendingCount() {
+        return pendingKeys.size();
+    }
+
+    /**
+     * Registers a peeked entry, whose key becomes pending.
+     *
+     * @param systemName the system the entry was peeked from
+     * @param searchKey the search key the entry was peeked with
+     * @return the acknowledgement of the entry, or null if its key is already
+     *         pending (peeked with another search key)
+     */
+    Ack register(String systemName, String searchKey, Jt400QueueEntry entry) {
+        Ack ack = new Ack(systemName, searchKey, entry);
+        if (!pendingKeys.add(ack.key)) {
+            return null;
+        }
+        pendingSearchKeys.add(searchKey);
+        return ack;
+    }
+
+    private void release(Ack ack) {
+        pendingSearchKeys.remove(ack.searchKey);
+        pendingKeys.remove(ack.key);
+    }
+
+    private void runRemover() {
+        List<Ack> batch = new ArrayList<Ack>(MAX_BATCH);
+        try {
+            while (running || !removals.isEmpty()) {
+                Ack first;
+                try {
+                    first = removals.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                removals.drainTo(batch, MAX_BATCH - 1);
+                for (Ack ack : batch) {
+                    remove(ack);
+                }
+                batch.clear();
+            }
+        } finally {
+            for (Jt400DataQueueService service : services.values()) {
+                stopService(service);
+            }
+            services.clear();
+            if (!removals.isEmpty()) {
+                LOG.warn("{} entries of {} not removed, they will be read again", removals.size(), endpoint);
+            }
+        }
+    }
+
+    private void remove(Ack ack) {
+        try {
+            Jt400DataQueueService service = services.get(ack.systemName);
+            if (service == null) {
+                service = new Jt400DataQueueService(endpoint, ack.systemName);
+                service.start();
+                services.put(ack.systemName, service);
+            }
+            Jt400QueueEntry removed = service.getQueueAccess().read(ack.entryKey, 0, "EQ");
+            if (removed == null) {
+                LOG.warn("Entry of key '{}' of {} was removed by another reader", ack.searchKey, endpoint);
+            } else if (!Arrays.equals(removed.getData(), ack.data)) {
+                LOG.error("Removed another entry of key '{}' than the one processed from {}: the queue must be FIFO"
+                        + " and its keys read by a single consumer", ack.searchKey, endpoint);
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to remove entry of key '" + ack.searchKey + "' of " + endpoint + ", it will be read again", e);
+            Jt400DataQueueService service = services.remove(ack.systemName);
+            if (service != null) {
+                stopService(service);
+            }
+        } finally {
+            release(ack);
+        }
+    }
+
+    private void stopService(Jt400DataQueueService service) {
+        try {
+            service.stop();
+        } catch (Exception e) {
+            LOG.debug("Unable to release connection of " + endpoint, e);
+        }
+    }
+
+    /**
+     * Acknowledgement of a peeked entry, completed once every exchange
+     * attached to it has completed. The entry is removed if they all
+     * succeeded, and read again otherwise.
+     */
+    final class Ack extends SynchronizationAdapter {
+
+        private final String systemName;
+
+        private final String searchKey;
+
+        private final byte[] entryKey;
+
+        private final ByteBuffer key;
+
+        private final byte[] data;
+
+        private int remaining;
+
+        private boolean failed;
+
+        /**
+         * Whether the failures of the exchanges are reported by a
+         * {@link Jt400Quarantine} rather than by the exchanges themselves.
+         */
+        private boolean deferFailures;
+
+        Ack(String systemName, String searchKey, Jt400QueueEntry entry) {
+            this.systemName = systemName;
+            this.searchKey = searchKey;
+            this.entryKey = entry.getKey();
+            this.key = ByteBuffer.wrap(entryKey);
+            this.data = entry.getData();
+        }
+
+        /**
+         * Attaches an exchange of the entry.
+         *
+         * @param deferFailures whether failures are reported by a quarantine
+         */
+        synchronized void attach(Exchange exchange, boolean deferFailures) {
+            this.deferFailures = deferFailures;
+            remaining++;
+            exchange.setProperty(ACK, this);
+            exchange.addOnCompletion(this);
+        }
+
+        @Override
+        public void onComplete(Exchange exchange) {
+            complete();
+        }
+
+        @Override
+        public void onFailure(Exchange exchange) {
+            if (!deferFailures) {
+                fail();
+            }
+        }
+
+        /**
+         * Reports an exchange of the entry as done.
+         */
+        void complete() {
+            done(false);
+        }
+
+        /**
+         * Reports an exchange of the entry as failed.
+         */
+        void fail() {
+            done(true);
+        }
+
+        private void done(boolean failure) {
+            synchronized (this) {
+                failed |= failure;
+                if (--remaining > 0) {
+                    return;
+                }
+            }
+            if (failed) {
+                LOG.debug("Entry of key '{}' of {} failed, it will be read again", searchKey, endpoint);
+                release(this);
+            } else {
+                removals.add(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers of the same capacity, holding the bodies of the
+ * entries received through an endpoint with the <code>pooledBuffers</code>
+ * option. A buffer is taken when an exchange is created and owned by it until
+ * the exchange completes, when it is given back, so that bodies living as
+ * long as their exchanges are neither allocated nor copied by the garbage
+ * collector. The bodies are read-only views of the buffers. At most
+ * {@link #MAX_IDLE} idle buffers are kept.
+ */
+final class Jt400BufferPool {
+
+    /**
+     * Maximum number of idle buffers kept by a pool.
+     */
+    static final int MAX_IDLE = 64;
+
+    private final int capacity;
+
+    private final BlockingQueue<ByteBuffer> idle = new ArrayBlockingQueue<ByteBuffer>(MAX_IDLE);
+
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * @param capacity the capacity of the buffers, normally the maximum entry
+     *            length of the data queue
+     */
+    Jt400BufferPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of buffers allocated since the pool was created.
+     */
+    long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Returns the number of idle buffers.
+     */
+    int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating one if none is idle.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool, which drops it if enough buffers are
+     * idle already.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() == capacity) {
+            idle.offer(buffer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400BufferPool[capacity=" + capacity + ", allocated=" + allocated + ", idle=" + idle.size() + "]";
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.beans.PropertyVetoException;
+import java.util.Arrays;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400ByteArray;
+import com.ibm.as400.access.AS400DataType;
+import com.ibm.as400.access.AS400Text;
+import com.ibm.as400.access.ProgramParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precompiled parameter list of a program (*PGM) or service program procedure
+ * (*SRVPGM) call. The length, direction and data converter of every parameter
+ * are derived once from the endpoint options and then reused for every call
+ * made through the endpoint.
+ */
+final class Jt400CallDescriptor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400CallDescriptor.class);
+
+    /**
+     * Whether parameters are transferred as <code>byte[]</code> rather than <code>String</code>.
+     */
+    private final boolean binary;
+
+    /**
+     * CCSID used by the text converters (unused in binary format).
+     */
+    private final int ccsid;
+
+    private final int[] lengths;
+
+    private final boolean[] outputs;
+
+    private final AS400DataType[] converters;
+
+    Jt400CallDescriptor(Jt400Endpoint endpoint, AS400 system) {
+        this.binary = endpoint.getFormat() == Jt400Configuration.Format.binary;
+        this.ccsid = binary ? -1 : system.getCcsid();
+
+        Integer[] fieldsLength = endpoint.getOutputFieldsLengthArray();
+        Integer[] outputFieldsIdx = endpoint.getOutputFieldsIdxArray();
+        int count = fieldsLength == null ? 0 : fieldsLength.length;
+
+        lengths = new int[count];
+        outputs = new boolean[count];
+        converters = new AS400DataType[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = fieldsLength[i];
+            outputs[i] = outputFieldsIdx != null && Arrays.binarySearch(outputFieldsIdx, i) >= 0;
+            converters[i] = createConverter(lengths[i]);
+        }
+    }
+
+    /**
+     * Builds the parameter list for a call with the given parameter values.
+     *
+     * @param params parameter values, as found in the body of the exchange
+     * @return a new parameter list ready to be passed to the call
+     */
+    ProgramParameter[] createParameterList(Object[] params) throws PropertyVetoException {
+        ProgramParameter[] parameterList = new ProgramParameter[params.length];
+        for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            checkIndex(i);
+
+            boolean input;
+            boolean output;
+            if (outputs[i]) {
+                output = true;
+                input = param != null;
+            } else {
+                output = false;
+                input = true;
+            }
+
+            byte[] inputData = null;
+
+            // XXX Actually, any field length, not just output.
+            int length = lengths[i];
+
+            if (input && param != null) {
+                inputData = converters[i].toBytes(param);
+            }
+            // Else, inputData will remain null.
+
+            if (input && output) {
+                LOG.trace("Parameter {} is both input and output.", i);
+                parameterList[i] = new ProgramParameter(inputData, length);
+            } else if (input) {
+                LOG.trace("Parameter {} is input.", i);
+                if (inputData != null) {
+                    parameterList[i] = new ProgramParameter(inputData);
+                } else {
+                    parameterList[i] = new ProgramParameter();
+                    parameterList[i].setParameterType(ProgramParameter.PASS_BY_REFERENCE);
+                    parameterList[i].setNullParameter(true); // Just for self documentation.
+                }
+            } else {
+                // output
+                LOG.trace("Parameter {} is output.", i);
+                parameterList[i] = new ProgramParameter(length);
+            }
+        }
+        return parameterList;
+    }
+
+    /**
+     * Converts the output data of a completed call back into Java values.
+     * Parameters without output data keep the value they were called with.
+     *
+     * @param params parameter values the call was made with
+     * @param parameterList parameter list of the completed call
+     * @return the resulting parameter values
+     */
+    Object[] toOutput(Object[] params, ProgramParameter[] parameterList) {
+        Object[] results = new Object[parameterList.length];
+        for (int i = 0; i < parameterList.length; i++) {
+            ProgramParameter pgmParam = parameterList[i];
+            byte[] output = pgmParam.getOutputData();
+            Object javaValue = params[i];
+
+            if (output != null) {
+                javaValue = getConverter(i, pgmParam.getOutputDataLength()).toObject(output);
+            }
+            results[i] = javaValue;
+        }
+        return results;
+    }
+
+    private AS400DataType getConverter(int idx, int length) {
+        if (idx < lengths.length && lengths[idx] == length) {
+            return converters[idx];
+        }
+        return createConverter(length);
+    }
+
+    private AS400DataType createConverter(int length) {
+        if (binary) {
+            return new AS400ByteArray(length);
+        } else {
+            return new AS400Text(length, ccsid);
+        }
+    }
+
+    private void checkIndex(int idx) {
+        if (idx >= lengths.length) {
+            throw new IllegalArgumentException("No length specified for parameter " + idx + " (see the fieldsLength option)");
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.ObjectHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reassembles the messages written in chunks to the data queue of an
+ * endpoint with the <code>chunking</code> option (see
+ * {@link Jt400EntryCodec}). Chunks may arrive in any order, interleaved with
+ * the chunks of other messages; a message is complete once its last chunk
+ * and all the bytes before it have been received. Duplicate chunks are
+ * ignored.
+ * <p/>
+ * Each message is reassembled in memory up to the spill threshold, then in
+ * a temporary file, so that the heap stays flat whatever the size of the
+ * messages. Incomplete messages not added to within the timeout are
+ * discarded.
+ * <p/>
+ * Chunks of the same message must be read by consumers of the same endpoint
+ * in the same JVM, which holds when each message is written to its own key
+ * of a keyed queue or when a single JVM consumes the queue.
+ */
+final class Jt400ChunkAssembler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400ChunkAssembler.class);
+
+    private final Map<Long, Partial> partials = new HashMap<Long, Partial>();
+
+    private final long timeout;
+
+    private final int spillThreshold;
+
+    /**
+     * @param timeout the time in milliseconds after which an incomplete message is discarded
+     * @param spillThreshold the length from which a message is reassembled in a file
+     */
+    Jt400ChunkAssembler(long timeout, int spillThreshold) {
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Adds a chunk to its message.
+     *
+     * @param chunk an entry holding a chunk
+     * @param charset the character set of the queue, used to convert the
+     *            message to text
+     * @return the message once complete, null until then
+     */
+    synchronized Message add(Jt400QueueEntry chunk, Charset charset) throws IOException {
+        long now = System.nanoTime();
+        expire(now);
+
+        byte[] data = chunk.getData();
+        long messageId = Jt400EntryCodec.getChunkMessageId(data);
+        Partial partial = partials.get(messageId);
+        if (partial == null) {
+            partial = new Partial(messageId, chunk.getKey(), chunk.getKeyString(), chunk.getSenderInformation());
+            partials.put(messageId, partial);
+        }
+        partial.updated = now;
+        try {
+            partial.add(Jt400EntryCodec.getChunkOffset(data), data, Jt400EntryCodec.isLastChunk(data));
+        } catch (IOException e) {
+            partials.remove(messageId);
+            partial.discard();
+            throw e;
+        }
+        if (!partial.isComplete()) {
+            return null;
+        }
+        partials.remove(messageId);
+        return partial.toMessage(charset);
+    }
+
+    /**
+     * Discards the incomplete messages not added to within the timeout.
+     */
+    synchronized void expire() {
+        expire(System.nanoTime());
+    }
+
+    /**
+     * Returns the number of incomplete messages.
+     */
+    synchronized int getPartialCount() {
+        return partials.size();
+    }
+
+    /**
+     * Discards all the incomplete messages.
+     */
+    synchronized void clear() {
+        for (Partial partial : partials.values()) {
+            partial.discard();
+        }
+        partials.clear();
+    }
+
+    private void expire(long now) {
+        for (Iterator<Partial> it = partials.values().iterator(); it.hasNext();) {
+            Partial partial = it.next();
+            if (now - partial.updated > timeout) {
+                LOG.warn("Discarding incomplete message {} after {} ms without chunks ({} bytes received)",
+                        new Object[] {Long.toHexString(partial.messageId), TimeUnit.NANOSECONDS.toMillis(now - partial.updated), partial.received});
+                it.remove();
+                partial.discard();
+            }
+        }
+    }
+
+    /**
+     * Message being reassembled.
+     */
+    private final class Partial {
+
+        private final long messageId;
+        private final byte[] key;
+        private final String keyString;
+        private final String senderInformation;
+        private final Set<Integer> offsets = new HashSet<Integer>();
+        private long updated;
+        private long received;
+        private int length = -1;
+        private byte[] buffer = new byte[0];
+        private File file;
+        private RandomAccessFile spill;
+
+        Partial(long messageId, byte[] key, String keyString, String senderInformation) {
+            this.messageId = messageId;
+            this.key = key;
+            this.keyString = keyString;
+            this.senderInformation = senderInformation;
+        }
+
+        void add(int offset, byte[] chunk, boolean last) throws IOException {
+            int count = chunk.length - Jt400EntryCodec.CHUNK_HEADER_LENGTH;
+            if (offset < 0 || (long) offset + count > Integer.MAX_VALUE) {
+                throw new IOException("Invalid chunk of message " + Long.toHexString(messageId) + " at offset " + offset);
+            }
+            if (!offsets.add(offset)) {
+                return;
+            }
+            int end = offset + count;
+            if (last) {
+                length = end;
+            }
+            if (spill == null && end > spillThreshold) {
+                file = File.createTempFile("jt400ex-", ".chunks");
+                spill = new RandomAccessFile(file, "rw");
+                spill.write(buffer);
+                buffer = null;
+            }
+            if (spill != null) {
+                spill.seek(offset);
+                spill.write(chunk, Jt400EntryCodec.CHUNK_HEADER_LENGTH, count);
+            } else {
+                if (end > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(Math.max(2L * buffer.length, end), spillThreshold));
+                }
+                System.arraycopy(chunk, Jt400EntryCodec.CHUNK_HEADER_LENGTH, buffer, offset, count);
+            }
+            received += count;
+        }
+
+        boolean isComplete() {
+            return length >= 0 && received == length;
+        }
+
+        Message toMessage(Charset charset) throws IOException {
+            if (spill != null) {
+                spill.setLength(length);
+                IOHelper.close(spill);
+                return new Message(key, keyString, senderInformation, null, file, length, charset);
+            }
+            byte[] data = buffer.length == length ? buffer : Arrays.copyOf(buffer, length);
+            return new Message(key, keyString, senderInformation, data, null, length, charset);
+        }
+
+        void discard() {
+            buffer = null;
+            if (spill != null) {
+                IOHelper.close(spill);
+                FileUtil.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Reassembled message, held in memory or in a temporary file.
+     */
+    static final class Message implements Jt400QueueEntry {
+
+        private final byte[] key;
+        private final String keyString;
+        private final String senderInformation;
+        private final Charset charset;
+        private final int length;
+        private byte[] data;
+        private File file;
+
+        Message(byte[] key, String keyString, String senderInformation, byte[] data, File file, int length, Charset charset) {
+            this.key = key;
+            this.keyString = keyString;
+            this.senderInformation = senderInformation;
+            this.data = data;
+            this.file = file;
+            this.length = length;
+            this.charset = charset;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the file holding the message, null if held in memory.
+         */
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the data of the message, reading it from its file (which is
+         * then deleted) if need be.
+         */
+        public byte[] getData() {
+            if (data == null) {
+                byte[] read = new byte[length];
+                RandomAccessFile in = null;
+                try {
+                    in = new RandomAccessFile(file, "r");
+                    in.readFully(read);
+                } catch (IOException e) {
+                    throw ObjectHelper.wrapRuntimeCamelException(e);
+                } finally {
+                    IOHelper.close(in);
+                }
+                data = read;
+                discard();
+            }
+            return data;
+        }
+
+        /**
+         * Opens a stream reading the file of the message, which is to be
+         * discarded once read.
+         */
+        InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        /**
+         * Deletes the file of the message, if any.
+         */
+        void discard() {
+            if (file != null) {
+                FileUtil.deleteFile(file);
+                file = null;
+            }
+        }
+
+        public String getString() throws IOException {
+            return new String(getData(), charset);
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public String getKeyString() {
+            return keyString;
+        }
+
+        public String getSenderInformation() {
+            return senderInformation;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.CommandCall;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.util.ObjectHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.apache.camel.Producer} that runs CL commands on an AS/400 system.
+ * <p/>
+ * The body of the exchange is either a single command or a collection (or
+ * array) of commands. All the commands of an exchange are run back-to-back on
+ * one of the connections leased by this producer, and the out body is set to a
+ * <code>List</code> of {@link Jt400CommandResult}, one per command that was
+ * run. Unless <code>stopOnError</code> is disabled, the commands following a
+ * failed command are not run.
+ */
+public class Jt400CmdProducer extends DefaultProducer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400CmdProducer.class);
+
+    /**
+     * Connections to the systems of the endpoint (null if stopped).
+     */
+    private Jt400SystemConnections systems;
+
+    public Jt400CmdProducer(Jt400Endpoint endpoint) {
+        super(endpoint);
+    }
+
+    private Jt400Endpoint getISeriesEndpoint() {
+        return (Jt400Endpoint) super.getEndpoint();
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        Jt400SystemHealth system = systems.acquire(null, true);
+        Throwable failure = null;
+        try {
+            process(exchange, systems.get(system));
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            systems.release(system, failure);
+        }
+    }
+
+    private void process(Exchange exchange, AS400 iSeries) throws Exception {
+        Object body = exchange.getIn().getMandatoryBody();
+
+        CommandCall call = createCommandCall(iSeries);
+        List<Jt400CommandResult> results = new ArrayList<Jt400CommandResult>();
+
+        // a single command must not be split on its commas
+        Iterator<Object> commands = body instanceof String
+                ? Collections.<Object>singletonList(body).iterator() : ObjectHelper.createIterator(body);
+        while (commands.hasNext()) {
+            String command = exchange.getContext().getTypeConverter().mandatoryConvertTo(String.class, exchange, commands.next());
+
+            LOG.trace("Running command '{}' in host '{}'", command, iSeries.getSystemName());
+            boolean success = call.run(command);
+            results.add(new Jt400CommandResult(command, success, call.getMessageList()));
+
+            if (!success) {
+                LOG.debug("Command '{}' failed in host '{}'", command, iSeries.getSystemName());
+                if (getISeriesEndpoint().isStopOnError()) {
+                    break;
+                }
+            }
+        }
+
+        exchange.getOut().setBody(results);
+    }
+
+    /**
+     * Creates the call running the commands of an exchange on a system.
+     */
+    CommandCall createCommandCall(AS400 iSeries) {
+        return new CommandCall(iSeries);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (systems == null) {
+            systems = new Jt400SystemConnections(getISeriesEndpoint(), AS400.COMMAND);
+        }
+        // connects to the first system that can be reached
+        systems.release(systems.acquire(null, true), null);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (systems != null) {
+            systems.close();
+            systems = null;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressors and decompressors of the entries of an endpoint with the
+ * <code>compression</code> option (see {@link Jt400EntryCodec}).
+ * <p/>
+ * A {@code Deflater} or {@code Inflater} holds native memory until ended, so
+ * they are kept by the endpoint rather than by the threads using them, taken
+ * for one entry at a time and ended when the endpoint stops. The pool holds
+ * as many of them as entries were ever compressed or decompressed at the
+ * same time.
+ */
+final class Jt400CodecPool {
+
+    /**
+     * Largest output buffer kept by a compressor.
+     */
+    private static final int MAX_KEPT_BUFFER = 1024 * 1024;
+
+    private final Queue<Compressor> compressors = new ConcurrentLinkedQueue<Compressor>();
+
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    /**
+     * Takes a compressor, to be given back once the entry is compressed.
+     */
+    Compressor takeCompressor() {
+        Compressor compressor = compressors.poll();
+        return compressor != null ? compressor : new Compressor();
+    }
+
+    void giveBack(Compressor compressor) {
+        compressors.add(compressor);
+    }
+
+    /**
+     * Takes a decompressor, to be given back once the entry is
+     * decompressed.
+     */
+    Inflater takeInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    void giveBack(Inflater inflater) {
+        inflaters.add(inflater);
+    }
+
+    /**
+     * Ends the compressors and decompressors held, releasing their native
+     * memory.
+     */
+    void close() {
+        Compressor compressor;
+        while ((compressor = compressors.poll()) != null) {
+            compressor.deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * A {@code Deflater} with its output buffer.
+     */
+    static final class Compressor {
+
+        // favours latency, JSON and text still shrink several times
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+        private byte[] buffer;
+
+        /**
+         * Returns an output buffer of at least the given length.
+         */
+        byte[] buffer(int length) {
+            if (buffer != null && buffer.length >= length) {
+                return buffer;
+            }
+            byte[] created = new byte[length];
+            if (length <= MAX_KEPT_BUFFER) {
+                buffer = created;
+            }
+            return created;
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import com.ibm.as400.access.AS400Message;
+
+/**
+ * Outcome of a CL command run by a {@link Jt400CmdProducer}.
+ * <p/>
+ * The messages returned by the host are kept as is; their text is only
+ * assembled when {@link #getMessageText()} is first called.
+ */
+public class Jt400CommandResult {
+
+    private final String command;
+
+    private final boolean success;
+
+    private final AS400Message[] messages;
+
+    private String messageText;
+
+    public Jt400CommandResult(String command, boolean success, AS400Message[] messages) {
+        this.command = command;
+        this.success = success;
+        this.messages = messages == null ? new AS400Message[0] : messages;
+    }
+
+    /**
+     * Returns the command that was run.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns whether the command completed successfully.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the messages the command produced.
+     */
+    public AS400Message[] getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns the ID and text of the messages the command produced, one
+     * message per line.
+     */
+    public synchronized String getMessageText() {
+        if (messageText == null) {
+            StringBuilder text = new StringBuilder();
+            for (AS400Message message : messages) {
+                text.append(message.getID());
+                text.append(": ");
+                text.append(message.getText());
+                text.append("\n");
+            }
+            messageText = text.toString();
+        }
+        return messageText;
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400CommandResult[" + command + ", success=" + success + ", messages=" + messages.length + "]";
+    }
+
+}
@@ -16,19 +16,29 @@
  */
 package org.apache.camel.component.jt400ex;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.ObjectName;
 
 import com.ibm.as400.access.AS400ConnectionPool;
 import org.apache.camel.Endpoint;
+import org.apache.camel.spi.ManagementStrategy;
 import org.apache.camel.impl.UriEndpointComponent;
 import org.apache.camel.util.EndpointHelper;
+import org.apache.camel.util.ServiceHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * {@link org.apache.camel.Component} to provide integration with AS/400 objects.
  * 
- * Current implementation supports working with data queues (*DTAQ) and Program calls (*PGM)
+ * Current implementation supports working with data queues (*DTAQ), Program calls (*PGM),
+ * service program procedure calls (*SRVPGM) and CL commands (*CMD)
  */
 public class Jt400Component extends UriEndpointComponent {
     
@@ -37,6 +47,15 @@ public class Jt400Component extends UriEndpointComponent {
      */
     static final String CONNECTION_POOL = "connectionPool";
 
+    /**
+     * Names of the URI options that give an endpoint its own, dedicated
+     * connection pool.
+     */
+    static final String MAX_CONNECTIONS = "maxConnections";
+    static final String MAX_INACTIVITY = "maxInactivity";
+    static final String MAX_LIFETIME = "maxLifetime";
+    static final String MAINTENANCE_INTERVAL = "maintenanceInterval";
+
     /**
      * Logging tool used by this class.
      */
@@ -50,14 +69,80 @@ public class Jt400Component extends UriEndpointComponent {
      */
     private AS400ConnectionPool connectionPool;
 
+    /**
+     * Connection pools dedicated to endpoints that tune their pool in the URI.
+     */
+    private final List<AS400ConnectionPool> dedicatedPools = new ArrayList<AS400ConnectionPool>();
+
+    /**
+     * Pools of the connections of the endpoints, by pool and connection
+     * settings.
+     */
+    private final Jt400ProfilePools profilePools = new Jt400ProfilePools();
+
+    /**
+     * Data queue handles shared by the producers of the endpoints.
+     */
+    private final Jt400DataQueueRegistry dataQueueRegistry = new Jt400DataQueueRegistry();
+
+    /**
+     * Health of the connections of each user to each system.
+     */
+    private final ConcurrentMap<String, Jt400ConnectionHealth> connectionHealths = new ConcurrentHashMap<String, Jt400ConnectionHealth>();
+
+    /**
+     * Names under which the connection healths are registered in JMX.
+     */
+    private final List<ObjectName> healthObjectNames = new ArrayList<ObjectName>();
+
+    private long reconnectDelay = 1000;
+
+    private long maxReconnectDelay = 60000;
+
+    /**
+     * Tuning of the default connection pool (null to keep the pool defaults).
+     */
+    private Integer maxConnections;
+    private Long maxInactivity;
+    private Long maxLifetime;
+    private Long maintenanceInterval;
+
+    /**
+     * Number of connections to open per service when endpoints start, unless
+     * the endpoint specifies its own.
+     */
+    private int prestartDataQueueConnections;
+    private int prestartCommandConnections;
+
+    /**
+     * Reply managers shared by the request-reply producers, by system, user
+     * and reply queue.
+     */
+    private final Map<String, Jt400ReplyManager> replyManagers = new HashMap<String, Jt400ReplyManager>();
+
+    /**
+     * Spools shared by the producers, by spool directory, system and queue.
+     */
+    private final Map<String, Jt400Spool> spools = new HashMap<String, Jt400Spool>();
+
     public Jt400Component() {
         super(Jt400Endpoint.class);
     }
 
     @Override
     protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> properties) throws Exception {
+        Integer poolMaxConnections = getAndRemoveParameter(properties, MAX_CONNECTIONS, Integer.class);
+        Long poolMaxInactivity = getAndRemoveParameter(properties, MAX_INACTIVITY, Long.class);
+        Long poolMaxLifetime = getAndRemoveParameter(properties, MAX_LIFETIME, Long.class);
+        Long poolMaintenanceInterval = getAndRemoveParameter(properties, MAINTENANCE_INTERVAL, Long.class);
+        boolean dedicatedPool = poolMaxConnections != null || poolMaxInactivity != null
+                || poolMaxLifetime != null || poolMaintenanceInterval != null;
+
         AS400ConnectionPool connectionPool;
         if (properties.containsKey(CONNECTION_POOL)) {
+            if (dedicatedPool) {
+                throw new IllegalArgumentException("The connection pool options of " + uri + " cannot be combined with the " + CONNECTION_POOL + " option");
+            }
             LOG.trace("AS400ConnectionPool instance specified in the URI - will look it up.");
             
             // We have chosen to handle the connectionPool option ourselves, so
@@ -65,6 +150,9 @@ public class Jt400Component extends UriEndpointComponent {
             // http://camel.apache.org/writing-components.html)
             String poolId = properties.remove(CONNECTION_POOL).toString();
             connectionPool = EndpointHelper.resolveReferenceParameter(getCamelContext(), poolId, AS400ConnectionPool.class, true);
+        } else if (dedicatedPool) {
+            LOG.trace("Connection pool options specified in the URI - a dedicated pool will be provided.");
+            connectionPool = createDedicatedPool(poolMaxConnections, poolMaxInactivity, poolMaxLifetime, poolMaintenanceInterval);
         } else {
             LOG.trace("No AS400ConnectionPool instance specified in the URI - one will be provided.");
             connectionPool = getConnectionPool();
@@ -86,22 +174,303 @@ public class Jt400Component extends UriEndpointComponent {
         if (connectionPool == null) {
             LOG.info("Instantiating the default connection pool ...");
             connectionPool = new AS400ConnectionPool();
+            configurePool(connectionPool, maxConnections, maxInactivity, maxLifetime, maintenanceInterval);
+            profilePools.register(connectionPool);
         }
         return connectionPool;
     }
 
+    private synchronized AS400ConnectionPool createDedicatedPool(Integer maxConnections, Long maxInactivity, Long maxLifetime, Long maintenanceInterval) {
+        // options not given in the URI are inherited from the component
+        AS400ConnectionPool pool = new AS400ConnectionPool();
+        configurePool(pool, this.maxConnections, this.maxInactivity, this.maxLifetime, this.maintenanceInterval);
+        configurePool(pool, maxConnections, maxInactivity, maxLifetime, maintenanceInterval);
+        profilePools.register(pool);
+        dedicatedPools.add(pool);
+        return pool;
+    }
+
+    private static void configurePool(AS400ConnectionPool pool, Integer maxConnections, Long maxInactivity, Long maxLifetime, Long maintenanceInterval) {
+        if (maxConnections != null) {
+            pool.setMaxConnections(maxConnections);
+        }
+        if (maxInactivity != null) {
+            pool.setMaxInactivity(maxInactivity);
+        }
+        if (maxLifetime != null) {
+            pool.setMaxLifetime(maxLifetime);
+        }
+        if (maintenanceInterval != null) {
+            pool.setCleanupInterval(maintenanceInterval);
+        }
+    }
+
     public void setConnectionPool(AS400ConnectionPool connectionPool) {
         this.connectionPool = connectionPool;
     }
 
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Maximum number of connections of the default connection pool (-1 for no
+     * maximum).
+     */
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Long getMaxInactivity() {
+        return maxInactivity;
+    }
+
+    /**
+     * Time in millis an unused connection of the default connection pool may
+     * stay open.
+     */
+    public void setMaxInactivity(Long maxInactivity) {
+        this.maxInactivity = maxInactivity;
+    }
+
+    public Long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Time in millis a connection of the default connection pool may live.
+     */
+    public void setMaxLifetime(Long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public Long getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    /**
+     * Time in millis between two runs of the maintenance of the default
+     * connection pool.
+     */
+    public void setMaintenanceInterval(Long maintenanceInterval) {
+        this.maintenanceInterval = maintenanceInterval;
+    }
+
+    public int getPrestartDataQueueConnections() {
+        return prestartDataQueueConnections;
+    }
+
+    /**
+     * Number of data queue connections endpoints open when they start, unless
+     * they specify their own.
+     */
+    public void setPrestartDataQueueConnections(int prestartDataQueueConnections) {
+        this.prestartDataQueueConnections = prestartDataQueueConnections;
+    }
+
+    public int getPrestartCommandConnections() {
+        return prestartCommandConnections;
+    }
+
+    /**
+     * Number of command (program call) connections endpoints open when they
+     * start, unless they specify their own.
+     */
+    public void setPrestartCommandConnections(int prestartCommandConnections) {
+        this.prestartCommandConnections = prestartCommandConnections;
+    }
+
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * Time in millis connections to a system are not attempted after a first
+     * failure. The delay doubles with every consecutive failure.
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public long getMaxReconnectDelay() {
+        return maxReconnectDelay;
+    }
+
+    /**
+     * Maximum time in millis connections to a system are not attempted after
+     * consecutive failures.
+     */
+    public void setMaxReconnectDelay(long maxReconnectDelay) {
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    /**
+     * Returns the health of the connections of the given user to the given
+     * system, shared by all the endpoints of this component. The health is
+     * registered in JMX when first used.
+     */
+    Jt400ConnectionHealth getConnectionHealth(String systemName, String userID) {
+        String id = systemName + '/' + userID;
+        Jt400ConnectionHealth health = connectionHealths.get(id);
+        if (health == null) {
+            health = new Jt400ConnectionHealth(systemName, userID, reconnectDelay, maxReconnectDelay);
+            Jt400ConnectionHealth existing = connectionHealths.putIfAbsent(id, health);
+            if (existing != null) {
+                return existing;
+            }
+            ObjectName objectName = manage(health, "health", id);
+            if (objectName != null) {
+                synchronized (healthObjectNames) {
+                    healthObjectNames.add(objectName);
+                }
+            }
+        }
+        return health;
+    }
+
+    /**
+     * Registers an object of this component in JMX, if enabled, under the
+     * given category and name.
+     *
+     * @return the name of the registered MBean, or null if not registered
+     */
+    ObjectName manage(Object object, String category, String name) {
+        if (getCamelContext() == null) {
+            return null;
+        }
+        ManagementStrategy strategy = getCamelContext().getManagementStrategy();
+        if (strategy == null || strategy.getManagementAgent() == null) {
+            return null;
+        }
+        try {
+            ObjectName contextName = strategy.getManagementNamingStrategy().getObjectNameForCamelContext(getCamelContext());
+            ObjectName objectName = new ObjectName(contextName.getDomain() + ":context=" + contextName.getKeyProperty("context")
+                    + ",type=jt400ex,category=" + category + ",name=" + ObjectName.quote(name));
+            strategy.manageNamedObject(object, objectName);
+            return objectName;
+        } catch (Exception e) {
+            LOG.warn("Failed to register " + object + " in JMX. This exception will be ignored.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters an object registered by {@link #manage(Object, String, String)}.
+     */
+    void unmanage(ObjectName objectName) {
+        try {
+            getCamelContext().getManagementStrategy().unmanageNamedObject(objectName);
+        } catch (Exception e) {
+            LOG.warn("Failed to unregister " + objectName + " from JMX. This exception will be ignored.", e);
+        }
+    }
+
+    /**
+     * Returns the reply manager reading the reply queue of the given endpoint,
+     * starting it if this is its first user. Callers have the responsibility
+     * of {@link #releaseReplyManager(Jt400ReplyManager) releasing it} when
+     * done.
+     */
+    synchronized Jt400ReplyManager acquireReplyManager(Jt400Endpoint endpoint) throws Exception {
+        String id = replyManagerId(endpoint);
+        Jt400ReplyManager manager = replyManagers.get(id);
+        if (manager == null) {
+            manager = new Jt400ReplyManager(endpoint);
+            ServiceHelper.startService(manager);
+            replyManagers.put(id, manager);
+        }
+        manager.users++;
+        return manager;
+    }
+
+    /**
+     * Releases a reply manager obtained from
+     * {@link #acquireReplyManager(Jt400Endpoint)}, stopping it once it has no
+     * more users.
+     */
+    synchronized void releaseReplyManager(Jt400ReplyManager manager) throws Exception {
+        if (--manager.users == 0) {
+            replyManagers.values().remove(manager);
+            ServiceHelper.stopService(manager);
+        }
+    }
+
+    /**
+     * Returns the spool of the queue of an endpoint, starting it on first use.
+     * Producers must pair each call with a call of
+     * {@link #releaseSpool(Jt400Spool) releasing it} when done.
+     */
+    synchronized Jt400Spool acquireSpool(Jt400Endpoint endpoint) throws Exception {
+        String id = new File(endpoint.getSpoolDirectory()).getAbsolutePath() + '/' + Jt400Spool.spoolName(endpoint);
+        Jt400Spool spool = spools.get(id);
+        if (spool == null) {
+            spool = new Jt400Spool(endpoint);
+            ServiceHelper.startService(spool);
+            spools.put(id, spool);
+        }
+        spool.users++;
+        return spool;
+    }
+
+    /**
+     * Releases a spool obtained from {@link #acquireSpool(Jt400Endpoint)},
+     * stopping it once it has no more users.
+     */
+    synchronized void releaseSpool(Jt400Spool spool) throws Exception {
+        if (--spool.users == 0) {
+            spools.values().remove(spool);
+            ServiceHelper.stopService(spool);
+        }
+    }
+
+    private static String replyManagerId(Jt400Endpoint endpoint) {
+        return endpoint.getSystemName() + '/' + endpoint.getUserID() + ':' + endpoint.getReplyQueue();
+    }
+
+    /**
+     * Returns the data queue handles shared by the producers of this component.
+     */
+    Jt400DataQueueRegistry getDataQueueRegistry() {
+        return dataQueueRegistry;
+    }
+
+    /**
+     * Returns the pools of the connections of the endpoints of this component.
+     */
+    Jt400ProfilePools getProfilePools() {
+        return profilePools;
+    }
+
     @Override
     protected void doShutdown() throws Exception {
         super.doShutdown();
+        synchronized (this) {
+            ServiceHelper.stopServices(replyManagers.values());
+            replyManagers.clear();
+            ServiceHelper.stopServices(spools.values());
+            spools.clear();
+        }
+        dataQueueRegistry.close();
+        profilePools.close();
+        synchronized (healthObjectNames) {
+            for (ObjectName name : healthObjectNames) {
+                unmanage(name);
+            }
+            healthObjectNames.clear();
+        }
+        connectionHealths.clear();
         if (connectionPool != null) {
             LOG.info("Shutting down the default connection pool " + connectionPool + " ...");
             connectionPool.close();
             connectionPool = null;
         }
+        synchronized (this) {
+            for (AS400ConnectionPool pool : dedicatedPools) {
+                LOG.info("Shutting down the dedicated connection pool " + pool + " ...");
+                pool.close();
+            }
+            dedicatedPools.clear();
+        }
     }
     
 }
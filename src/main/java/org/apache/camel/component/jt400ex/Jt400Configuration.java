@@ -19,6 +19,8 @@ package org.apache.camel.component.jt400ex;
 import java.beans.PropertyVetoException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.ibm.as400.access.AS400;
 import com.ibm.as400.access.AS400ConnectionPool;
@@ -33,7 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @UriParams
-public class Jt400Configuration {
+public class Jt400Configuration implements Cloneable {
 
     /**
      * SearchTypes for reading from Keyed Data Queues
@@ -55,7 +57,51 @@ public class Jt400Configuration {
         /**
          * Using <code>byte[]</code> for transferring data
          */
-        binary
+        binary,
+
+        /**
+         * Using <code>byte[]</code> holding UTF-8 text, converted directly
+         * from and to the CCSID of the system (data queues only)
+         */
+        utf8
+    }
+
+    /**
+     * Enumeration of the types of the bodies of entries received in the
+     * binary and utf8 formats
+     */
+    public enum BodyType {
+
+        /**
+         * <code>byte[]</code>
+         */
+        bytes,
+
+        /**
+         * <code>java.nio.ByteBuffer</code>
+         */
+        byteBuffer,
+
+        /**
+         * <code>java.io.InputStream</code>
+         */
+        inputStream
+    }
+
+    /**
+     * Enumeration of supported service program procedure return values
+     */
+    public enum ReturnValueFormat {
+
+        /**
+         * The procedure does not return a value
+         */
+        none,
+
+        /**
+         * The procedure returns a 4-byte signed integer
+         */
+        integer
     }
 
     /**
@@ -67,10 +113,21 @@ public class Jt400Configuration {
      * Constant used to specify that the default system CCSID be used (a
      * negative CCSID is otherwise invalid).
      */
-    private static final int DEFAULT_SYSTEM_CCSID = -1;
+    static final int DEFAULT_SYSTEM_CCSID = -1;
 
     private final AS400ConnectionPool connectionPool;
 
+    /**
+     * Index of the pools of the component, if any.
+     */
+    private Jt400ProfilePools profilePools;
+
+    /**
+     * Pool of the connections with the CCSID and prompting setting of this
+     * configuration (reset when either changes).
+     */
+    private volatile Jt400ProfilePool profilePool;
+
     @UriPath @Metadata(required = "true")
     private String userID;
 
@@ -119,6 +176,102 @@ public class Jt400Configuration {
     @UriParam(label = "consumer", defaultValue = "30000")
     private int readTimeout = 30000;
 
+    @UriParam(label = "producer")
+    private String procedureName;
+
+    @UriParam(label = "producer", defaultValue = "none")
+    private ReturnValueFormat returnValueFormat = ReturnValueFormat.none;
+
+    @UriParam(label = "producer", defaultValue = "true")
+    private boolean stopOnError = true;
+
+    @UriParam(label = "producer")
+    private String replyQueue;
+
+    @UriParam(label = "producer", defaultValue = "20000")
+    private long replyTimeout = 20000;
+
+    @UriParam
+    private Integer prestartDataQueueConnections;
+
+    @UriParam
+    private Integer prestartCommandConnections;
+
+    @UriParam
+    private String alternateSystems;
+
+    @UriParam(label = "producer", defaultValue = "1")
+    private int sharedConnections = 1;
+
+    @UriParam(label = "consumer", defaultValue = "true")
+    private boolean keyStatistics = true;
+
+    @UriParam(label = "consumer", defaultValue = "bytes")
+    private BodyType bodyType = BodyType.bytes;
+
+    @UriParam(label = "consumer")
+    private boolean pooledBuffers;
+
+    @UriParam
+    private boolean compression;
+
+    @UriParam(defaultValue = "512")
+    private int compressionThreshold = 512;
+
+    @UriParam
+    private boolean chunking;
+
+    @UriParam(label = "consumer", defaultValue = "60000")
+    private long chunkTimeout = 60000;
+
+    @UriParam(label = "consumer", defaultValue = "1048576")
+    private int chunkSpillThreshold = 1024 * 1024;
+
+    @UriParam
+    private boolean coalescing;
+
+    @UriParam(label = "producer", defaultValue = "5")
+    private long lingerTime = 5;
+
+    @UriParam(label = "consumer")
+    private boolean coalescedBatch;
+
+    @UriParam(label = "consumer")
+    private int concurrentLanes;
+
+    @UriParam(label = "consumer", defaultValue = "100")
+    private int laneCapacity = 100;
+
+    @UriParam(label = "consumer")
+    private String errorUri;
+
+    @UriParam(label = "consumer", defaultValue = "3")
+    private int errorRetries = 3;
+
+    @UriParam(label = "consumer", defaultValue = "1000")
+    private long errorRetryDelay = 1000;
+
+    @UriParam(label = "consumer")
+    private boolean atLeastOnce;
+
+    @UriParam(label = "producer")
+    private String spoolDirectory;
+
+    @UriParam(defaultValue = "16777216")
+    private int spoolSegmentSize = 16 * 1024 * 1024;
+
+    @UriParam(label = "producer", defaultValue = "1000")
+    private long spoolRetryInterval = 1000;
+
+    @UriParam(label = "consumer")
+    private long prefetchMemory;
+
+    @UriParam(label = "consumer")
+    private String prefetchDirectory;
+
+    @UriParam
+    private Jt400QueueAccessFactory queueAccessFactory = Jt400DataQueueAccess.FACTORY;
+
     public Jt400Configuration(String endpointUri, AS400ConnectionPool connectionPool) throws URISyntaxException {
         ObjectHelper.notNull(endpointUri, "endpointUri", this);
         ObjectHelper.notNull(connectionPool, "connectionPool", this);
@@ -133,6 +286,24 @@ public class Jt400Configuration {
         this.connectionPool = connectionPool;
     }
 
+    /**
+     * Returns a copy of this configuration, sharing its connection pools.
+     */
+    public Jt400Configuration copy() {
+        try {
+            return (Jt400Configuration) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeCamelException(e);
+        }
+    }
+
+    /**
+     * Returns the connection pool the connections of the endpoint are leased from.
+     */
+    public AS400ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     public Jt400Type getType() {
         return type;
     }
@@ -204,6 +375,7 @@ public class Jt400Configuration {
      */
     public void setCcsid(int ccsid) {
         this.ccsid = (ccsid < 0) ? DEFAULT_SYSTEM_CCSID : ccsid;
+        this.profilePool = null;
     }
 
     /**
@@ -235,6 +407,7 @@ public class Jt400Configuration {
      */
     public void setGuiAvailable(boolean guiAvailable) {
         this.guiAvailable = guiAvailable;
+        this.profilePool = null;
     }
 
     public int getCcsid() {
@@ -326,6 +499,457 @@ public class Jt400Configuration {
         this.readTimeout = readTimeout;
     }
 
+    public String getProcedureName() {
+        return procedureName;
+    }
+
+    /**
+     * Name of the exported procedure to call when the endpoint targets a service program (*SRVPGM).
+     */
+    public void setProcedureName(String procedureName) {
+        this.procedureName = procedureName;
+    }
+
+    public ReturnValueFormat getReturnValueFormat() {
+        return returnValueFormat;
+    }
+
+    /**
+     * Format of the value returned by the service program procedure.
+     */
+    public void setReturnValueFormat(ReturnValueFormat returnValueFormat) {
+        ObjectHelper.notNull(returnValueFormat, "returnValueFormat", this);
+        this.returnValueFormat = returnValueFormat;
+    }
+
+    public boolean isStopOnError() {
+        return stopOnError;
+    }
+
+    /**
+     * Whether to skip the remaining commands of an exchange once a CL command fails.
+     */
+    public void setStopOnError(boolean stopOnError) {
+        this.stopOnError = stopOnError;
+    }
+
+    public String getReplyQueue() {
+        return replyQueue;
+    }
+
+    /**
+     * Fully qualified integrated file system path name of the keyed data queue
+     * on which the replies of request-reply (InOut) exchanges are read. The
+     * queue can be shared by several Camel nodes, each only reading the
+     * replies to its own requests, as long as their correlation keys differ.
+     */
+    public void setReplyQueue(String replyQueue) {
+        this.replyQueue = replyQueue;
+    }
+
+    public long getReplyTimeout() {
+        return replyTimeout;
+    }
+
+    /**
+     * Timeout in millis a request-reply (InOut) exchange waits for its reply.
+     */
+    public void setReplyTimeout(long replyTimeout) {
+        this.replyTimeout = replyTimeout;
+    }
+
+    public Integer getPrestartDataQueueConnections() {
+        return prestartDataQueueConnections;
+    }
+
+    /**
+     * Number of data queue connections to open when the endpoint starts
+     * (defaults to the setting of the component).
+     */
+    public void setPrestartDataQueueConnections(Integer prestartDataQueueConnections) {
+        this.prestartDataQueueConnections = prestartDataQueueConnections;
+    }
+
+    public Integer getPrestartCommandConnections() {
+        return prestartCommandConnections;
+    }
+
+    /**
+     * Number of command (program call) connections to open when the endpoint
+     * starts (defaults to the setting of the component).
+     */
+    public void setPrestartCommandConnections(Integer prestartCommandConnections) {
+        this.prestartCommandConnections = prestartCommandConnections;
+    }
+
+    public int getSharedConnections() {
+        return sharedConnections;
+    }
+
+    /**
+     * Number of connections the producers writing to the same data queue
+     * share, each write using the next one in turn. The first producer of a
+     * data queue opens them. Zero gives every producer its own connection.
+     */
+    public void setSharedConnections(int sharedConnections) {
+        this.sharedConnections = sharedConnections;
+    }
+
+    public boolean isKeyStatistics() {
+        return keyStatistics;
+    }
+
+    /**
+     * Whether consumers of a keyed data queue keep statistics of each search
+     * key (hits, misses, last hit, time between hits), reported through JMX.
+     * Up to 100000 keys are tracked; beyond, the keys read least recently
+     * are forgotten.
+     */
+    public void setKeyStatistics(boolean keyStatistics) {
+        this.keyStatistics = keyStatistics;
+    }
+
+    public BodyType getBodyType() {
+        return bodyType;
+    }
+
+    /**
+     * Type of the bodies of the entries received in the binary and utf8
+     * formats. Byte buffers and streams wrap the data of the entries without
+     * copying it.
+     */
+    public void setBodyType(BodyType bodyType) {
+        ObjectHelper.notNull(bodyType, "bodyType", this);
+        this.bodyType = bodyType;
+    }
+
+    public boolean isPooledBuffers() {
+        return pooledBuffers;
+    }
+
+    /**
+     * Whether bodies of type byteBuffer or inputStream are held in direct
+     * buffers taken from a pool, sized from the maximum entry length of the
+     * data queue. The exchange owns its buffer and gives it back to the pool
+     * when it completes (byteBuffer bodies are read-only views of it), so the
+     * data of a body kept past the completion of its exchange, such as by an
+     * aggregator, is overwritten by a later entry: copy such bodies first.
+     * This saves the garbage collector from copying the bodies of long
+     * running exchanges, at the cost of a copy into the buffer.
+     */
+    public void setPooledBuffers(boolean pooledBuffers) {
+        this.pooledBuffers = pooledBuffers;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Whether producers compress the entries they write to the data queue
+     * (from the compression threshold, if that makes them shorter) and
+     * consumers decompress the compressed entries they read. Compressed and
+     * plain entries can be on the same queue; the data of a compressed entry
+     * may be longer than the maximum entry length of the queue.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Length in bytes from which producers compress entries, with the
+     * compression option.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public boolean isChunking() {
+        return chunking;
+    }
+
+    /**
+     * Whether producers split the entries longer than the maximum entry
+     * length of the data queue into chunks (sharing the key of the message
+     * on a keyed queue) and consumers reassemble them. Chunked and plain
+     * entries can be on the same queue. All the chunks of a message must be
+     * read by the same consumer.
+     */
+    public void setChunking(boolean chunking) {
+        this.chunking = chunking;
+    }
+
+    public long getChunkTimeout() {
+        return chunkTimeout;
+    }
+
+    /**
+     * Time in millis after which consumers discard a message whose chunks
+     * stopped coming, with the chunking option.
+     */
+    public void setChunkTimeout(long chunkTimeout) {
+        this.chunkTimeout = chunkTimeout;
+    }
+
+    public int getChunkSpillThreshold() {
+        return chunkSpillThreshold;
+    }
+
+    /**
+     * Length in bytes from which consumers reassemble a chunked message in a
+     * temporary file rather than in memory.
+     */
+    public void setChunkSpillThreshold(int chunkSpillThreshold) {
+        this.chunkSpillThreshold = chunkSpillThreshold;
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Whether producers pack the messages they send into as few entries as
+     * the maximum entry length of the data queue allows (one batch per key
+     * on a keyed queue) and consumers unpack them. Coalesced and plain
+     * entries can be on the same queue.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public long getLingerTime() {
+        return lingerTime;
+    }
+
+    /**
+     * Time in millis producers wait for more messages to pack into an entry
+     * before writing it, with the coalescing option. At 0, an entry packs
+     * the messages sent while the previous entry was being written.
+     */
+    public void setLingerTime(long lingerTime) {
+        this.lingerTime = lingerTime;
+    }
+
+    public boolean isCoalescedBatch() {
+        return coalescedBatch;
+    }
+
+    /**
+     * Whether consumers turn a coalesced entry into a single exchange whose
+     * body is the list of its messages, rather than into an exchange per
+     * message.
+     */
+    public void setCoalescedBatch(boolean coalescedBatch) {
+        this.coalescedBatch = coalescedBatch;
+    }
+
+    public int getConcurrentLanes() {
+        return concurrentLanes;
+    }
+
+    /**
+     * Number of lanes keyed queue consumers process exchanges on, each with
+     * its own thread; the exchanges of a key always go to the same lane, in
+     * the order they were read. At 0, exchanges are processed one at a time
+     * on the polling thread.
+     */
+    public void setConcurrentLanes(int concurrentLanes) {
+        this.concurrentLanes = concurrentLanes;
+    }
+
+    public int getLaneCapacity() {
+        return laneCapacity;
+    }
+
+    /**
+     * Number of exchanges waiting to be processed each lane holds, with the
+     * concurrentLanes option. Consumers stop reading while a lane is full.
+     */
+    public void setLaneCapacity(int laneCapacity) {
+        this.laneCapacity = laneCapacity;
+    }
+
+    public String getErrorUri() {
+        return errorUri;
+    }
+
+    /**
+     * URI of the endpoint consumers move the exchanges that keep failing to,
+     * such as an error data queue or a file endpoint. A failed exchange is
+     * set aside and retried in the background, so that the next entries are
+     * read without delay; once its retries fail, its original message is
+     * sent to this endpoint with the <code>ATTEMPTS</code> header. Producers
+     * with the spoolDirectory option send there the spooled exchanges that
+     * fail to be written for another reason than an unreachable system. A
+     * URI with options of its own is given as <code>RAW(uri)</code>.
+     */
+    public void setErrorUri(String errorUri) {
+        this.errorUri = errorUri;
+    }
+
+    public int getErrorRetries() {
+        return errorRetries;
+    }
+
+    /**
+     * Number of times consumers retry a failed exchange before moving it to
+     * the error endpoint, with the errorUri option.
+     */
+    public void setErrorRetries(int errorRetries) {
+        this.errorRetries = errorRetries;
+    }
+
+    public long getErrorRetryDelay() {
+        return errorRetryDelay;
+    }
+
+    /**
+     * Time in millis before the first retry of a failed exchange, doubled
+     * for each next retry, with the errorUri option.
+     */
+    public void setErrorRetryDelay(long errorRetryDelay) {
+        this.errorRetryDelay = errorRetryDelay;
+    }
+
+    public boolean isAtLeastOnce() {
+        return atLeastOnce;
+    }
+
+    /**
+     * Whether consumers of keyed data queues peek entries and remove them
+     * only once their exchanges have completed, so that an entry is read
+     * again if its processing fails or the consumer stops before it is
+     * done. The queue must be FIFO and its keys read by a single consumer.
+     */
+    public void setAtLeastOnce(boolean atLeastOnce) {
+        this.atLeastOnce = atLeastOnce;
+    }
+
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Directory where producers spool the exchanges they cannot write while
+     * none of the systems can be reached, until a background thread writes
+     * them in order. Only the body and the KEY header of the exchanges are
+     * spooled. A spooled exchange that fails to be written for another
+     * reason goes to the errorUri endpoint, or else is retried, holding up
+     * the next ones. An exchange is only spooled once its write has failed,
+     * after the connection and socket timeouts of the system, so these
+     * timeouts bound how long a write waits for a slow or lost system.
+     * Cannot be used with coalescing or a reply queue.
+     */
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getSpoolSegmentSize() {
+        return spoolSegmentSize;
+    }
+
+    /**
+     * Length in bytes of the memory-mapped segment files of the spool and of
+     * the prefetch spill, which bounds the length of an exchange or entry
+     * stored in them.
+     */
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        this.spoolSegmentSize = spoolSegmentSize;
+    }
+
+    public long getSpoolRetryInterval() {
+        return spoolRetryInterval;
+    }
+
+    /**
+     * Time in millis between the attempts to write the spooled exchanges
+     * while none of the systems can be reached, with the spoolDirectory
+     * option.
+     */
+    public void setSpoolRetryInterval(long spoolRetryInterval) {
+        this.spoolRetryInterval = spoolRetryInterval;
+    }
+
+    public long getPrefetchMemory() {
+        return prefetchMemory;
+    }
+
+    /**
+     * Length in bytes of the entries consumers read ahead and hold in memory
+     * until processed, reading from the data queue on a thread of their own
+     * as fast as the host allows. Past this length, entries are spilled to
+     * the prefetchDirectory, or reading waits for room. 0 disables reading
+     * ahead. Entries read ahead are removed from the queue: those in memory
+     * are processed before the consumer stops, but are lost if the JVM
+     * crashes. Cannot be used with atLeastOnce.
+     */
+    public void setPrefetchMemory(long prefetchMemory) {
+        this.prefetchMemory = prefetchMemory;
+    }
+
+    public String getPrefetchDirectory() {
+        return prefetchDirectory;
+    }
+
+    /**
+     * Directory where consumers spill the entries read ahead past the
+     * prefetchMemory, in memory-mapped segment files. The entries left when
+     * a consumer stops are kept there and processed first on its next
+     * start. Each consumer of a queue needs a directory of its own.
+     */
+    public void setPrefetchDirectory(String prefetchDirectory) {
+        this.prefetchDirectory = prefetchDirectory;
+    }
+
+    public Jt400QueueAccessFactory getQueueAccessFactory() {
+        return queueAccessFactory;
+    }
+
+    /**
+     * Factory of the accesses to the data queue, such as
+     * {@link Jt400MemoryQueues} to work with in-memory queues. Data queues are
+     * accessed through the host servers of the system by default.
+     */
+    public void setQueueAccessFactory(Jt400QueueAccessFactory queueAccessFactory) {
+        this.queueAccessFactory = queueAccessFactory != null ? queueAccessFactory : Jt400DataQueueAccess.FACTORY;
+    }
+
+    public String getAlternateSystems() {
+        return alternateSystems;
+    }
+
+    /**
+     * Comma separated names of other AS/400 systems (such as the other
+     * partitions of an HA cluster) holding the same objects as the system of
+     * the URI. Producers send each exchange to the available system with the
+     * fewest exchanges in flight; consumers stay on one system until it fails.
+     */
+    public void setAlternateSystems(String alternateSystems) {
+        this.alternateSystems = alternateSystems;
+    }
+
+    /**
+     * Returns the names of the systems of the endpoint: the system of the URI
+     * followed by the alternate systems.
+     */
+    public List<String> getSystemNames() {
+        List<String> names = new ArrayList<String>();
+        names.add(systemName);
+        if (alternateSystems != null) {
+            for (String name : alternateSystems.split(",")) {
+                name = name.trim();
+                if (name.length() > 0 && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
     public void setOutputFieldsIdx(String outputFieldsIdx) {
         if (outputFieldsIdx != null) {
             String[] outputArray = outputFieldsIdx.split(",");
@@ -359,31 +983,45 @@ public class Jt400Configuration {
      * @return an {@code AS400} object that connects to this endpoint
      */
     public AS400 getConnection() {
-        AS400 system = null;
-        try {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Getting an AS400 object for '{}' from {}.", systemName + '/' + userID, connectionPool);
-            }
+        return getConnection(-1);
+    }
 
-            if (isSecured()) {
-                system = connectionPool.getSecureConnection(systemName, userID, password);
-            } else {
-                system = connectionPool.getConnection(systemName, userID, password);
-            }
+    /**
+     * Obtains an {@code AS400} object that connects to this endpoint and is
+     * connected to the given service. Since these objects represent limited
+     * resources, clients have the responsibility of
+     * {@link #releaseConnection(AS400) releasing them} when done.
+     *
+     * @param service the service to connect to, such as
+     *            {@code AS400.DATAQUEUE}, or -1 for no particular service
+     * @return an {@code AS400} object that connects to this endpoint
+     */
+    public AS400 getConnection(int service) {
+        return getConnection(systemName, service);
+    }
 
-            if (ccsid != DEFAULT_SYSTEM_CCSID) {
-                system.setCcsid(ccsid);
-            }
-            try {
-                system.setGuiAvailable(guiAvailable);
-            } catch (PropertyVetoException e) {
-                LOG.warn("Failed to disable AS/400 prompting in the environment running Camel. This exception will be ignored.", e);
+    /**
+     * Obtains an {@code AS400} object that connects to the given system of
+     * this endpoint (see {@link #getSystemNames()}). Since these objects
+     * represent limited resources, clients have the responsibility of
+     * {@link #releaseConnection(AS400) releasing them} when done.
+     *
+     * @param systemName the name of the system to connect to
+     * @param service the service to connect to, such as
+     *            {@code AS400.DATAQUEUE}, or -1 for no particular service
+     * @return an {@code AS400} object that connects to the given system
+     */
+    public AS400 getConnection(String systemName, int service) {
+        Jt400ProfilePool pool = getProfilePool();
+        try {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Getting an AS400 object for '{}' from {}.", systemName + '/' + userID, pool);
             }
-            return system; // Not null here.
+            return pool.getConnection(getConnectionProfile(systemName), password, service);
         } catch (ConnectionPoolException e) {
             throw new RuntimeCamelException(String.format("Unable to obtain an AS/400 connection for system name '%s' and user ID '%s'", systemName, userID), e);
         } catch (PropertyVetoException e) {
-            throw new RuntimeCamelException("Unable to set the CSSID to use with " + system, e);
+            throw new RuntimeCamelException("Unable to set the CSSID to use with " + systemName, e);
         }
     }
 
@@ -394,7 +1032,47 @@ public class Jt400Configuration {
      */
     public void releaseConnection(AS400 connection) {
         ObjectHelper.notNull(connection, "connection", this);
-        connectionPool.returnConnectionToPool(connection);
+        getProfilePool().returnConnection(connection);
+    }
+
+    /**
+     * Returns the settings of the connections used by this configuration.
+     */
+    public Jt400ConnectionProfile getConnectionProfile() {
+        return getConnectionProfile(systemName);
+    }
+
+    /**
+     * Returns the settings of the connections used by this configuration to
+     * connect to the given system.
+     */
+    public Jt400ConnectionProfile getConnectionProfile(String systemName) {
+        return new Jt400ConnectionProfile(systemName, userID, ccsid, guiAvailable, isSecured());
+    }
+
+    /**
+     * Sets the index of the pools shared with other configurations, or
+     * <code>null</code> to configure the connections of the connection pool
+     * directly.
+     */
+    void setProfilePools(Jt400ProfilePools profilePools) {
+        this.profilePools = profilePools;
+        this.profilePool = null;
+    }
+
+    /**
+     * Returns the pool of the connections of this configuration, resolved on
+     * first use.
+     */
+    Jt400ProfilePool getProfilePool() {
+        Jt400ProfilePool pool = profilePool;
+        if (pool == null) {
+            pool = profilePools != null
+                    ? profilePools.getPool(connectionPool, getConnectionProfile())
+                    : new Jt400ProfilePool(connectionPool, ccsid, guiAvailable, null, true);
+            profilePool = pool;
+        }
+        return pool;
     }
 
 }
\ No newline at end of file
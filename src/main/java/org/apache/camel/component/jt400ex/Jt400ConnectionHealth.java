@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Health of the connections of a user to a system, shared by all the
+ * endpoints of a component, with a circuit breaker.
+ * <p/>
+ * Connections are attempted as long as the circuit is closed. A failure opens
+ * the circuit: attempts then fail fast until a backoff delay elapses, after
+ * which a single attempt (the probe) is let through with the circuit half
+ * open. The outcome of the probe closes the circuit or reopens it for a
+ * longer delay. The delay doubles with every consecutive failure, up to a
+ * maximum, and is randomized between half and all of its value so that the
+ * Camel nodes sharing a host server do not all probe it at the same time.
+ * Every attempt let through by {@link #tryAcquire()} must thus be followed by
+ * a call to {@link #recordSuccess()} or {@link #recordFailure()}, and a probe
+ * must not wait: consumers probing a system read without waiting.
+ */
+@ManagedResource(description = "Health of the connections of a user to an AS/400 system")
+public final class Jt400ConnectionHealth {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400ConnectionHealth.class);
+
+    private final String systemName;
+
+    private final String userID;
+
+    private final long initialDelay;
+
+    private final long maxDelay;
+
+    private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private final AtomicLong totalFailures = new AtomicLong();
+
+    /**
+     * {@code System.nanoTime()} after which an open circuit lets a probe through.
+     */
+    private volatile long retryAt;
+
+    /**
+     * @param initialDelay delay in millis after a first failure
+     * @param maxDelay maximum delay in millis after consecutive failures
+     */
+    Jt400ConnectionHealth(String systemName, String userID, long initialDelay, long maxDelay) {
+        this.systemName = systemName;
+        this.userID = userID;
+        this.initialDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(initialDelay, 0));
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(maxDelay, initialDelay));
+    }
+
+    @ManagedAttribute(description = "System name")
+    public String getSystemName() {
+        return systemName;
+    }
+
+    @ManagedAttribute(description = "User ID")
+    public String getUserID() {
+        return userID;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    @ManagedAttribute(description = "State of the circuit breaker (CLOSED, OPEN or HALF_OPEN)")
+    public String getCircuitState() {
+        return state.get().name();
+    }
+
+    @ManagedAttribute(description = "Number of failures since the last success")
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    @ManagedAttribute(description = "Total number of failures")
+    public long getTotalFailures() {
+        return totalFailures.get();
+    }
+
+    @ManagedAttribute(description = "Time in millis before the next probe, when the circuit is open")
+    public long getRetryDelay() {
+        if (state.get() != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryAt - System.nanoTime()));
+    }
+
+    /**
+     * Returns whether an attempt would currently be let through.
+     */
+    public boolean isAvailable() {
+        State current = state.get();
+        return current == State.CLOSED || current == State.OPEN && System.nanoTime() - retryAt >= 0;
+    }
+
+    /**
+     * Returns whether an attempt may be made. When the circuit is open and the
+     * backoff delay has elapsed, only the first caller gets to probe.
+     */
+    boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.nanoTime() - retryAt >= 0) {
+            return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        return false;
+    }
+
+    void recordSuccess() {
+        if (state.get() == State.CLOSED && consecutiveFailures.get() == 0) {
+            return;
+        }
+        consecutiveFailures.set(0);
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            LOG.info("Connections of {} to {} are available again", userID, systemName);
+        }
+    }
+
+    void recordFailure() {
+        totalFailures.incrementAndGet();
+        long delay = backoffDelay(consecutiveFailures.incrementAndGet());
+        retryAt = System.nanoTime() + delay;
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            LOG.warn("Connections of {} to {} failed, next attempt in {} millis", new Object[]{userID, systemName, TimeUnit.NANOSECONDS.toMillis(delay)});
+        }
+    }
+
+    /**
+     * Closes the circuit, so that the next attempt is made right away.
+     */
+    @ManagedOperation(description = "Closes the circuit breaker")
+    public void reset() {
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    /**
+     * Returns the backoff delay in nanos after the given number of consecutive
+     * failures: a random value between half and all of the exponential delay.
+     */
+    long backoffDelay(int failures) {
+        long delay = initialDelay;
+        for (int i = 1; i < failures && delay < maxDelay; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxDelay);
+        long half = delay >> 1;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(delay - half + 1) : 0);
+    }
+
+    @Override
+    public String toString() {
+        return userID + "@" + systemName + "[" + state.get() + "]";
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import org.apache.camel.util.ObjectHelper;
+
+/**
+ * Settings that the {@code AS400} objects leased for an endpoint must have:
+ * the system and user they connect with, their CCSID, whether AS/400
+ * prompting is enabled and whether they are secured with SSL. Endpoints with
+ * equal profiles can use the same connections.
+ */
+public final class Jt400ConnectionProfile {
+
+    private final String systemName;
+
+    private final String userID;
+
+    private final int ccsid;
+
+    private final boolean guiAvailable;
+
+    private final boolean secured;
+
+    public Jt400ConnectionProfile(String systemName, String userID, int ccsid, boolean guiAvailable, boolean secured) {
+        this.systemName = systemName;
+        this.userID = userID;
+        this.ccsid = ccsid;
+        this.guiAvailable = guiAvailable;
+        this.secured = secured;
+    }
+
+    public String getSystemName() {
+        return systemName;
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    /**
+     * Returns the CCSID of the connections, or -1 for the default system CCSID.
+     */
+    public int getCcsid() {
+        return ccsid;
+    }
+
+    public boolean isGuiAvailable() {
+        return guiAvailable;
+    }
+
+    public boolean isSecured() {
+        return secured;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Jt400ConnectionProfile)) {
+            return false;
+        }
+        Jt400ConnectionProfile other = (Jt400ConnectionProfile) o;
+        return ccsid == other.ccsid && guiAvailable == other.guiAvailable && secured == other.secured
+                && ObjectHelper.equal(systemName, other.systemName) && ObjectHelper.equal(userID, other.userID);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = systemName != null ? systemName.hashCode() : 0;
+        result = 31 * result + (userID != null ? userID.hashCode() : 0);
+        result = 31 * result + ccsid;
+        result = 31 * result + (guiAvailable ? 1 : 0);
+        result = 31 * result + (secured ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return userID + "@" + systemName + "[ccsid=" + ccsid + ", guiAvailable=" + guiAvailable + ", secured=" + secured + "]";
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.BaseDataQueue;
+import com.ibm.as400.access.DataQueue;
+import com.ibm.as400.access.DataQueueEntry;
+import com.ibm.as400.access.KeyedDataQueue;
+import com.ibm.as400.access.KeyedDataQueueEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Jt400QueueAccess} going through the data queue host server of the
+ * system, on a connection leased from the pool of the endpoint.
+ */
+final class Jt400DataQueueAccess implements Jt400QueueAccess {
+
+    /**
+     * The default factory.
+     */
+    static final Jt400QueueAccessFactory FACTORY = new Jt400QueueAccessFactory() {
+        public Jt400QueueAccess createQueueAccess(Jt400Endpoint endpoint, String systemName) throws Exception {
+            return new Jt400DataQueueAccess(endpoint, systemName);
+        }
+
+        @Override
+        public String toString() {
+            return "jt400";
+        }
+    };
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400DataQueueAccess.class);
+
+    private final Jt400Endpoint endpoint;
+
+    private final String systemName;
+
+    private final BaseDataQueue queue;
+
+    Jt400DataQueueAccess(Jt400Endpoint endpoint, String systemName) throws Exception {
+        this.endpoint = endpoint;
+        this.systemName = systemName;
+        AS400 system = endpoint.getSystem(systemName, AS400.DATAQUEUE);
+        if (endpoint.isKeyed()) {
+            queue = new KeyedDataQueue(system, endpoint.getObjectPath());
+        } else {
+            queue = new DataQueue(system, endpoint.getObjectPath());
+        }
+    }
+
+    public String getName() {
+        return queue.getName();
+    }
+
+    public void connect() throws Exception {
+        if (!queue.getSystem().isConnected(AS400.DATAQUEUE)) {
+            LOG.info("Connecting to {} on {}", endpoint, systemName);
+            queue.getSystem().connectService(AS400.DATAQUEUE);
+        }
+    }
+
+    public Charset getCharset() throws Exception {
+        return Jt400TextConverter.charsetForCcsid(queue.getSystem().getCcsid());
+    }
+
+    public int getKeyLength() throws Exception {
+        return ((KeyedDataQueue) queue).getKeyLength();
+    }
+
+    public int getMaxEntryLength() throws Exception {
+        return queue.getMaxEntryLength();
+    }
+
+    public Jt400QueueEntry read(int wait) throws Exception {
+        return wrap(((DataQueue) queue).read(wait));
+    }
+
+    public Jt400QueueEntry peek(int wait) throws Exception {
+        return wrap(((DataQueue) queue).peek(wait));
+    }
+
+    public Jt400QueueEntry read(byte[] key, int wait, String searchType) throws Exception {
+        return wrap(((KeyedDataQueue) queue).read(key, wait, searchType));
+    }
+
+    public Jt400QueueEntry read(String key, int wait, String searchType) throws Exception {
+        return wrap(((KeyedDataQueue) queue).read(key, wait, searchType));
+    }
+
+    public Jt400QueueEntry peek(byte[] key, int wait, String searchType) throws Exception {
+        return wrap(((KeyedDataQueue) queue).peek(key, wait, searchType));
+    }
+
+    public Jt400QueueEntry peek(String key, int wait, String searchType) throws Exception {
+        return wrap(((KeyedDataQueue) queue).peek(key, wait, searchType));
+    }
+
+    public void write(byte[] data) throws Exception {
+        ((DataQueue) queue).write(data);
+    }
+
+    public void write(String data) throws Exception {
+        ((DataQueue) queue).write(data);
+    }
+
+    public void write(byte[] key, byte[] data) throws Exception {
+        ((KeyedDataQueue) queue).write(key, data);
+    }
+
+    public void write(String key, String data) throws Exception {
+        ((KeyedDataQueue) queue).write(key, data);
+    }
+
+    public void close() throws Exception {
+        endpoint.releaseSystem(queue.getSystem());
+    }
+
+    /**
+     * Returns the underlying data queue object.
+     */
+    BaseDataQueue getDataQueue() {
+        return queue;
+    }
+
+    private static Jt400QueueEntry wrap(DataQueueEntry entry) {
+        return entry != null ? new Entry(entry) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400DataQueueAccess[" + queue.getPath() + " on " + systemName + "]";
+    }
+
+    private static final class Entry implements Jt400QueueEntry {
+
+        private final DataQueueEntry entry;
+
+        Entry(DataQueueEntry entry) {
+            this.entry = entry;
+        }
+
+        public byte[] getData() {
+            return entry.getData();
+        }
+
+        public String getString() throws IOException {
+            return entry.getString();
+        }
+
+        public byte[] getKey() {
+            return entry instanceof KeyedDataQueueEntry ? ((KeyedDataQueueEntry) entry).getKey() : null;
+        }
+
+        public String getKeyString() throws IOException {
+            return entry instanceof KeyedDataQueueEntry ? ((KeyedDataQueueEntry) entry).getKeyString() : null;
+        }
+
+        public String getSenderInformation() {
+            return entry.getSenderInformation();
+        }
+    }
+
+}
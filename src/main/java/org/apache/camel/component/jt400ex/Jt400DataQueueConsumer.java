@@ -16,25 +16,48 @@
  */
 package org.apache.camel.component.jt400ex;
 
-import com.ibm.as400.access.BaseDataQueue;
-import com.ibm.as400.access.DataQueue;
-import com.ibm.as400.access.DataQueueEntry;
-import com.ibm.as400.access.KeyedDataQueue;
-import com.ibm.as400.access.KeyedDataQueueEntry;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.Processor;
+import org.apache.camel.Producer;
 import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.ShutdownRunningTask;
 import org.apache.camel.impl.ScheduledPollConsumer;
+import org.apache.camel.spi.ExecutorServiceManager;
+import org.apache.camel.spi.ShutdownAware;
+import org.apache.camel.support.SynchronizationAdapter;
+import org.apache.camel.util.IOHelper;
+import org.apache.camel.util.ServiceHelper;
 
 /**
  * A scheduled {@link org.apache.camel.Consumer} that polls a data queue for data
  */
-public class Jt400DataQueueConsumer extends ScheduledPollConsumer {
+public class Jt400DataQueueConsumer extends ScheduledPollConsumer implements ShutdownAware {
+
+    /**
+     * Performs the lifecycle logic of this consumer on each system of the
+     * endpoint (null if stopped).
+     */
+    private Jt400DataQueueServices queueServices;
 
     /**
-     * Performs the lifecycle logic of this consumer.
+     * System this consumer reads from, until it fails.
      */
-    private final Jt400DataQueueService queueService;
+    private volatile Jt400SystemHealth currentSystem;
 
     /**
      * Used to get the list of keys this consumer should read from a keyed
@@ -42,13 +65,72 @@ public class Jt400DataQueueConsumer extends ScheduledPollConsumer {
      */
     private final SearchKeysProvider searchKeysProvider;
 
+    /**
+     * Exchanges of the messages of a coalesced entry still to be processed.
+     */
+    private final Queue<Exchange> unpacked = new ConcurrentLinkedQueue<Exchange>();
+
+    /**
+     * Processes the exchanges on lanes by key (null without the
+     * concurrentLanes option or if stopped).
+     */
+    private Jt400LaneDispatcher dispatcher;
+
+    private ExecutorService laneExecutor;
+
+    /**
+     * Key of the last entry read from a keyed queue, which picks the lane of
+     * its exchanges.
+     */
+    private String readKey;
+
+    /**
+     * Retries the failed exchanges and moves them to the error endpoint (null
+     * without the errorUri option or if stopped).
+     */
+    private Jt400Quarantine quarantine;
+
+    private Producer errorProducer;
+
+    private ScheduledExecutorService retryScheduler;
+
+    /**
+     * Removes the entries peeked from a keyed queue once processed (null
+     * without the atLeastOnce option or if stopped).
+     */
+    private Jt400Acknowledger acknowledger;
+
+    private ExecutorService removalExecutor;
+
+    /**
+     * Holds the entries read ahead from the data queue (null without the
+     * prefetchMemory option or if stopped).
+     */
+    private Jt400PrefetchBuffer prefetchBuffer;
+
+    private ExecutorService prefetchExecutor;
+
+    /**
+     * Queue of each system entries were read ahead from, by system name.
+     */
+    private final ConcurrentMap<String, Jt400QueueAccess> prefetchQueues = new ConcurrentHashMap<String, Jt400QueueAccess>();
+
+    private volatile boolean prefetching;
+
+    /**
+     * Whether reading ahead is paused, while the entries held in memory are
+     * processed before the route shuts down.
+     */
+    private volatile boolean prefetchPaused;
+
     /**
      * Creates a new consumer instance
      */
     public Jt400DataQueueConsumer(Jt400Endpoint endpoint, Processor processor) {
         super(endpoint, processor);
-        this.queueService = new Jt400DataQueueService(endpoint);
-        this.searchKeysProvider = (SearchKeysProvider)endpoint.getCamelContext().getRegistry().lookupByName(endpoint.getSearchKeysProvider());
+        String keysProvider = endpoint.getSearchKeysProvider();
+        this.searchKeysProvider = keysProvider != null
+                ? (SearchKeysProvider)endpoint.getCamelContext().getRegistry().lookupByName(keysProvider) : null;
     }
 
     @Override
@@ -59,24 +141,203 @@ public class Jt400DataQueueConsumer extends ScheduledPollConsumer {
     @Override
     protected int poll() throws Exception {
         Exchange exchange = receive(getEndpoint().getReadTimeout());
-        if (exchange != null) {
+        int polled = 0;
+        // the messages of a coalesced entry are processed in the same poll
+        while (exchange != null) {
+            if (dispatcher != null) {
+                dispatcher.dispatch(exchange, readKey);
+            } else {
+                processExchange(exchange);
+            }
+            polled++;
+            exchange = unpacked.poll();
+            if (exchange == null && prefetchBuffer != null && isRunAllowed()) {
+                // the entries read ahead are processed in the same poll
+                exchange = receive(0);
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * Processes an exchange, setting it aside for a retry if it fails with
+     * the errorUri option.
+     */
+    private void processExchange(final Exchange exchange) throws Exception {
+        if (quarantine == null) {
             getProcessor().process(exchange);
-            return 1;
-        } else {
-            return 0;
+            return;
+        }
+        Message original = quarantine.snapshot(exchange);
+        try {
+            getProcessor().process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        if (exchange.getException() != null) {
+            quarantine.add(original, exchange.getException(), exchange.getProperty(Jt400Acknowledger.ACK, Jt400Acknowledger.Ack.class));
         }
     }
 
     @Override
     protected void doStart() throws Exception {
-        queueService.start();
+        if (queueServices == null) {
+            queueServices = new Jt400DataQueueServices(getEndpoint());
+        }
+        // connects to the first system that can be reached
+        currentSystem = queueServices.acquire(null, false);
+        queueServices.release(currentSystem, null);
+        if (getEndpoint().getErrorUri() != null) {
+            errorProducer = getEndpoint().getCamelContext().getEndpoint(getEndpoint().getErrorUri()).createProducer();
+            ServiceHelper.startService(errorProducer);
+            retryScheduler = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "Jt400Retries[" + getEndpoint().getObjectPath() + "]");
+            quarantine = new Jt400Quarantine(getEndpoint(), getProcessor(), errorProducer, getExceptionHandler(), retryScheduler);
+        }
+        if (getEndpoint().isAtLeastOnce()) {
+            if (!getEndpoint().isKeyed()) {
+                throw new IllegalArgumentException("The atLeastOnce option requires a keyed data queue on " + getEndpoint());
+            }
+            if (getEndpoint().isChunking()) {
+                // the next chunks cannot be peeked past the first one
+                throw new IllegalArgumentException("The atLeastOnce option cannot be used with chunking on " + getEndpoint());
+            }
+            removalExecutor = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadExecutor(this, "Jt400Removals[" + getEndpoint().getObjectPath() + "]");
+            acknowledger = new Jt400Acknowledger(getEndpoint());
+            acknowledger.start(removalExecutor);
+        }
+        if (getEndpoint().getConcurrentLanes() > 0) {
+            if (!getEndpoint().isKeyed()) {
+                throw new IllegalArgumentException("The concurrentLanes option requires a keyed data queue on " + getEndpoint());
+            }
+            laneExecutor = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "Jt400Lanes[" + getEndpoint().getObjectPath() + "]", getEndpoint().getConcurrentLanes());
+            Processor processor = new Processor() {
+                public void process(Exchange exchange) throws Exception {
+                    processExchange(exchange);
+                }
+            };
+            dispatcher = new Jt400LaneDispatcher(processor, getExceptionHandler(),
+                    getEndpoint().getConcurrentLanes(), getEndpoint().getLaneCapacity());
+            dispatcher.start(laneExecutor);
+        }
+        if (getEndpoint().getPrefetchMemory() > 0) {
+            if (getEndpoint().isAtLeastOnce()) {
+                // the entries read ahead are removed from the queue
+                throw new IllegalArgumentException("The prefetchMemory option cannot be used with atLeastOnce on " + getEndpoint());
+            }
+            Jt400SegmentLog spill = null;
+            if (getEndpoint().getPrefetchDirectory() != null) {
+                spill = new Jt400SegmentLog(new File(getEndpoint().getPrefetchDirectory()),
+                        Jt400Spool.spoolName(getEndpoint()) + "-prefetch", getEndpoint().getSpoolSegmentSize());
+            }
+            prefetchBuffer = new Jt400PrefetchBuffer(getEndpoint().getMetrics(), getEndpoint().getPrefetchMemory(), spill);
+            prefetchBuffer.open();
+            final Jt400PrefetchBuffer buffer = prefetchBuffer;
+            prefetching = true;
+            prefetchPaused = false;
+            prefetchExecutor = getEndpoint().getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadExecutor(this, "Jt400Prefetch[" + getEndpoint().getObjectPath() + "]");
+            prefetchExecutor.execute(new Runnable() {
+                public void run() {
+                    prefetch(buffer);
+                }
+            });
+        }
         super.doStart();
     }
 
+    @Override
+    protected void doResume() throws Exception {
+        prefetchPaused = false;
+        super.doResume();
+    }
+
+    /**
+     * Defers the shutdown of a consumer reading ahead, which stops reading
+     * and keeps polling until the entries held in memory are processed, as
+     * they were removed from the queue. The entries spilled to disk are left
+     * for the next start.
+     */
+    public boolean deferShutdown(ShutdownRunningTask shutdownRunningTask) {
+        if (prefetchBuffer == null) {
+            return false;
+        }
+        prefetchPaused = true;
+        return true;
+    }
+
+    public int getPendingExchangesSize() {
+        Jt400PrefetchBuffer buffer = prefetchBuffer;
+        return buffer != null ? buffer.getMemorySize() + unpacked.size() : 0;
+    }
+
+    public void prepareShutdown(boolean suspendOnly, boolean forced) {
+        // the entries left in memory are spilled or discarded on stop
+    }
+
     @Override
     protected void doStop() throws Exception {
         super.doStop();
-        queueService.stop();
+        if (prefetchBuffer != null) {
+            // an entry being read is added before the thread ends
+            prefetching = false;
+            ExecutorServiceManager executorServiceManager = getEndpoint().getCamelContext().getExecutorServiceManager();
+            executorServiceManager.shutdownNow(prefetchExecutor);
+            executorServiceManager.awaitTermination(prefetchExecutor, executorServiceManager.getShutdownAwaitTermination());
+            int discarded = prefetchBuffer.close();
+            if (discarded > 0) {
+                log.warn("Discarding {} entries read ahead from {}", discarded, getEndpoint());
+            }
+            prefetchBuffer = null;
+            prefetchExecutor = null;
+            prefetchQueues.clear();
+        }
+        if (dispatcher != null) {
+            // the lanes process the exchanges they hold before their threads end
+            dispatcher.stop();
+            getEndpoint().getCamelContext().getExecutorServiceManager().shutdownGraceful(laneExecutor);
+            int discarded = dispatcher.clear();
+            if (discarded > 0) {
+                log.warn("Discarding {} exchanges left in the lanes of {}", discarded, getEndpoint());
+            }
+            dispatcher = null;
+            laneExecutor = null;
+        }
+        if (quarantine != null) {
+            // a retry in progress completes, the others go to the error endpoint
+            ExecutorServiceManager executorServiceManager = getEndpoint().getCamelContext().getExecutorServiceManager();
+            executorServiceManager.shutdownNow(retryScheduler);
+            executorServiceManager.awaitTermination(retryScheduler, executorServiceManager.getShutdownAwaitTermination());
+            quarantine.close();
+            ServiceHelper.stopService(errorProducer);
+            quarantine = null;
+            errorProducer = null;
+            retryScheduler = null;
+        }
+        if (!unpacked.isEmpty()) {
+            log.warn("Discarding {} unprocessed messages of coalesced entries read from {}", unpacked.size(), getEndpoint());
+            unpacked.clear();
+        }
+        if (acknowledger != null) {
+            // the entries already processed are removed before the thread ends
+            acknowledger.stop();
+            getEndpoint().getCamelContext().getExecutorServiceManager().shutdownGraceful(removalExecutor);
+            if (acknowledger.getPendingCount() > 0) {
+                log.info("{} entries of {} not processed yet, they will be read again", acknowledger.getPendingCount(), getEndpoint());
+            }
+            acknowledger = null;
+            removalExecutor = null;
+        }
+        if (getEndpoint().isChunking()) {
+            getEndpoint().getChunkAssembler().clear();
+        }
+        if (queueServices != null) {
+            queueServices.close();
+            queueServices = null;
+        }
+        currentSystem = null;
     }
 
     @Deprecated
@@ -96,32 +357,224 @@ public class Jt400DataQueueConsumer extends ScheduledPollConsumer {
      * the data queue entry's data will be received/sent as a
      * <code>byte[]</code>. If the endpoint's format is set to
      * {@link org.apache.camel.component.jt400ex.Jt400Configuration.Format#text}, the data queue entry's data will be received/sent as
-     * a <code>String</code>.
+     * a <code>String</code>. If the endpoint's format is set to
+     * {@link org.apache.camel.component.jt400ex.Jt400Configuration.Format#utf8}, the data queue entry's data will be received as
+     * a <code>byte[]</code> holding its text in UTF-8. In both binary formats,
+     * the body can be received as a <code>ByteBuffer</code> or an
+     * <code>InputStream</code> instead (see the bodyType option).
      * <p/>
      * The following message headers may be set by the receiver
      * <ul>
      * <li>SENDER_INFORMATION: The Sender Information from the Data Queue</li>
-     * <li>KEY: The message key if the endpoint is configured to connect to a <code>KeyedDataQueue</code></li>
+     * <li>KEY: The message key if the endpoint is configured to connect to a keyed data queue</li>
      * </ul>
      *
+     * <p/>
+     * With the coalescing option, the messages of a coalesced entry are
+     * received one at a time, with the <code>CamelBatchIndex</code>,
+     * <code>CamelBatchSize</code> and <code>CamelBatchComplete</code>
+     * properties set, or as a single exchange whose body is the list of the
+     * messages with the coalescedBatch option.
+     * <p/>
+     * If the endpoint has alternate systems, this consumer keeps reading from
+     * the same system until it fails, and then switches to the first available
+     * system in the order of the endpoint.
+     *
      * @param timeout time to wait when reading from data queue. A value of -1
      *                indicates a blocking read.
      */
     public Exchange receive(final long timeout) {
-        BaseDataQueue queue = queueService.getDataQueue();
+        Exchange next = unpacked.poll();
+        if (next != null) {
+            return next;
+        }
+        Jt400PrefetchBuffer buffer = prefetchBuffer;
+        if (buffer != null) {
+            if (prefetchPaused && buffer.getMemorySize() == 0) {
+                // the spilled entries are left for the next start
+                return null;
+            }
+            return receivePrefetched(buffer, timeout);
+        }
+        Jt400SystemHealth system = queueServices.acquire(currentSystem, false);
+        if (system != currentSystem) {
+            log.info("Reading from {} on {}", getEndpoint(), system.getSystemName());
+            currentSystem = system;
+        }
+        Jt400QueueAccess queue = queueServices.get(system).getQueueAccess();
+        Throwable failure = null;
         try {
             if (getEndpoint().isKeyed()) {
-                return receive((KeyedDataQueue) queue, timeout);
+                return receiveKeyed(queue, timeout);
             } else {
-                return receive((DataQueue) queue, timeout);
+                return receive(queue, probeTimeout(system, timeout));
             }
         } catch (Exception e) {
+            failure = e;
             throw new RuntimeCamelException("Unable to read from data queue: " + queue.getName(), e);
+        } finally {
+            queueServices.release(system, failure);
+            if (getEndpoint().isChunking()) {
+                getEndpoint().getChunkAssembler().expire();
+            }
+        }
+    }
+
+    /**
+     * Returns the exchange of the next entry read ahead, waiting for one up
+     * to the timeout.
+     */
+    private Exchange receivePrefetched(final Jt400PrefetchBuffer buffer, final long timeout) {
+        try {
+            Jt400PrefetchBuffer.Item item = buffer.poll(timeout);
+            while (item != null) {
+                Jt400QueueAccess queue = getPrefetchQueue(item.getSystemName());
+                // the chunks of a message were read ahead in order
+                Jt400QueueEntry entry = assemble(queue, item.getEntry());
+                if (entry != null) {
+                    if (getEndpoint().isKeyed()) {
+                        readKey = entry.getKeyString();
+                    }
+                    return toExchange(queue, entry);
+                }
+                item = buffer.poll(0);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeCamelException("Unable to take the entries read ahead from: " + getEndpoint(), e);
+        } finally {
+            if (getEndpoint().isChunking()) {
+                getEndpoint().getChunkAssembler().expire();
+            }
+        }
+    }
+
+    /**
+     * Returns the queue an entry was read ahead from, or the queue of the
+     * current system for an entry left by the last stop.
+     */
+    private Jt400QueueAccess getPrefetchQueue(final String systemName) {
+        Jt400QueueAccess queue = prefetchQueues.get(systemName);
+        if (queue != null) {
+            return queue;
+        }
+        Jt400SystemHealth system = queueServices.acquire(currentSystem, false);
+        try {
+            return queueServices.get(system).getQueueAccess();
+        } finally {
+            queueServices.release(system, null);
+        }
+    }
+
+    /**
+     * Reads the entries of the data queue into the prefetch buffer, on a
+     * thread of its own until the consumer stops, unless paused.
+     */
+    private void prefetch(final Jt400PrefetchBuffer buffer) {
+        Jt400EndpointMetrics metrics = getEndpoint().getMetrics();
+        String searchType = getEndpoint().getSearchType().name();
+        long timeout = getEndpoint().getReadTimeout() < 0 ? 1000 : getEndpoint().getReadTimeout();
+        while (prefetching) {
+            if (prefetchPaused) {
+                try {
+                    Thread.sleep(getDelay());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            Jt400SystemHealth system;
+            try {
+                system = queueServices.acquire(currentSystem, false);
+            } catch (Jt400SystemUnavailableException e) {
+                // waits for a system to come back, as the scheduled polls do
+                getExceptionHandler().handleException("Unable to read ahead from " + getEndpoint(), e);
+                try {
+                    Thread.sleep(getDelay());
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            if (system != currentSystem) {
+                log.info("Reading ahead from {} on {}", getEndpoint(), system.getSystemName());
+                currentSystem = system;
+            }
+            Jt400QueueAccess queue = queueServices.get(system).getQueueAccess();
+            prefetchQueues.put(system.getSystemName(), queue);
+            Throwable failure = null;
+            int read = 0;
+            try {
+                Charset charset = queue.getCharset();
+                if (getEndpoint().isKeyed()) {
+                    long start = System.nanoTime();
+                    int probed = 0;
+                    for (final String key : searchKeysProvider.getKeys()) {
+                        Jt400QueueEntry entry = queue.read(key, 0, searchType);
+                        probed++;
+                        metrics.recordKey(key, entry != null);
+                        if (entry != null) {
+                            metrics.recordRead(System.nanoTime() - start, getLength(entry));
+                            buffer.put(entry, system.getSystemName(), charset);
+                            read++;
+                            start = System.nanoTime();
+                        }
+                    }
+                    if (read == 0) {
+                        metrics.recordRead(System.nanoTime() - start, -1);
+                    }
+                    metrics.recordKeySweep(probed);
+                } else {
+                    Jt400QueueEntry entry = read(queue, probeTimeout(system, timeout));
+                    if (entry != null) {
+                        buffer.put(entry, system.getSystemName(), charset);
+                        read++;
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+                getExceptionHandler().handleException("Unable to read ahead from data queue: " + queue.getName(), e);
+            } finally {
+                queueServices.release(system, failure);
+            }
+            if (read == 0 && prefetching) {
+                try {
+                    Thread.sleep(getDelay());
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
         }
     }
 
-    private Exchange receive(final DataQueue queue, final long timeout) throws Exception {
-        DataQueueEntry entry;
+    private Exchange receive(final Jt400QueueAccess queue, final long timeout) throws Exception {
+        Jt400QueueEntry entry = read(queue, timeout);
+        // the chunks of a message are read until it is complete
+        Jt400QueueEntry message = assemble(queue, entry);
+        while (entry != null && message == null) {
+            entry = read(queue, timeout);
+            message = assemble(queue, entry);
+        }
+        entry = message;
+        return entry != null ? toExchange(queue, entry) : null;
+    }
+
+    /**
+     * Returns the time to wait reading from a system. A read probing the half
+     * open circuit of the system does not wait: the producers of the system
+     * keep failing fast until the probe completes, so it must not last up to
+     * the read timeout on an empty data queue.
+     */
+    private static long probeTimeout(final Jt400SystemHealth system, final long timeout) {
+        return system.getState() == Jt400ConnectionHealth.State.HALF_OPEN ? 0 : timeout;
+    }
+
+    private Jt400QueueEntry read(final Jt400QueueAccess queue, final long timeout) throws Exception {
+        Jt400QueueEntry entry;
+        long start = System.nanoTime();
         if (timeout >= 0) {
             int seconds = (int) timeout / 1000;
             log.trace("Reading from data queue: {} with {} seconds timeout", queue.getName(), seconds);
@@ -130,46 +583,317 @@ public class Jt400DataQueueConsumer extends ScheduledPollConsumer {
             log.trace("Reading from data queue: {} with no timeout", queue.getName());
             entry = queue.read(-1);
         }
-
-        Exchange exchange = getEndpoint().createExchange();
-        if (entry != null) {
-            exchange.getIn().setHeader(Jt400Endpoint.SENDER_INFORMATION, entry.getSenderInformation());
-            if (getEndpoint().getFormat() == Jt400Configuration.Format.binary) {
-                exchange.getIn().setBody(entry.getData());
-            } else {
-                exchange.getIn().setBody(entry.getString());
-            }
-            return exchange;
-        }
-        return null;
+        getEndpoint().getMetrics().recordRead(System.nanoTime() - start, entry != null ? entry.getData().length : -1);
+        return entry;
     }
 
-    private Exchange receive(final KeyedDataQueue queue, final long timeout) throws Exception {
-        KeyedDataQueueEntry entry = null;
+    private Exchange receiveKeyed(final Jt400QueueAccess queue, final long timeout) throws Exception {
+        Jt400QueueEntry entry = null;
         String searchType = getEndpoint().getSearchType().name();
+        // other search types match entries of keys in other lanes
+        boolean exactKeys = getEndpoint().getSearchType() == Jt400Configuration.SearchType.EQ;
+        Jt400EndpointMetrics metrics = getEndpoint().getMetrics();
+        long start = System.nanoTime();
+        int probed = 0;
 
         for (final String key : searchKeysProvider.getKeys()) {
-            log.trace("Reading from data queue: {} with no timeout", queue.getName());
-            entry = queue.read(key, 0, searchType);
+            if (dispatcher != null && exactKeys && !dispatcher.hasRoom(key)) {
+                // read once the lane of the key has room again
+                continue;
+            }
+            if (acknowledger != null && acknowledger.isPending(key)) {
+                // a peek would return the entry not removed yet
+                continue;
+            }
+            Jt400Acknowledger.Ack ack = null;
+            if (acknowledger != null) {
+                log.trace("Peeking data queue: {} with no timeout", queue.getName());
+                entry = queue.peek(key, 0, searchType);
+                if (entry != null) {
+                    ack = acknowledger.register(currentSystem.getSystemName(), key, entry);
+                    if (ack == null) {
+                        // peeked with another search key, not removed yet
+                        continue;
+                    }
+                }
+            } else {
+                log.trace("Reading from data queue: {} with no timeout", queue.getName());
+                entry = queue.read(key, 0, searchType);
+            }
+            probed++;
+            metrics.recordKey(key, entry != null);
+
+            // the chunks of a message share its key
+            Jt400QueueEntry message = assemble(queue, entry);
+            while (entry != null && message == null) {
+                entry = queue.read(key, 0, searchType);
+                message = assemble(queue, entry);
+            }
+            entry = message;
 
             /*
                 We have a message from our list of keys, so return an exchange
              */
 
-            Exchange exchange = getEndpoint().createExchange();
             if (entry != null) {
-                exchange.getIn().setHeader(Jt400Endpoint.SENDER_INFORMATION, entry.getSenderInformation());
-                if (getEndpoint().getFormat() == Jt400Configuration.Format.binary) {
-                    exchange.getIn().setBody(entry.getData());
-                    exchange.getIn().setHeader(Jt400Endpoint.KEY, entry.getKey());
-                } else {
-                    exchange.getIn().setBody(entry.getString());
-                    exchange.getIn().setHeader(Jt400Endpoint.KEY, entry.getKeyString());
+                readKey = entry.getKeyString();
+                metrics.recordRead(System.nanoTime() - start, getLength(entry));
+                metrics.recordKeySweep(probed);
+                Exchange first = toExchange(queue, entry);
+                if (ack != null) {
+                    // the other messages of a coalesced entry were just unpacked
+                    ack.attach(first, quarantine != null);
+                    for (Exchange exchange : unpacked) {
+                        ack.attach(exchange, quarantine != null);
+                    }
                 }
-                return exchange;
+                return first;
             }
         }
+        metrics.recordRead(System.nanoTime() - start, -1);
+        metrics.recordKeySweep(probed);
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * Returns the exchange of an entry, or of the first message of a
+     * coalesced entry.
+     */
+    private Exchange toExchange(final Jt400QueueAccess queue, final Jt400QueueEntry entry) throws Exception {
+        Exchange first = unpack(queue, entry);
+        if (first != null) {
+            return first;
+        }
+        Exchange exchange = createExchange(entry);
+        if (getEndpoint().getFormat() == Jt400Configuration.Format.binary) {
+            exchange.getIn().setBody(toBinaryBody(exchange, queue, entry));
+        } else if (getEndpoint().getFormat() == Jt400Configuration.Format.utf8) {
+            exchange.getIn().setBody(toBody(exchange, queue, Jt400TextConverter.forCharset(queue.getCharset()).toUtf8(getData(entry))));
+        } else {
+            exchange.getIn().setBody(getString(queue, entry));
+        }
+        return exchange;
+    }
+
+    /**
+     * Returns an entry as is, unless it is a chunk of a message and the
+     * chunking option is set; returns the message if the chunk completes it,
+     * null otherwise.
+     */
+    private Jt400QueueEntry assemble(final Jt400QueueAccess queue, final Jt400QueueEntry entry) throws Exception {
+        if (entry == null || !getEndpoint().isChunking() || !Jt400EntryCodec.isChunk(entry.getData())) {
+            return entry;
+        }
+        return getEndpoint().getChunkAssembler().add(entry, queue.getCharset());
+    }
+
+    /**
+     * Returns the exchange of the first message of a coalesced entry and
+     * queues the exchanges of the next ones, or returns a single exchange of
+     * all its messages with the coalescedBatch option. Returns null if the
+     * entry is not coalesced or the coalescing option is not set.
+     */
+    private Exchange unpack(final Jt400QueueAccess queue, final Jt400QueueEntry entry) throws Exception {
+        if (!getEndpoint().isCoalescing() || entry instanceof Jt400ChunkAssembler.Message) {
+            // a reassembled message is never coalesced
+            return null;
+        }
+        byte[] data = getData(entry);
+        if (!Jt400EntryCodec.isCoalesced(data)) {
+            return null;
+        }
+        List<byte[]> records = Jt400EntryCodec.getRecords(data);
+        if (getEndpoint().isCoalescedBatch()) {
+            Exchange exchange = createExchange(entry);
+            List<Object> bodies = new ArrayList<Object>(records.size());
+            for (byte[] record : records) {
+                bodies.add(toRecordBody(exchange, queue, record));
+            }
+            exchange.getIn().setBody(bodies);
+            exchange.setProperty(Exchange.BATCH_SIZE, records.size());
+            return exchange;
+        }
+        Exchange first = null;
+        for (int i = 0; i < records.size(); i++) {
+            Exchange exchange = createExchange(entry);
+            exchange.getIn().setBody(toRecordBody(exchange, queue, records.get(i)));
+            exchange.setProperty(Exchange.BATCH_INDEX, i);
+            exchange.setProperty(Exchange.BATCH_SIZE, records.size());
+            exchange.setProperty(Exchange.BATCH_COMPLETE, i == records.size() - 1);
+            if (first == null) {
+                first = exchange;
+            } else {
+                unpacked.add(exchange);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Creates an exchange with the headers of an entry.
+     */
+    private Exchange createExchange(final Jt400QueueEntry entry) throws Exception {
+        Exchange exchange = getEndpoint().createExchange();
+        exchange.getIn().setHeader(Jt400Endpoint.SENDER_INFORMATION, entry.getSenderInformation());
+        if (getEndpoint().isKeyed()) {
+            if (getEndpoint().getFormat() == Jt400Configuration.Format.binary) {
+                exchange.getIn().setHeader(Jt400Endpoint.KEY, entry.getKey());
+            } else {
+                exchange.getIn().setHeader(Jt400Endpoint.KEY, entry.getKeyString());
+            }
+        }
+        return exchange;
+    }
+
+    /**
+     * Returns the body of a message of a coalesced entry, in the format of the
+     * endpoint.
+     */
+    private Object toRecordBody(final Exchange exchange, final Jt400QueueAccess queue, final byte[] record) throws Exception {
+        if (getEndpoint().getFormat() == Jt400Configuration.Format.binary) {
+            return toBody(exchange, queue, record);
+        } else if (getEndpoint().getFormat() == Jt400Configuration.Format.utf8) {
+            return toBody(exchange, queue, Jt400TextConverter.forCharset(queue.getCharset()).toUtf8(record));
+        }
+        return new String(record, queue.getCharset());
+    }
+
+    /**
+     * Returns the length of the data of an entry, without reading a
+     * reassembled message from its file.
+     */
+    private static int getLength(final Jt400QueueEntry entry) {
+        if (entry instanceof Jt400ChunkAssembler.Message) {
+            return ((Jt400ChunkAssembler.Message) entry).getLength();
+        }
+        return entry.getData().length;
+    }
+
+    /**
+     * Returns the body of an entry of the binary format. A message
+     * reassembled in a file is streamed from the file, deleted when the
+     * exchange completes, if the body type is a stream and the message
+     * cannot be compressed.
+     */
+    private Object toBinaryBody(final Exchange exchange, final Jt400QueueAccess queue, final Jt400QueueEntry entry) throws Exception {
+        if (entry instanceof Jt400ChunkAssembler.Message && ((Jt400ChunkAssembler.Message) entry).getFile() != null
+                && getEndpoint().getBodyType() == Jt400Configuration.BodyType.inputStream && !getEndpoint().isCompression()) {
+            final Jt400ChunkAssembler.Message message = (Jt400ChunkAssembler.Message) entry;
+            final InputStream in = message.openStream();
+            exchange.addOnCompletion(new SynchronizationAdapter() {
+                @Override
+                public void onDone(Exchange exchange) {
+                    IOHelper.close(in);
+                    message.discard();
+                }
+            });
+            return in;
+        }
+        return toBody(exchange, queue, getData(entry));
+    }
+
+    /**
+     * Returns the data of an entry, decompressed if compressed.
+     */
+    private byte[] getData(final Jt400QueueEntry entry) throws Exception {
+        byte[] data = entry.getData();
+        if (getEndpoint().isCompression() && Jt400EntryCodec.isCompressed(data)) {
+            return Jt400EntryCodec.decompress(data, getEndpoint().getCodecPool());
+        }
+        return data;
+    }
+
+    /**
+     * Returns the text of an entry, decompressed if compressed.
+     */
+    private String getString(final Jt400QueueAccess queue, final Jt400QueueEntry entry) throws Exception {
+        if (getEndpoint().isCompression() && Jt400EntryCodec.isCompressed(entry.getData())) {
+            return new String(Jt400EntryCodec.decompress(entry.getData(), getEndpoint().getCodecPool()), queue.getCharset());
+        }
+        return entry.getString();
+    }
+
+    /**
+     * Returns the body of an entry of the binary or utf8 format, of the type
+     * set by the bodyType option. With the pooledBuffers option, the data is
+     * copied to a pooled buffer owned by the exchange, and given back when the
+     * exchange completes.
+     */
+    private Object toBody(final Exchange exchange, final Jt400QueueAccess queue, final byte[] data) throws Exception {
+        Jt400Configuration.BodyType bodyType = getEndpoint().getBodyType();
+        if (bodyType == Jt400Configuration.BodyType.bytes) {
+            return data;
+        }
+        if (!getEndpoint().isPooledBuffers()) {
+            if (bodyType == Jt400Configuration.BodyType.byteBuffer) {
+                return ByteBuffer.wrap(data);
+            }
+            return new ByteArrayInputStream(data);
+        }
+
+        final Jt400BufferPool pool = getEndpoint().getBufferPool(queue.getMaxEntryLength());
+        if (data.length > pool.getCapacity()) {
+            // UTF-8 text longer than the host text, not worth a larger pool
+            log.debug("Entry of {} bytes does not fit in the pooled buffers of {}", data.length, getEndpoint());
+            return bodyType == Jt400Configuration.BodyType.byteBuffer ? ByteBuffer.wrap(data) : new ByteArrayInputStream(data);
+        }
+        final ByteBuffer buffer = pool.acquire();
+        buffer.put(data);
+        buffer.flip();
+        // the exchange owns the buffer until it completes, and the body is a
+        // read-only view so that the routes cannot write to a pooled buffer
+        exchange.addOnCompletion(new SynchronizationAdapter() {
+            @Override
+            public void onDone(Exchange exchange) {
+                pool.release(buffer);
+            }
+        });
+        if (bodyType == Jt400Configuration.BodyType.byteBuffer) {
+            return buffer.asReadOnlyBuffer();
+        }
+        return new ByteBufferInputStream(buffer.duplicate());
+    }
+
+    /**
+     * Stream reading the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
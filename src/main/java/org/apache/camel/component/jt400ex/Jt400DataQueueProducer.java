@@ -16,29 +16,68 @@
  */
 package org.apache.camel.component.jt400ex;
 
-import com.ibm.as400.access.BaseDataQueue;
-import com.ibm.as400.access.DataQueue;
-import com.ibm.as400.access.KeyedDataQueue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
 import org.apache.camel.Producer;
-import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.IOHelper;
 
 /**
  * {@link Producer} to send data to an AS/400 data queue.
  */
-public class Jt400DataQueueProducer extends DefaultProducer {
+public class Jt400DataQueueProducer extends DefaultAsyncProducer {
 
     private final Jt400Endpoint endpoint;
     
     /**
-     * Performs the lifecycle logic of this producer.
+     * Data queue handles of this producer on each system of the endpoint,
+     * shared with the other producers of the same queue (null if stopped).
+     */
+    private Jt400SharedDataQueues queues;
+
+    /**
+     * Waits for the replies of request-reply exchanges (null if the endpoint
+     * has no reply queue).
      */
-    private final Jt400DataQueueService queueService;
+    private Jt400ReplyManager replyManager;
+
+    /**
+     * Packs the messages into coalesced entries (null without the coalescing
+     * option).
+     */
+    private Jt400WriteCoalescer coalescer;
+
+    private ScheduledExecutorService lingerTimer;
+
+    /**
+     * Whether this producer spools the exchanges it cannot write, with the
+     * spoolDirectory option (false for the producer writing them from the
+     * spool).
+     */
+    private final boolean spooling;
+
+    /**
+     * Holds the exchanges to write once the systems can be reached again
+     * (null if not spooling or stopped).
+     */
+    private Jt400Spool spool;
 
     protected Jt400DataQueueProducer(Jt400Endpoint endpoint) {
+        this(endpoint, endpoint.getSpoolDirectory() != null);
+    }
+
+    Jt400DataQueueProducer(Jt400Endpoint endpoint, boolean spooling) {
         super(endpoint);
         this.endpoint = endpoint;
-        this.queueService = new Jt400DataQueueService(endpoint);
+        this.spooling = spooling;
     }
 
     /**
@@ -46,44 +85,499 @@ public class Jt400DataQueueProducer extends DefaultProducer {
      * endpoint's format is set to {@link org.apache.camel.component.jt400ex.Jt400Configuration.Format#binary}, the data queue entry's
      * data will be sent as a <code>byte[]</code>. If the endpoint's format is
      * set to {@link org.apache.camel.component.jt400ex.Jt400Configuration.Format#text}, the data queue entry's data will be sent as a
-     * <code>String</code>.
+     * <code>String</code>. If the endpoint's format is set to
+     * {@link org.apache.camel.component.jt400ex.Jt400Configuration.Format#utf8}, the body is taken as a <code>byte[]</code> holding
+     * UTF-8 text and converted to the CCSID of the system without going
+     * through a <code>String</code>. In both binary formats, the body may also
+     * be a <code>ByteBuffer</code>, including a direct one, or an
+     * <code>InputStream</code>.
      * <p/>
-     * If the endpoint is configured to publish to a {@link KeyedDataQueue},
+     * If the endpoint is configured to publish to a keyed data queue,
      * then the {@link org.apache.camel.Message} header <code>KEY</code> must be set.
+     * <p/>
+     * If the endpoint has a reply queue and the exchange is out capable, the
+     * exchange is completed once the entry written under its
+     * <code>CORRELATION_KEY</code> is read from the reply queue, without
+     * blocking the calling thread in the meantime.
+     * <p/>
+     * If the endpoint has alternate systems, each entry is written to the
+     * available system with the fewest exchanges in flight.
+     * <p/>
+     * With the coalescing option, the exchange is completed once the entry
+     * it is packed into is written.
+     * <p/>
+     * With the spoolDirectory option, the exchange is completed once spooled
+     * if none of the systems can be reached, or if exchanges spooled before
+     * are still to be written.
      */
-    public void process(final Exchange exchange) throws Exception {
-        BaseDataQueue queue = queueService.getDataQueue();
-        if (endpoint.isKeyed()) {
-            process((KeyedDataQueue) queue, exchange);
+    public boolean process(final Exchange exchange, final AsyncCallback callback) {
+        try {
+            if (coalescer != null) {
+                if (coalesce(exchange, callback)) {
+                    return false;
+                }
+            } else if (replyManager != null && exchange.getPattern().isOutCapable()) {
+                String correlationKey = replyManager.register(endpoint, exchange, callback);
+                try {
+                    write(exchange);
+                } catch (Exception e) {
+                    if (replyManager.cancel(correlationKey)) {
+                        exchange.setException(e);
+                        callback.done(true);
+                        return true;
+                    }
+                    // timed out in the meantime, the reply manager completes the exchange
+                }
+                return false;
+            } else if (spool != null) {
+                writeOrSpool(exchange);
+            } else {
+                write(exchange);
+            }
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        callback.done(true);
+        return true;
+    }
+
+    /**
+     * Writes an exchange, or spools it if its write fails because none of the
+     * systems can be reached or if exchanges spooled before are still to be
+     * written.
+     */
+    private void writeOrSpool(final Exchange exchange) throws Exception {
+        if (spool.offer(exchange)) {
+            return;
+        }
+        try {
+            write(exchange);
+        } catch (Exception e) {
+            if (!Jt400Spool.isUnreachable(e) || !spool.add(exchange)) {
+                throw e;
+            }
+            log.debug("Spooled exchange {} that could not be written to {}: {}", new Object[] {exchange.getExchangeId(), endpoint, e.getMessage()});
+        }
+    }
+
+    /**
+     * Adds the body of an exchange to the coalescer, or writes it on its own
+     * if it cannot be packed with others.
+     *
+     * @return whether the exchange was added to the coalescer
+     */
+    private boolean coalesce(final Exchange exchange, final AsyncCallback callback) throws Exception {
+        byte[] key = null;
+        byte[] record = null;
+        // messages are converted with the character set of the queue of the
+        // system they would be written to now
+        Jt400SystemHealth system = queues.acquire(null, true);
+        try {
+            Jt400QueueAccess queue = queues.get(system).next();
+            if (endpoint.isKeyed()) {
+                key = endpoint.getFormat() == Jt400Configuration.Format.binary
+                        ? exchange.getIn().getHeader(Jt400Endpoint.KEY, byte[].class)
+                        : toHostKey(queue, exchange.getIn().getHeader(Jt400Endpoint.KEY));
+            }
+            if (!isStreamedInChunks(exchange)) {
+                record = encode(queue, exchange);
+            }
+        } finally {
+            queues.release(system, null);
+        }
+        if (coalescer.add(key, record, exchange, callback)) {
+            return true;
+        }
+        if (record != null) {
+            writeCoalesced(key, record);
         } else {
-            process((DataQueue) queue, exchange);
+            write(exchange);
         }
+        return false;
     }
 
-    private void process(final DataQueue queue, final Exchange exchange) throws Exception {
+    /**
+     * Returns the body of an exchange converted to the data of an entry,
+     * before compression.
+     */
+    private byte[] encode(final Jt400QueueAccess queue, final Exchange exchange) throws Exception {
+        byte[] data;
         if (endpoint.getFormat() == Jt400Configuration.Format.binary) {
-            queue.write(exchange.getIn().getBody(byte[].class));
+            data = getData(queue, exchange);
+        } else if (endpoint.getFormat() == Jt400Configuration.Format.utf8) {
+            data = toHost(queue, exchange);
         } else {
-            queue.write(exchange.getIn().getBody(String.class));
+            String text = exchange.getIn().getBody(String.class);
+            data = text != null ? text.getBytes(queue.getCharset()) : null;
         }
+        return data != null ? data : new byte[0];
     }
 
-    private void process(final KeyedDataQueue queue, final Exchange exchange) throws Exception {
+    /**
+     * Writes an entry of the coalescer.
+     */
+    private void writeCoalesced(final byte[] key, final byte[] entry) throws Exception {
+        Jt400SystemHealth system = queues.acquire(null, true);
+        Throwable failure = null;
+        try {
+            Jt400QueueAccess queue = queues.get(system).next();
+            long start = System.nanoTime();
+            byte[] data = compress(entry);
+            writeEntry(queue, key, data);
+            endpoint.getMetrics().recordWrite(System.nanoTime() - start, data.length);
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            queues.release(system, failure);
+        }
+    }
+
+    private void write(final Exchange exchange) throws Exception {
+        Jt400SystemHealth system = queues.acquire(null, true);
+        Throwable failure = null;
+        try {
+            Jt400QueueAccess queue = queues.get(system).next();
+            long start = System.nanoTime();
+            int length;
+            if (endpoint.isKeyed()) {
+                length = writeKeyed(queue, exchange);
+            } else {
+                length = write(queue, exchange);
+            }
+            endpoint.getMetrics().recordWrite(System.nanoTime() - start, length);
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            queues.release(system, failure);
+        }
+    }
+
+    /**
+     * Writes the body of an exchange and returns its length (in characters
+     * for the text format, in host bytes for the utf8 format).
+     */
+    private int write(final Jt400QueueAccess queue, final Exchange exchange) throws Exception {
         if (endpoint.getFormat() == Jt400Configuration.Format.binary) {
-            queue.write(exchange.getIn().getHeader(Jt400Endpoint.KEY, byte[].class), exchange.getIn().getBody(byte[].class));
+            if (isStreamedInChunks(exchange)) {
+                return writeChunks(queue, null, exchange.getIn().getBody(InputStream.class));
+            }
+            byte[] data = compress(getData(queue, exchange));
+            writeEntry(queue, null, data);
+            return data != null ? data.length : 0;
+        } else if (endpoint.getFormat() == Jt400Configuration.Format.utf8) {
+            byte[] data = compress(toHost(queue, exchange));
+            writeEntry(queue, null, data);
+            return data != null ? data.length : 0;
         } else {
-            queue.write(exchange.getIn().getHeader(Jt400Endpoint.KEY, String.class), exchange.getIn().getBody(String.class));
+            String data = exchange.getIn().getBody(String.class);
+            byte[] encoded = encodeText(queue, data);
+            if (encoded != null) {
+                writeEntry(queue, null, encoded);
+                return encoded.length;
+            }
+            queue.write(data);
+            return data != null ? data.length() : 0;
         }
     }
 
+    private int writeKeyed(final Jt400QueueAccess queue, final Exchange exchange) throws Exception {
+        if (endpoint.getFormat() == Jt400Configuration.Format.binary) {
+            byte[] key = exchange.getIn().getHeader(Jt400Endpoint.KEY, byte[].class);
+            if (isStreamedInChunks(exchange)) {
+                return writeChunks(queue, key, exchange.getIn().getBody(InputStream.class));
+            }
+            byte[] data = compress(getData(queue, exchange));
+            writeEntry(queue, key, data);
+            return data != null ? data.length : 0;
+        } else if (endpoint.getFormat() == Jt400Configuration.Format.utf8) {
+            byte[] data = compress(toHost(queue, exchange));
+            writeEntry(queue, toHostKey(queue, exchange.getIn().getHeader(Jt400Endpoint.KEY)), data);
+            return data != null ? data.length : 0;
+        } else {
+            String data = exchange.getIn().getBody(String.class);
+            byte[] encoded = encodeText(queue, data);
+            if (encoded != null) {
+                writeEntry(queue, toHostKey(queue, exchange.getIn().getHeader(Jt400Endpoint.KEY, String.class)), encoded);
+                return encoded.length;
+            }
+            queue.write(exchange.getIn().getHeader(Jt400Endpoint.KEY, String.class), data);
+            return data != null ? data.length() : 0;
+        }
+    }
+
+    /**
+     * Writes the data of an entry, in chunks if longer than the maximum entry
+     * length with the chunking option.
+     *
+     * @param key the key of the entry, null for a non-keyed queue
+     */
+    private void writeEntry(final Jt400QueueAccess queue, final byte[] key, final byte[] data) throws Exception {
+        if (endpoint.isChunking() && data != null && data.length > queue.getMaxEntryLength()) {
+            writeChunks(queue, key, new ByteArrayInputStream(data));
+        } else if (endpoint.isKeyed()) {
+            queue.write(key, data);
+        } else {
+            queue.write(data);
+        }
+    }
+
+    /**
+     * Returns whether the body of an exchange is a stream written chunk by
+     * chunk as it is read, without holding the whole body in memory.
+     */
+    private boolean isStreamedInChunks(final Exchange exchange) {
+        return endpoint.isChunking() && !endpoint.isCompression() && exchange.getIn().getBody() instanceof InputStream;
+    }
+
+    /**
+     * Writes a message in chunks as long as the maximum entry length, read
+     * one at a time from a stream, and returns the length of the message.
+     * The chunks of a short message are written as a single chunk.
+     *
+     * @param key the key of the chunks, null for a non-keyed queue
+     */
+    private int writeChunks(final Jt400QueueAccess queue, final byte[] key, final InputStream in) throws Exception {
+        try {
+            int payload = queue.getMaxEntryLength() - Jt400EntryCodec.CHUNK_HEADER_LENGTH;
+            long messageId = ThreadLocalRandom.current().nextLong();
+            byte[] chunk = readChunk(in, payload);
+            int offset = 0;
+            while (true) {
+                int length = chunk.length - Jt400EntryCodec.CHUNK_HEADER_LENGTH;
+                byte[] next = length == payload ? readChunk(in, payload) : null;
+                boolean last = next == null || next.length == Jt400EntryCodec.CHUNK_HEADER_LENGTH;
+                if (!last && offset > Integer.MAX_VALUE - 2 * payload) {
+                    throw new IllegalArgumentException("Body is too long to be written in chunks");
+                }
+                Jt400EntryCodec.setChunkHeader(chunk, messageId, offset, last);
+                if (key != null) {
+                    queue.write(key, chunk);
+                } else {
+                    queue.write(chunk);
+                }
+                offset += length;
+                if (last) {
+                    return offset;
+                }
+                chunk = next;
+            }
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+
+    /**
+     * Reads the next chunk of a stream into a new entry, after room for the
+     * chunk header.
+     */
+    private static byte[] readChunk(final InputStream in, final int payload) throws IOException {
+        byte[] chunk = new byte[Jt400EntryCodec.CHUNK_HEADER_LENGTH + payload];
+        int length = Jt400EntryCodec.CHUNK_HEADER_LENGTH;
+        while (length < chunk.length) {
+            int n = in.read(chunk, length, chunk.length - length);
+            if (n < 0) {
+                break;
+            }
+            length += n;
+        }
+        return length == chunk.length ? chunk : Arrays.copyOf(chunk, length);
+    }
+
+    /**
+     * Returns the body of an exchange as the data of an entry. Byte buffers
+     * and streams are read directly, with a single copy at most, rather than
+     * through the type converters; the position of a buffer is left as is.
+     */
+    private byte[] getData(final Jt400QueueAccess queue, final Exchange exchange) throws Exception {
+        Object body = exchange.getIn().getBody();
+        if (body instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) body;
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                    && buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            return data;
+        } else if (body instanceof InputStream) {
+            InputStream in = (InputStream) body;
+            try {
+                return readEntry(in, getMaxDataLength(queue));
+            } finally {
+                IOHelper.close(in);
+            }
+        }
+        return exchange.getIn().getBody(byte[].class);
+    }
+
+    /**
+     * Returns the maximum length of the data of an entry, which compression
+     * and chunking extend beyond the maximum entry length.
+     */
+    private int getMaxDataLength(final Jt400QueueAccess queue) throws Exception {
+        if (endpoint.isCompression()) {
+            return Jt400EntryCodec.MAX_UNCOMPRESSED_LENGTH;
+        } else if (endpoint.isChunking()) {
+            return Integer.MAX_VALUE - 8;
+        }
+        return queue.getMaxEntryLength();
+    }
+
+    /**
+     * Reads a stream up to its end into an array of its exact length, sized
+     * from the bytes available first.
+     *
+     * @throws IllegalArgumentException if the stream is longer than the
+     *             maximum entry length
+     */
+    static byte[] readEntry(final InputStream in, final int maxEntryLength) throws IOException {
+        int available = in.available();
+        byte[] data = new byte[Math.min(available > 0 ? available : 8192, maxEntryLength)];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                // probe for the end of the stream before growing
+                int b = in.read();
+                if (b < 0) {
+                    return data;
+                }
+                if (length == maxEntryLength) {
+                    throw new IllegalArgumentException("Body is longer than the maximum entry length of " + maxEntryLength + " bytes");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(2L * data.length + 1, maxEntryLength));
+                data[length++] = (byte) b;
+            }
+            int n = in.read(data, length, data.length - length);
+            if (n < 0) {
+                return length == data.length ? data : Arrays.copyOf(data, length);
+            }
+            length += n;
+        }
+    }
+
+    /**
+     * Converts a UTF-8 body to the character set of the queue, reading heap
+     * byte buffers in place.
+     */
+    private byte[] toHost(final Jt400QueueAccess queue, final Exchange exchange) throws Exception {
+        Jt400TextConverter converter = Jt400TextConverter.forCharset(queue.getCharset());
+        Object body = exchange.getIn().getBody();
+        if (body instanceof ByteBuffer && ((ByteBuffer) body).hasArray()) {
+            ByteBuffer buffer = (ByteBuffer) body;
+            return converter.fromUtf8(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] utf8 = getData(queue, exchange);
+        return utf8 != null ? converter.fromUtf8(utf8) : null;
+    }
+
+    /**
+     * Compresses the data of an entry, with the compression option.
+     */
+    private byte[] compress(final byte[] data) {
+        return endpoint.isCompression() ? Jt400EntryCodec.compress(data, endpoint.getCompressionThreshold(), endpoint.getCodecPool()) : data;
+    }
+
+    /**
+     * Returns the data of a text body converted with the character set of the
+     * queue if it is to be compressed or written in chunks, or null if the
+     * text is to be written as is.
+     */
+    private byte[] encodeText(final Jt400QueueAccess queue, final String text) throws Exception {
+        if (!endpoint.isCompression() && !endpoint.isChunking() || text == null) {
+            return null;
+        }
+        byte[] data = text.getBytes(queue.getCharset());
+        byte[] compressed = compress(data);
+        if (compressed != data) {
+            return compressed;
+        }
+        return endpoint.isChunking() && data.length > queue.getMaxEntryLength() ? data : null;
+    }
+
+    /**
+     * Converts a text key to the character set of the queue, padded to the
+     * key length; binary keys are written as they are.
+     */
+    private static byte[] toHostKey(final Jt400QueueAccess queue, final Object key) throws Exception {
+        if (key == null || key instanceof byte[]) {
+            return (byte[]) key;
+        }
+        return Jt400TextConverter.forCharset(queue.getCharset()).encodeKey(key.toString(), queue.getKeyLength());
+    }
+
     @Override
     protected void doStart() throws Exception {
-        queueService.start();
+        if (endpoint.getReplyQueue() != null && endpoint.getSystemGroup().size() > 1) {
+            // replies are only read from the system of the URI
+            throw new IllegalArgumentException("The replyQueue option cannot be used with alternateSystems on " + endpoint);
+        }
+        if (endpoint.getReplyQueue() != null && endpoint.isCoalescing()) {
+            // requests wait for their replies, there is nothing to gain in delaying them
+            throw new IllegalArgumentException("The replyQueue option cannot be used with coalescing on " + endpoint);
+        }
+        if (endpoint.getSpoolDirectory() != null && (endpoint.getReplyQueue() != null || endpoint.isCoalescing())) {
+            // replies need the system, and coalesced entries are written outside of the exchanges
+            throw new IllegalArgumentException("The spoolDirectory option cannot be used with replyQueue or coalescing on " + endpoint);
+        }
+        if (queues == null) {
+            queues = new Jt400SharedDataQueues(endpoint);
+        }
+        try {
+            // connects to the first system that can be reached
+            queues.release(queues.acquire(null, true), null);
+        } catch (Jt400SystemUnavailableException e) {
+            if (endpoint.getSpoolDirectory() == null) {
+                throw e;
+            }
+            log.warn("None of the systems of {} can be reached, exchanges are spooled until one can: {}", endpoint, e.getMessage());
+        }
+        if (spooling) {
+            spool = endpoint.getComponent().acquireSpool(endpoint);
+        }
+        if (endpoint.getReplyQueue() != null) {
+            replyManager = endpoint.getComponent().acquireReplyManager(endpoint);
+        }
+        if (endpoint.isCoalescing() && coalescer == null) {
+            Jt400SystemHealth system = queues.acquire(null, true);
+            int maxEntryLength;
+            try {
+                maxEntryLength = queues.get(system).next().getMaxEntryLength();
+            } finally {
+                queues.release(system, null);
+            }
+            lingerTimer = endpoint.getCamelContext().getExecutorServiceManager()
+                    .newSingleThreadScheduledExecutor(this, "Jt400Coalescer[" + endpoint.getObjectPath() + "]");
+            coalescer = new Jt400WriteCoalescer(new Jt400WriteCoalescer.Writer() {
+                public void write(byte[] key, byte[] entry) throws Exception {
+                    writeCoalesced(key, entry);
+                }
+            }, lingerTimer, endpoint.getLingerTime(), maxEntryLength);
+        }
     }
 
     @Override
     protected void doStop() throws Exception {
-        queueService.stop();
+        if (spool != null) {
+            endpoint.getComponent().releaseSpool(spool);
+            spool = null;
+        }
+        if (coalescer != null) {
+            // writes the open entries before the queues are closed
+            coalescer.close();
+            coalescer = null;
+            endpoint.getCamelContext().getExecutorServiceManager().shutdown(lingerTimer);
+            lingerTimer = null;
+        }
+        if (replyManager != null) {
+            endpoint.getComponent().releaseReplyManager(replyManager);
+            replyManager = null;
+        }
+        if (queues != null) {
+            queues.close();
+            queues = null;
+        }
     }
 
 }
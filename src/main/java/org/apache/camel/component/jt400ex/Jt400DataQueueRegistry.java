@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.as400.access.AS400ConnectionPool;
+import org.apache.camel.util.ObjectHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference counted registry of the data queue handles of the producers of a
+ * component. Producers writing to the same data queue of the same system with
+ * the same user and connection settings share one set of handles, and thus
+ * only hold that many host server jobs between them.
+ */
+final class Jt400DataQueueRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400DataQueueRegistry.class);
+
+    private final Map<Key, Jt400SharedDataQueue> queues = new HashMap<Key, Jt400SharedDataQueue>();
+
+    /**
+     * Returns the handles of the data queue of an endpoint on one of its
+     * systems, opening them if needed. Callers have the responsibility of
+     * {@link #release(Jt400SharedDataQueue) releasing them} when done.
+     *
+     * @param endpoint the endpoint of the data queue
+     * @param systemName the system of the endpoint to connect to
+     * @param connections the number of connections to open when the handles
+     *            are created, or 0 for handles that are not shared
+     */
+    Jt400SharedDataQueue acquire(Jt400Endpoint endpoint, String systemName, int connections) throws Exception {
+        Jt400SharedDataQueue queue;
+        if (connections <= 0) {
+            queue = new Jt400SharedDataQueue(null, endpoint, systemName, 1);
+            queue.refs = 1;
+        } else {
+            Key key = new Key(endpoint, systemName);
+            synchronized (this) {
+                queue = queues.get(key);
+                if (queue == null) {
+                    queue = new Jt400SharedDataQueue(key, endpoint, systemName, connections);
+                    queues.put(key, queue);
+                    LOG.debug("Created {}", queue);
+                }
+                queue.refs++;
+            }
+        }
+
+        // connections are opened outside of the registry lock, so that a slow
+        // system does not hold up the other queues
+        try {
+            queue.open();
+        } catch (Exception e) {
+            invalidate(queue);
+            release(queue);
+            throw e;
+        }
+        return queue;
+    }
+
+    /**
+     * Releases handles obtained from {@link #acquire(Jt400Endpoint, String, int)},
+     * closing them once they have no more users.
+     */
+    void release(Jt400SharedDataQueue queue) {
+        synchronized (this) {
+            if (--queue.refs > 0) {
+                return;
+            }
+            if (queue.getKey() != null && queues.get(queue.getKey()) == queue) {
+                queues.remove(queue.getKey());
+            }
+        }
+        LOG.debug("Closing {}", queue);
+        queue.close();
+    }
+
+    /**
+     * Stops handing out handles whose connections failed. Their current users
+     * keep them until they release them, while new users get new handles.
+     */
+    synchronized void invalidate(Jt400SharedDataQueue queue) {
+        if (queue.getKey() != null && queues.get(queue.getKey()) == queue) {
+            queues.remove(queue.getKey());
+        }
+    }
+
+    /**
+     * Closes all the handles, whether released or not.
+     */
+    void close() {
+        List<Jt400SharedDataQueue> open;
+        synchronized (this) {
+            open = new ArrayList<Jt400SharedDataQueue>(queues.values());
+            queues.clear();
+        }
+        for (Jt400SharedDataQueue queue : open) {
+            queue.close();
+        }
+    }
+
+    /**
+     * Identifies a data queue of a system, together with the access factory
+     * and connection pool (by identity) and settings its connections come from.
+     */
+    private static final class Key {
+
+        private final Jt400QueueAccessFactory factory;
+        private final AS400ConnectionPool pool;
+        private final Jt400ConnectionProfile profile;
+        private final String objectPath;
+        private final boolean keyed;
+
+        Key(Jt400Endpoint endpoint, String systemName) {
+            this.factory = endpoint.getQueueAccessFactory();
+            this.pool = endpoint.getConfiguration().getConnectionPool();
+            this.profile = endpoint.getConfiguration().getConnectionProfile(systemName);
+            this.objectPath = endpoint.getObjectPath();
+            this.keyed = endpoint.isKeyed();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return factory == other.factory && pool == other.pool && keyed == other.keyed && profile.equals(other.profile)
+                    && ObjectHelper.equal(objectPath, other.objectPath);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(factory);
+            result = 31 * result + System.identityHashCode(pool);
+            result = 31 * result + profile.hashCode();
+            result = 31 * result + (objectPath != null ? objectPath.hashCode() : 0);
+            return 31 * result + (keyed ? 1 : 0);
+        }
+    }
+
+}
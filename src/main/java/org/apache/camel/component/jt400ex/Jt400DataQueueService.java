@@ -16,10 +16,6 @@
  */
 package org.apache.camel.component.jt400ex;
 
-import com.ibm.as400.access.AS400;
-import com.ibm.as400.access.BaseDataQueue;
-import com.ibm.as400.access.DataQueue;
-import com.ibm.as400.access.KeyedDataQueue;
 import org.apache.camel.Service;
 import org.apache.camel.util.ObjectHelper;
 import org.slf4j.Logger;
@@ -40,11 +36,16 @@ class Jt400DataQueueService implements Service {
      * Endpoint which this service connects to.
      */
     private final Jt400Endpoint endpoint;
+
+    /**
+     * Name of the system of the endpoint which this service connects to.
+     */
+    private final String systemName;
     
     /**
-     * Data queue object that corresponds to the endpoint of this service (null if stopped).
+     * Access to the data queue that corresponds to the endpoint of this service (null if stopped).
      */
-    private BaseDataQueue queue;
+    private Jt400QueueAccess queue;
     
     /**
      * Creates a {@code Jt400DataQueueService} that connects to the specified
@@ -53,44 +54,49 @@ class Jt400DataQueueService implements Service {
      * @param endpoint endpoint which this service connects to
      */
     Jt400DataQueueService(Jt400Endpoint endpoint) {
+        this(endpoint, endpoint.getSystemName());
+    }
+
+    /**
+     * Creates a {@code Jt400DataQueueService} that connects to the specified
+     * system of the specified endpoint.
+     *
+     * @param endpoint endpoint which this service connects to
+     * @param systemName name of the system of the endpoint to connect to
+     */
+    Jt400DataQueueService(Jt400Endpoint endpoint, String systemName) {
         ObjectHelper.notNull(endpoint, "endpoint", this);
+        ObjectHelper.notNull(systemName, "systemName", this);
         this.endpoint = endpoint;
+        this.systemName = systemName;
     }
 
     @Override
     public void start() throws Exception {
         if (queue == null) {
-            AS400 system = endpoint.getSystem();
-            if (endpoint.isKeyed()) {
-                queue = new KeyedDataQueue(system, endpoint.getObjectPath());
-            } else {
-                queue = new DataQueue(system, endpoint.getObjectPath());
-            }
-        }
-        if (!queue.getSystem().isConnected(AS400.DATAQUEUE)) {
-            LOG.info("Connecting to {}", endpoint);
-            queue.getSystem().connectService(AS400.DATAQUEUE);
+            queue = endpoint.getQueueAccessFactory().createQueueAccess(endpoint, systemName);
         }
+        queue.connect();
     }
 
     @Override
     public void stop() throws Exception {
         if (queue != null) {
-            LOG.info("Releasing connection to {}", endpoint);
-            AS400 system = queue.getSystem();
+            LOG.info("Releasing connection to {} on {}", endpoint, systemName);
+            Jt400QueueAccess access = queue;
             queue = null;
-            endpoint.releaseSystem(system);
+            access.close();
         }
     }
     
     /**
-     * Returns the data queue object that this service connects to. Returns
-     * {@code null} if the service is stopped.
+     * Returns the access to the data queue that this service connects to.
+     * Returns {@code null} if the service is stopped.
      * 
-     * @return the data queue object that this service connects to, or
+     * @return the access to the data queue that this service connects to, or
      *         {@code null} if stopped
      */
-    public BaseDataQueue getDataQueue() {
+    public Jt400QueueAccess getQueueAccess() {
         return queue;
     }
 
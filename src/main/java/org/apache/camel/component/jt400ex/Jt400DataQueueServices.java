@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+/**
+ * {@link Jt400DataQueueService}s held by a producer or consumer on each of the
+ * systems of its endpoint.
+ */
+final class Jt400DataQueueServices extends Jt400SystemResources<Jt400DataQueueService> {
+
+    private final Jt400Endpoint endpoint;
+
+    Jt400DataQueueServices(Jt400Endpoint endpoint) {
+        super(endpoint.getSystemGroup());
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    protected Jt400DataQueueService open(Jt400SystemHealth system) throws Exception {
+        Jt400DataQueueService service = new Jt400DataQueueService(endpoint, system.getSystemName());
+        try {
+            service.start();
+        } catch (Exception e) {
+            service.stop();
+            throw e;
+        }
+        return service;
+    }
+
+    @Override
+    protected void close(Jt400DataQueueService service) throws Exception {
+        service.stop();
+    }
+
+}
@@ -17,7 +17,16 @@
 package org.apache.camel.component.jt400ex;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.management.ObjectName;
 import javax.naming.OperationNotSupportedException;
 
 import com.ibm.as400.access.AS400;
@@ -31,6 +40,8 @@ import org.apache.camel.spi.UriEndpoint;
 import org.apache.camel.spi.UriParam;
 import org.apache.camel.util.ObjectHelper;
 import org.apache.camel.util.URISupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The jt400 component allows you to exchanges messages with an AS/400 system using data queues or program call.
@@ -40,10 +51,52 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
 
     public static final String KEY = "KEY";
     public static final String SENDER_INFORMATION = "SENDER_INFORMATION";
+    public static final String RETURN_VALUE = "RETURN_VALUE";
+    public static final String CORRELATION_KEY = "CORRELATION_KEY";
+    public static final String ATTEMPTS = "ATTEMPTS";
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400Endpoint.class);
 
     @UriParam
     private final Jt400Configuration configuration;
 
+    /**
+     * Parameter list descriptors shared by the program call producers of this
+     * endpoint, by CCSID of the system they convert text for (lazily built on
+     * first use).
+     */
+    private final ConcurrentMap<Integer, Jt400CallDescriptor> callDescriptors = new ConcurrentHashMap<Integer, Jt400CallDescriptor>();
+
+    /**
+     * Pool of the buffers holding received bodies (lazily created on first
+     * use, with the pooledBuffers option).
+     */
+    private Jt400BufferPool bufferPool;
+
+    /**
+     * Reassembler of chunked messages (lazily created on first use, with the
+     * chunking option).
+     */
+    private Jt400ChunkAssembler chunkAssembler;
+
+    /**
+     * Systems of this endpoint with their health, shared by its producers and
+     * consumers (lazily built on first use).
+     */
+    private Jt400SystemGroup systemGroup;
+
+    /**
+     * Metrics recorded by the producers and consumers of this endpoint.
+     */
+    private final Jt400EndpointMetrics metrics = new Jt400EndpointMetrics(this);
+
+    private final Jt400CodecPool codecPool = new Jt400CodecPool();
+
+    /**
+     * Name under which the metrics are registered in JMX (null if not registered).
+     */
+    private ObjectName metricsObjectName;
+
     /**
      * Creates a new AS/400 data queue endpoint using a default connection pool
      * provided by the component.
@@ -63,15 +116,45 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
         ObjectHelper.notNull(connectionPool, "connectionPool");
         try {
             configuration = new Jt400Configuration(endpointUri, connectionPool);
+            if (component != null) {
+                configuration.setProfilePools(component.getProfilePools());
+            }
         } catch (URISyntaxException e) {
             throw new CamelException("Unable to parse URI for " + URISupport.sanitizeUri(endpointUri), e);
         }
     }
 
+    /**
+     * Creates an endpoint with the given configuration.
+     */
+    Jt400Endpoint(String endpointUri, Jt400Component component, Jt400Configuration configuration) {
+        super(endpointUri, component);
+        this.configuration = configuration;
+    }
+
+    /**
+     * Creates the endpoint of the keyed reply queue of this endpoint, through
+     * which the replies of its request-reply exchanges are read. It connects
+     * with the settings of this endpoint, such as its connection pool and
+     * queue access factory.
+     */
+    Jt400Endpoint createReplyEndpoint() {
+        Jt400Configuration reply = configuration.copy();
+        reply.setObjectPath(getReplyQueue());
+        reply.setKeyed(true);
+        String uri = getEndpointUri();
+        uri = uri.substring(0, uri.indexOf("://") + 3) + getUserID() + '@' + getSystemName() + getReplyQueue();
+        return new Jt400Endpoint(uri, getComponent(), reply);
+    }
+
     @Override
     public Producer createProducer() throws Exception {
         if (Jt400Type.DTAQ == configuration.getType()) {
             return new Jt400DataQueueProducer(this);
+        } else if (Jt400Type.SRVPGM == configuration.getType()) {
+            return new Jt400SrvPgmProducer(this);
+        } else if (Jt400Type.CMD == configuration.getType()) {
+            return new Jt400CmdProducer(this);
         } else {
             return new Jt400PgmProducer(this);
         }
@@ -88,9 +171,94 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
         }
     }
 
+    public Jt400Configuration getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public Jt400Component getComponent() {
+        return (Jt400Component) super.getComponent();
+    }
+
+    /**
+     * Returns the metrics recorded by the producers and consumers of this
+     * endpoint.
+     */
+    public Jt400EndpointMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the compressors and decompressors of the entries of this
+     * endpoint, with the compression option.
+     */
+    Jt400CodecPool getCodecPool() {
+        return codecPool;
+    }
+
+    /**
+     * Registers the metrics of this endpoint in JMX and opens its prestart
+     * connections in parallel, so that they are ready in the connection pool
+     * before the routes using the endpoint accept traffic. Failures are
+     * logged but do not prevent the endpoint from starting.
+     */
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        metricsObjectName = getComponent().manage(metrics, "endpoint", URISupport.sanitizeUri(getEndpointUri()));
+
+        int dataQueueConnections = getPrestartDataQueueConnections();
+        int commandConnections = getPrestartCommandConnections();
+        int total = dataQueueConnections + commandConnections;
+        if (total <= 0) {
+            return;
+        }
+
+        LOG.info("Opening {} data queue and {} command connections for {}", new Object[]{dataQueueConnections, commandConnections, this});
+        ExecutorService executor = getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, "Jt400Prestart", total);
+        List<Future<AS400>> connections = new ArrayList<Future<AS400>>(total);
+        try {
+            for (int i = 0; i < total; i++) {
+                final int service = i < dataQueueConnections ? AS400.DATAQUEUE : AS400.COMMAND;
+                connections.add(executor.submit(new Callable<AS400>() {
+                    public AS400 call() throws Exception {
+                        return getSystem(service);
+                    }
+                }));
+            }
+            // connections are only returned once all are open, otherwise the
+            // same connection would be leased over and over
+            for (Future<AS400> connection : connections) {
+                try {
+                    releaseSystem(connection.get());
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to open a prestart connection for " + this + ". This exception will be ignored.", e.getCause());
+                }
+            }
+        } finally {
+            getCamelContext().getExecutorServiceManager().shutdown(executor);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (metricsObjectName != null) {
+            getComponent().unmanage(metricsObjectName);
+            metricsObjectName = null;
+        }
+        codecPool.close();
+        super.doStop();
+    }
+
+    /**
+     * Endpoints only hold their (immutable) configuration and the state shared
+     * by all their producers and consumers; the {@code AS400} objects are
+     * leased by each producer or consumer. Endpoints can thus be cached by the
+     * Camel context, so that dynamic routing to the same URI reuses the same
+     * endpoint and its started producer.
+     */
     public boolean isSingleton() {
-        // cannot be singleton as we store an AS400 instance on the configuration
-        return false;
+        return true;
     }
 
     /**
@@ -104,6 +272,33 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
         return configuration.getConnection();
     }
 
+    /**
+     * Obtains an {@code AS400} object that connects to this endpoint and is
+     * connected to the given service. Since these objects represent limited
+     * resources, clients have the responsibility of
+     * {@link #releaseSystem(AS400) releasing them} when done.
+     *
+     * @param service the service to connect to, such as {@code AS400.DATAQUEUE}
+     * @return an {@code AS400} object that connects to this endpoint
+     */
+    protected AS400 getSystem(int service) {
+        return configuration.getConnection(service);
+    }
+
+    /**
+     * Obtains an {@code AS400} object that connects to the given system of this
+     * endpoint and is connected to the given service. Since these objects
+     * represent limited resources, clients have the responsibility of
+     * {@link #releaseSystem(AS400) releasing them} when done.
+     *
+     * @param systemName the name of the system, as returned by {@link #getSystemGroup()}
+     * @param service the service to connect to, such as {@code AS400.DATAQUEUE}
+     * @return an {@code AS400} object that connects to the given system
+     */
+    protected AS400 getSystem(String systemName, int service) {
+        return configuration.getConnection(systemName, service);
+    }
+
     /**
      * Releases a previously obtained {@code AS400} object from use.
      *
@@ -113,6 +308,74 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
         configuration.releaseConnection(system);
     }
 
+    /**
+     * Returns the systems of this endpoint, building them on first use. The
+     * health of each system is shared with the other endpoints of the
+     * component connecting with the same user.
+     */
+    synchronized Jt400SystemGroup getSystemGroup() {
+        if (systemGroup == null) {
+            List<String> systemNames = configuration.getSystemNames();
+            if (systemNames.size() > Long.SIZE) {
+                throw new IllegalArgumentException("An endpoint cannot have more than " + Long.SIZE + " systems: " + systemNames);
+            }
+            List<Jt400ConnectionHealth> healths = new ArrayList<Jt400ConnectionHealth>(systemNames.size());
+            for (String systemName : systemNames) {
+                healths.add(getComponent().getConnectionHealth(systemName, getUserID()));
+            }
+            systemGroup = new Jt400SystemGroup(healths);
+        }
+        return systemGroup;
+    }
+
+    /**
+     * Returns the pool of the buffers holding the bodies received through
+     * this endpoint, creating it on first use. The pool is replaced by a pool
+     * of larger buffers if a queue allows longer entries.
+     *
+     * @param capacity the maximum entry length of the data queue
+     */
+    synchronized Jt400BufferPool getBufferPool(int capacity) {
+        if (bufferPool == null || bufferPool.getCapacity() < capacity) {
+            bufferPool = new Jt400BufferPool(capacity);
+        }
+        return bufferPool;
+    }
+
+    /**
+     * Returns the reassembler of the chunked messages read through this
+     * endpoint, creating it on first use.
+     */
+    synchronized Jt400ChunkAssembler getChunkAssembler() {
+        if (chunkAssembler == null) {
+            chunkAssembler = new Jt400ChunkAssembler(configuration.getChunkTimeout(), configuration.getChunkSpillThreshold());
+        }
+        return chunkAssembler;
+    }
+
+    /**
+     * Returns the parameter list descriptor of this endpoint for the given
+     * system, building it on first use. The text converters of a descriptor
+     * depend on the CCSID of the system, so a descriptor is shared by every
+     * program call made through this endpoint to systems of the same CCSID.
+     * In binary format the CCSID is unused and a single descriptor is shared.
+     *
+     * @param system the {@code AS400} object used to build the text converters
+     * @return the parameter list descriptor of this endpoint for the system
+     */
+    protected Jt400CallDescriptor getCallDescriptor(AS400 system) {
+        Integer ccsid = getFormat() == Jt400Configuration.Format.binary ? -1 : system.getCcsid();
+        Jt400CallDescriptor descriptor = callDescriptors.get(ccsid);
+        if (descriptor == null) {
+            descriptor = new Jt400CallDescriptor(this, system);
+            Jt400CallDescriptor existing = callDescriptors.putIfAbsent(ccsid, descriptor);
+            if (existing != null) {
+                descriptor = existing;
+            }
+        }
+        return descriptor;
+    }
+
     /**
      * Returns the fully qualified integrated file system path name of the data
      * queue of this endpoint.
@@ -276,4 +539,262 @@ public class Jt400Endpoint extends ScheduledPollEndpoint {
         configuration.setReadTimeout(readTimeout);
     }
 
+    public String getProcedureName() {
+        return configuration.getProcedureName();
+    }
+
+    public void setProcedureName(String procedureName) {
+        configuration.setProcedureName(procedureName);
+    }
+
+    public Jt400Configuration.ReturnValueFormat getReturnValueFormat() {
+        return configuration.getReturnValueFormat();
+    }
+
+    public void setReturnValueFormat(Jt400Configuration.ReturnValueFormat returnValueFormat) {
+        configuration.setReturnValueFormat(returnValueFormat);
+    }
+
+    public String getReplyQueue() {
+        return configuration.getReplyQueue();
+    }
+
+    public void setReplyQueue(String replyQueue) {
+        configuration.setReplyQueue(replyQueue);
+    }
+
+    public long getReplyTimeout() {
+        return configuration.getReplyTimeout();
+    }
+
+    public void setReplyTimeout(long replyTimeout) {
+        configuration.setReplyTimeout(replyTimeout);
+    }
+
+    public int getPrestartDataQueueConnections() {
+        Integer connections = configuration.getPrestartDataQueueConnections();
+        return connections != null ? connections : getComponent().getPrestartDataQueueConnections();
+    }
+
+    public void setPrestartDataQueueConnections(Integer prestartDataQueueConnections) {
+        configuration.setPrestartDataQueueConnections(prestartDataQueueConnections);
+    }
+
+    public int getPrestartCommandConnections() {
+        Integer connections = configuration.getPrestartCommandConnections();
+        return connections != null ? connections : getComponent().getPrestartCommandConnections();
+    }
+
+    public void setPrestartCommandConnections(Integer prestartCommandConnections) {
+        configuration.setPrestartCommandConnections(prestartCommandConnections);
+    }
+
+    public int getSharedConnections() {
+        return configuration.getSharedConnections();
+    }
+
+    public void setSharedConnections(int sharedConnections) {
+        configuration.setSharedConnections(sharedConnections);
+    }
+
+    public boolean isKeyStatistics() {
+        return configuration.isKeyStatistics();
+    }
+
+    public void setKeyStatistics(boolean keyStatistics) {
+        configuration.setKeyStatistics(keyStatistics);
+    }
+
+    public Jt400Configuration.BodyType getBodyType() {
+        return configuration.getBodyType();
+    }
+
+    public void setBodyType(Jt400Configuration.BodyType bodyType) {
+        configuration.setBodyType(bodyType);
+    }
+
+    public boolean isPooledBuffers() {
+        return configuration.isPooledBuffers();
+    }
+
+    public void setPooledBuffers(boolean pooledBuffers) {
+        configuration.setPooledBuffers(pooledBuffers);
+    }
+
+    public boolean isCompression() {
+        return configuration.isCompression();
+    }
+
+    public void setCompression(boolean compression) {
+        configuration.setCompression(compression);
+    }
+
+    public int getCompressionThreshold() {
+        return configuration.getCompressionThreshold();
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        configuration.setCompressionThreshold(compressionThreshold);
+    }
+
+    public boolean isChunking() {
+        return configuration.isChunking();
+    }
+
+    public void setChunking(boolean chunking) {
+        configuration.setChunking(chunking);
+    }
+
+    public long getChunkTimeout() {
+        return configuration.getChunkTimeout();
+    }
+
+    public void setChunkTimeout(long chunkTimeout) {
+        configuration.setChunkTimeout(chunkTimeout);
+    }
+
+    public int getChunkSpillThreshold() {
+        return configuration.getChunkSpillThreshold();
+    }
+
+    public void setChunkSpillThreshold(int chunkSpillThreshold) {
+        configuration.setChunkSpillThreshold(chunkSpillThreshold);
+    }
+
+    public boolean isCoalescing() {
+        return configuration.isCoalescing();
+    }
+
+    public void setCoalescing(boolean coalescing) {
+        configuration.setCoalescing(coalescing);
+    }
+
+    public long getLingerTime() {
+        return configuration.getLingerTime();
+    }
+
+    public void setLingerTime(long lingerTime) {
+        configuration.setLingerTime(lingerTime);
+    }
+
+    public boolean isCoalescedBatch() {
+        return configuration.isCoalescedBatch();
+    }
+
+    public void setCoalescedBatch(boolean coalescedBatch) {
+        configuration.setCoalescedBatch(coalescedBatch);
+    }
+
+    public int getConcurrentLanes() {
+        return configuration.getConcurrentLanes();
+    }
+
+    public void setConcurrentLanes(int concurrentLanes) {
+        configuration.setConcurrentLanes(concurrentLanes);
+    }
+
+    public int getLaneCapacity() {
+        return configuration.getLaneCapacity();
+    }
+
+    public void setLaneCapacity(int laneCapacity) {
+        configuration.setLaneCapacity(laneCapacity);
+    }
+
+    public String getErrorUri() {
+        return configuration.getErrorUri();
+    }
+
+    public void setErrorUri(String errorUri) {
+        configuration.setErrorUri(errorUri);
+    }
+
+    public int getErrorRetries() {
+        return configuration.getErrorRetries();
+    }
+
+    public void setErrorRetries(int errorRetries) {
+        configuration.setErrorRetries(errorRetries);
+    }
+
+    public long getErrorRetryDelay() {
+        return configuration.getErrorRetryDelay();
+    }
+
+    public void setErrorRetryDelay(long errorRetryDelay) {
+        configuration.setErrorRetryDelay(errorRetryDelay);
+    }
+
+    public boolean isAtLeastOnce() {
+        return configuration.isAtLeastOnce();
+    }
+
+    public void setAtLeastOnce(boolean atLeastOnce) {
+        configuration.setAtLeastOnce(atLeastOnce);
+    }
+
+    public String getSpoolDirectory() {
+        return configuration.getSpoolDirectory();
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        configuration.setSpoolDirectory(spoolDirectory);
+    }
+
+    public int getSpoolSegmentSize() {
+        return configuration.getSpoolSegmentSize();
+    }
+
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        configuration.setSpoolSegmentSize(spoolSegmentSize);
+    }
+
+    public long getSpoolRetryInterval() {
+        return configuration.getSpoolRetryInterval();
+    }
+
+    public void setSpoolRetryInterval(long spoolRetryInterval) {
+        configuration.setSpoolRetryInterval(spoolRetryInterval);
+    }
+
+    public long getPrefetchMemory() {
+        return configuration.getPrefetchMemory();
+    }
+
+    public void setPrefetchMemory(long prefetchMemory) {
+        configuration.setPrefetchMemory(prefetchMemory);
+    }
+
+    public String getPrefetchDirectory() {
+        return configuration.getPrefetchDirectory();
+    }
+
+    public void setPrefetchDirectory(String prefetchDirectory) {
+        configuration.setPrefetchDirectory(prefetchDirectory);
+    }
+
+    public Jt400QueueAccessFactory getQueueAccessFactory() {
+        return configuration.getQueueAccessFactory();
+    }
+
+    public void setQueueAccessFactory(Jt400QueueAccessFactory queueAccessFactory) {
+        configuration.setQueueAccessFactory(queueAccessFactory);
+    }
+
+    public String getAlternateSystems() {
+        return configuration.getAlternateSystems();
+    }
+
+    public void setAlternateSystems(String alternateSystems) {
+        configuration.setAlternateSystems(alternateSystems);
+    }
+
+    public boolean isStopOnError() {
+        return configuration.isStopOnError();
+    }
+
+    public void setStopOnError(boolean stopOnError) {
+        configuration.setStopOnError(stopOnError);
+    }
+
 }
\ No newline at end of file
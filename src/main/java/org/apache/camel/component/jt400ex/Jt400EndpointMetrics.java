@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.as400.access.AS400ConnectionPool;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
+
+/**
+ * Metrics of the producers and consumers of an endpoint. Recording only
+ * updates atomic counters and does not allocate, so it stays enabled in
+ * production; the key statistics, kept with the <code>keyStatistics</code>
+ * option, are the exception: recording them takes a lock, and allocates when
+ * a key is first seen (see {@link Jt400KeyStatistics}). Registered in JMX
+ * when the endpoint starts.
+ */
+@ManagedResource(description = "Metrics of a jt400ex endpoint")
+public final class Jt400EndpointMetrics {
+
+    private final Jt400Endpoint endpoint;
+
+    private final AtomicLong entriesRead = new AtomicLong();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final AtomicLong emptyPolls = new AtomicLong();
+
+    private final AtomicLong keySweeps = new AtomicLong();
+
+    private final AtomicLong keysProbed = new AtomicLong();
+
+    private final AtomicLong entriesWritten = new AtomicLong();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong programCalls = new AtomicLong();
+
+    private final AtomicLong programCallFailures = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong recoveredEntries = new AtomicLong();
+
+    private final AtomicLong quarantinedEntries = new AtomicLong();
+
+    private final AtomicLong spooledEntries = new AtomicLong();
+
+    private final AtomicLong replayedEntries = new AtomicLong();
+
+    private final AtomicLong bufferedEntries = new AtomicLong();
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    private final AtomicLong spilledEntries = new AtomicLong();
+
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private final Jt400LatencyHistogram readLatency = new Jt400LatencyHistogram();
+
+    private final Jt400LatencyHistogram writeLatency = new Jt400LatencyHistogram();
+
+    private final Jt400LatencyHistogram programCallLatency = new Jt400LatencyHistogram();
+
+    private final Jt400KeyStatistics keyStatistics = new Jt400KeyStatistics();
+
+    Jt400EndpointMetrics(Jt400Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    // Recorders
+
+    /**
+     * Records a read of a data queue.
+     *
+     * @param nanos the time the read took
+     * @param bytes the length of the entry read, or -1 if no entry was read
+     */
+    void recordRead(long nanos, int bytes) {
+        readLatency.record(nanos);
+        if (bytes < 0) {
+            emptyPolls.incrementAndGet();
+        } else {
+            entriesRead.incrementAndGet();
+            bytesRead.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Records a sweep of the keys of a keyed data queue.
+     *
+     * @param keys the number of keys read before finding an entry or giving up
+     */
+    void recordKeySweep(int keys) {
+        keySweeps.incrementAndGet();
+        keysProbed.addAndGet(keys);
+    }
+
+    /**
+     * Records the read of a search key of a keyed data queue, if the endpoint
+     * keeps key statistics.
+     *
+     * @param key the search key
+     * @param hit whether an entry was read
+     */
+    void recordKey(String key, boolean hit) {
+        if (endpoint.isKeyStatistics()) {
+            keyStatistics.record(key, hit);
+        }
+    }
+
+    /**
+     * Records a write to a data queue.
+     *
+     * @param nanos the time the write took
+     * @param bytes the length of the entry written (in characters for the
+     *            text format)
+     */
+    void recordWrite(long nanos, int bytes) {
+        writeLatency.record(nanos);
+        entriesWritten.incrementAndGet();
+        bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Records a program or service program call.
+     *
+     * @param nanos the time the call took
+     * @param success whether the program ended without error
+     */
+    void recordProgramCall(long nanos, boolean success) {
+        programCallLatency.record(nanos);
+        programCalls.incrementAndGet();
+        if (!success) {
+            programCallFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a retry of a failed exchange, with the errorUri option.
+     *
+     * @param success whether the exchange was processed without error
+     */
+    void recordRetry(boolean success) {
+        retries.incrementAndGet();
+        if (success) {
+            recoveredEntries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a failed exchange moved to the error endpoint.
+     */
+    void recordQuarantine() {
+        quarantinedEntries.incrementAndGet();
+    }
+
+    /**
+     * Records an exchange written to the spool.
+     */
+    void recordSpool() {
+        spooledEntries.incrementAndGet();
+    }
+
+    /**
+     * Records a spooled exchange written to the data queue.
+     */
+    void recordReplay() {
+        replayedEntries.incrementAndGet();
+    }
+
+    /**
+     * Records entries added to (or taken from, if negative) the memory of a
+     * prefetch buffer.
+     */
+    void recordBuffer(int entries, long bytes) {
+        bufferedEntries.addAndGet(entries);
+        bufferedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records entries added to (or taken from, if negative) the spill log of
+     * a prefetch buffer.
+     */
+    void recordSpill(int entries, long bytes) {
+        spilledEntries.addAndGet(entries);
+        spilledBytes.addAndGet(bytes);
+    }
+
+    // Counters
+
+    @ManagedAttribute(description = "Entries read from the data queue")
+    public long getEntriesRead() {
+        return entriesRead.get();
+    }
+
+    @ManagedAttribute(description = "Bytes read from the data queue")
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @ManagedAttribute(description = "Reads of the data queue that returned no entry")
+    public long getEmptyPolls() {
+        return emptyPolls.get();
+    }
+
+    @ManagedAttribute(description = "Ratio of the reads of the data queue that returned no entry")
+    public double getEmptyPollRatio() {
+        long empty = emptyPolls.get();
+        long total = empty + entriesRead.get();
+        return total == 0 ? 0 : (double) empty / total;
+    }
+
+    @ManagedAttribute(description = "Sweeps of the search keys of the keyed data queue")
+    public long getKeySweeps() {
+        return keySweeps.get();
+    }
+
+    @ManagedAttribute(description = "Keys read during the sweeps of the keyed data queue")
+    public long getKeysProbed() {
+        return keysProbed.get();
+    }
+
+    @ManagedAttribute(description = "Average number of keys read per sweep of the keyed data queue")
+    public double getKeysPerSweep() {
+        long sweeps = keySweeps.get();
+        return sweeps == 0 ? 0 : (double) keysProbed.get() / sweeps;
+    }
+
+    @ManagedAttribute(description = "Entries written to the data queue")
+    public long getEntriesWritten() {
+        return entriesWritten.get();
+    }
+
+    @ManagedAttribute(description = "Bytes (characters in text format) written to the data queue")
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @ManagedAttribute(description = "Program calls")
+    public long getProgramCalls() {
+        return programCalls.get();
+    }
+
+    @ManagedAttribute(description = "Program calls that ended in error")
+    public long getProgramCallFailures() {
+        return programCallFailures.get();
+    }
+
+    @ManagedAttribute(description = "Retries of exchanges that failed to process")
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @ManagedAttribute(description = "Exchanges processed without error on a retry")
+    public long getRecoveredEntries() {
+        return recoveredEntries.get();
+    }
+
+    @ManagedAttribute(description = "Exchanges moved to the error endpoint after failing their retries, or spooled and failing to be written")
+    public long getQuarantinedEntries() {
+        return quarantinedEntries.get();
+    }
+
+    @ManagedAttribute(description = "Exchanges spooled to local disk while the systems could not be reached")
+    public long getSpooledEntries() {
+        return spooledEntries.get();
+    }
+
+    @ManagedAttribute(description = "Spooled exchanges written to the data queue")
+    public long getReplayedEntries() {
+        return replayedEntries.get();
+    }
+
+    // Latencies
+
+    @ManagedAttribute(description = "Mean read latency in micros")
+    public long getReadMeanMicros() {
+        return readLatency.getMeanMicros();
+    }
+
+    @ManagedAttribute(description = "Median read latency in micros")
+    public long getReadP50Micros() {
+        return readLatency.getPercentileMicros(50);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the read latency in micros")
+    public long getReadP99Micros() {
+        return readLatency.getPercentileMicros(99);
+    }
+
+    @ManagedAttribute(description = "Maximum read latency in micros")
+    public long getReadMaxMicros() {
+        return readLatency.getMaxMicros();
+    }
+
+    @ManagedAttribute(description = "Mean write latency in micros")
+    public long getWriteMeanMicros() {
+        return writeLatency.getMeanMicros();
+    }
+
+    @ManagedAttribute(description = "Median write latency in micros")
+    public long getWriteP50Micros() {
+        return writeLatency.getPercentileMicros(50);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the write latency in micros")
+    public long getWriteP99Micros() {
+        return writeLatency.getPercentileMicros(99);
+    }
+
+    @ManagedAttribute(description = "Maximum write latency in micros")
+    public long getWriteMaxMicros() {
+        return writeLatency.getMaxMicros();
+    }
+
+    @ManagedAttribute(description = "Mean program call latency in micros")
+    public long getProgramCallMeanMicros() {
+        return programCallLatency.getMeanMicros();
+    }
+
+    @ManagedAttribute(description = "Median program call latency in micros")
+    public long getProgramCallP50Micros() {
+        return programCallLatency.getPercentileMicros(50);
+    }
+
+    @ManagedAttribute(description = "99th percentile of the program call latency in micros")
+    public long getProgramCallP99Micros() {
+        return programCallLatency.getPercentileMicros(99);
+    }
+
+    @ManagedAttribute(description = "Maximum program call latency in micros")
+    public long getProgramCallMaxMicros() {
+        return programCallLatency.getMaxMicros();
+    }
+
+    // Keys
+
+    @ManagedAttribute(description = "Number of search keys with statistics")
+    public int getTrackedKeys() {
+        return keyStatistics.size();
+    }
+
+    @ManagedOperation(description = "Statistics of the search keys with the most hits")
+    public String[] hotKeys(int count) {
+        return keyStatistics.hotKeys(count);
+    }
+
+    @ManagedOperation(description = "Statistics of the search keys without hits for the given millis, longest idle first")
+    public String[] idleKeys(long idleMillis, int count) {
+        return keyStatistics.idleKeys(idleMillis, count);
+    }
+
+    @ManagedOperation(description = "Statistics of a search key")
+    public String describeKey(String key) {
+        return keyStatistics.describe(key);
+    }
+
+    // Prefetch gauges
+
+    @ManagedAttribute(description = "Entries read ahead and held in memory by the consumers")
+    public long getBufferedEntries() {
+        return bufferedEntries.get();
+    }
+
+    @ManagedAttribute(description = "Bytes of the entries read ahead and held in memory by the consumers")
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    @ManagedAttribute(description = "Entries read ahead and spilled to local disk by the consumers")
+    public long getSpilledEntries() {
+        return spilledEntries.get();
+    }
+
+    @ManagedAttribute(description = "Bytes of the entries read ahead and spilled to local disk by the consumers")
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    // Connection pool gauges
+
+    @ManagedAttribute(description = "Connections of the endpoint currently leased from the pool")
+    public int getActiveConnections() {
+        AS400ConnectionPool pool = endpoint.getConfiguration().getProfilePool().getPool();
+        int active = 0;
+        for (String systemName : endpoint.getConfiguration().getSystemNames()) {
+            active += pool.getActiveConnectionCount(systemName, endpoint.getUserID());
+        }
+        return active;
+    }
+
+    @ManagedAttribute(description = "Connections of the endpoint currently idle in the pool")
+    public int getIdleConnections() {
+        AS400ConnectionPool pool = endpoint.getConfiguration().getProfilePool().getPool();
+        int idle = 0;
+        for (String systemName : endpoint.getConfiguration().getSystemNames()) {
+            idle += pool.getAvailableConnectionCount(systemName, endpoint.getUserID());
+        }
+        return idle;
+    }
+
+    @ManagedAttribute(description = "Threads currently waiting for the connection pool of the endpoint to lease a connection")
+    public int getConnectionWaiters() {
+        return endpoint.getConfiguration().getProfilePool().getWaiting();
+    }
+
+    @ManagedOperation(description = "Resets the counters, latencies and key statistics")
+    public void reset() {
+        entriesRead.set(0);
+        bytesRead.set(0);
+        emptyPolls.set(0);
+        keySweeps.set(0);
+        keysProbed.set(0);
+        entriesWritten.set(0);
+        bytesWritten.set(0);
+        programCalls.set(0);
+        programCallFailures.set(0);
+        retries.set(0);
+        recoveredEntries.set(0);
+        quarantinedEntries.set(0);
+        spooledEntries.set(0);
+        replayedEntries.set(0);
+        readLatency.reset();
+        writeLatency.reset();
+        programCallLatency.reset();
+        keyStatistics.reset();
+    }
+
+}
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Framing of data queue entries, used by the endpoints with the
+ * <code>compression</code>, <code>chunking</code> or <code>coalescing</code>
+ * options. A compressed
+ * entry is the raw deflate stream of the data behind a frame header:
+ * <pre>
+ * 0xFF 0x5A  magic
+ * 0x01       type (deflate)
+ * 4 bytes    length of the uncompressed data (big-endian)
+ * </pre>
+ * A chunk of a message longer than the maximum entry length is a part of
+ * the message behind a frame header:
+ * <pre>
+ * 0xFF 0x5A  magic
+ * 0x02       type (chunk)
+ * 8 bytes    message identifier
+ * 4 bytes    offset of the chunk in the message
+ * 1 byte     flags (0x01 on the last chunk)
+ * </pre>
+ * A coalesced entry packs several messages behind a frame header, each
+ * preceded by its length:
+ * <pre>
+ * 0xFF 0x5A  magic
+ * 0x03       type (coalesced)
+ * 4 bytes    length of the first message (big-endian)
+ * n bytes    first message
+ * ...        next messages, up to the end of the entry
+ * </pre>
+ * The first byte is never the first byte of UTF-8 text and is a seldom used
+ * control character in EBCDIC, so framed entries and plain entries can be
+ * written to the same queue. Entries are compressed only from a size
+ * threshold, and only if that makes them shorter; the chunks of a message
+ * hold the message as compressed, if it is, and coalesced entries are
+ * compressed as a whole.
+ * <p/>
+ * Compressors, decompressors and their output buffers are taken from a
+ * {@link Jt400CodecPool} of the endpoint.
+ */
+final class Jt400EntryCodec {
+
+    static final int HEADER_LENGTH = 7;
+
+    static final int CHUNK_HEADER_LENGTH = 16;
+
+    static final int COALESCED_HEADER_LENGTH = 3;
+
+    static final int RECORD_HEADER_LENGTH = 4;
+
+    /**
+     * Largest uncompressed entry accepted, bounding the memory a corrupt or
+     * hostile header can make the consumers allocate.
+     */
+    static final int MAX_UNCOMPRESSED_LENGTH = 16 * 1024 * 1024;
+
+    private static final byte MAGIC_0 = (byte) 0xFF;
+
+    private static final byte MAGIC_1 = (byte) 0x5A;
+
+    private static final byte DEFLATE = 1;
+
+    private static final byte CHUNK = 2;
+
+    private static final byte COALESCED = 3;
+
+    private static final byte LAST_CHUNK = 1;
+
+    private Jt400EntryCodec() {
+    }
+
+    /**
+     * Returns whether an entry is compressed.
+     */
+    static boolean isCompressed(byte[] entry) {
+        return entry != null && entry.length >= HEADER_LENGTH && entry[0] == MAGIC_0 && entry[1] == MAGIC_1 && entry[2] == DEFLATE;
+    }
+
+    /**
+     * Returns whether an entry is a chunk of a message.
+     */
+    static boolean isChunk(byte[] entry) {
+        return entry != null && entry.length >= CHUNK_HEADER_LENGTH && entry[0] == MAGIC_0 && entry[1] == MAGIC_1 && entry[2] == CHUNK;
+    }
+
+    /**
+     * Writes the frame header of a chunk at the start of an entry.
+     */
+    static void setChunkHeader(byte[] entry, long messageId, int offset, boolean last) {
+        entry[0] = MAGIC_0;
+        entry[1] = MAGIC_1;
+        entry[2] = CHUNK;
+        for (int i = 0; i < 8; i++) {
+            entry[3 + i] = (byte) (messageId >>> 56 - 8 * i);
+        }
+        entry[11] = (byte) (offset >>> 24);
+        entry[12] = (byte) (offset >>> 16);
+        entry[13] = (byte) (offset >>> 8);
+        entry[14] = (byte) offset;
+        entry[15] = last ? LAST_CHUNK : 0;
+    }
+
+    static long getChunkMessageId(byte[] chunk) {
+        long messageId = 0;
+        for (int i = 0; i < 8; i++) {
+            messageId = messageId << 8 | chunk[3 + i] & 0xFF;
+        }
+        return messageId;
+    }
+
+    static int getChunkOffset(byte[] chunk) {
+        return (chunk[11] & 0xFF) << 24 | (chunk[12] & 0xFF) << 16 | (chunk[13] & 0xFF) << 8 | chunk[14] & 0xFF;
+    }
+
+    static boolean isLastChunk(byte[] chunk) {
+        return (chunk[15] & LAST_CHUNK) != 0;
+    }
+
+    /**
+     * Returns whether an entry packs several messages.
+     */
+    static boolean isCoalesced(byte[] entry) {
+        return entry != null && entry.length >= COALESCED_HEADER_LENGTH && entry[0] == MAGIC_0 && entry[1] == MAGIC_1 && entry[2] == COALESCED;
+    }
+
+    /**
+     * Writes the frame header of a coalesced entry at the start of an entry.
+     */
+    static void setCoalescedHeader(byte[] entry) {
+        entry[0] = MAGIC_0;
+        entry[1] = MAGIC_1;
+        entry[2] = COALESCED;
+    }
+
+    /**
+     * Appends a message to a coalesced entry.
+     *
+     * @param entry the coalesced entry, with room for the message
+     * @param position the end of the messages already in the entry
+     * @return the end of the messages with the appended one
+     */
+    static int putRecord(byte[] entry, int position, byte[] record) {
+        int length = record.length;
+        entry[position] = (byte) (length >>> 24);
+        entry[position + 1] = (byte) (length >>> 16);
+        entry[position + 2] = (byte) (length >>> 8);
+        entry[position + 3] = (byte) length;
+        System.arraycopy(record, 0, entry, position + RECORD_HEADER_LENGTH, length);
+        return position + RECORD_HEADER_LENGTH + length;
+    }
+
+    /**
+     * Returns the messages of a coalesced entry.
+     *
+     * @throws DataFormatException if the entry is not a valid coalesced entry
+     */
+    static List<byte[]> getRecords(byte[] entry) throws DataFormatException {
+        if (!isCoalesced(entry)) {
+            throw new DataFormatException("Not a coalesced entry");
+        }
+        List<byte[]> records = new ArrayList<byte[]>();
+        int position = COALESCED_HEADER_LENGTH;
+        while (position < entry.length) {
+            if (entry.length - position < RECORD_HEADER_LENGTH) {
+                throw new DataFormatException("Truncated message length at " + position);
+            }
+            int length = (entry[position] & 0xFF) << 24 | (entry[position + 1] & 0xFF) << 16
+                    | (entry[position + 2] & 0xFF) << 8 | entry[position + 3] & 0xFF;
+            position += RECORD_HEADER_LENGTH;
+            if (length < 0 || length > entry.length - position) {
+                throw new DataFormatException("Invalid message length " + length + " at " + position);
+            }
+            records.add(Arrays.copyOfRange(entry, position, position + length));
+            position += length;
+        }
+        return records;
+    }
+
+    /**
+     * Compresses the data of an entry.
+     *
+     * @param threshold the length from which the data is compressed
+     * @param pool the pool of the compressors of the endpoint
+     * @return the compressed entry, or the data itself if shorter than the
+     *         threshold or not shortened by compression
+     */
+    static byte[] compress(byte[] data, int threshold, Jt400CodecPool pool) {
+        if (data == null || data.length < threshold || data.length <= HEADER_LENGTH) {
+            return data;
+        }
+        Jt400CodecPool.Compressor compressor = pool.takeCompressor();
+        try {
+            return compress(data, compressor);
+        } finally {
+            pool.giveBack(compressor);
+        }
+    }
+
+    private static byte[] compress(byte[] data, Jt400CodecPool.Compressor compressor) {
+        // only worth it if the result is shorter than the data
+        int limit = data.length - 1;
+        byte[] buffer = compressor.buffer(limit);
+        Deflater deflater = compressor.deflater;
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = HEADER_LENGTH;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(buffer, length, limit - length);
+        }
+        if (!deflater.finished()) {
+            return data;
+        }
+        buffer[0] = MAGIC_0;
+        buffer[1] = MAGIC_1;
+        buffer[2] = DEFLATE;
+        buffer[3] = (byte) (data.length >>> 24);
+        buffer[4] = (byte) (data.length >>> 16);
+        buffer[5] = (byte) (data.length >>> 8);
+        buffer[6] = (byte) data.length;
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Decompresses an entry.
+     *
+     * @param pool the pool of the decompressors of the endpoint
+     * @throws DataFormatException if the entry is not a valid compressed entry
+     */
+    static byte[] decompress(byte[] entry, Jt400CodecPool pool) throws DataFormatException {
+        if (!isCompressed(entry)) {
+            throw new DataFormatException("Not a compressed entry");
+        }
+        int length = (entry[3] & 0xFF) << 24 | (entry[4] & 0xFF) << 16 | (entry[5] & 0xFF) << 8 | entry[6] & 0xFF;
+        if (length < 0 || length > MAX_UNCOMPRESSED_LENGTH) {
+            throw new DataFormatException("Invalid uncompressed length " + length);
+        }
+        Inflater inflater = pool.takeInflater();
+        try {
+            return decompress(entry, length, inflater);
+        } finally {
+            pool.giveBack(inflater);
+        }
+    }
+
+    private static byte[] decompress(byte[] entry, int length, Inflater inflater) throws DataFormatException {
+        byte[] data = new byte[length];
+        inflater.reset();
+        inflater.setInput(entry, HEADER_LENGTH, entry.length - HEADER_LENGTH);
+        int n = 0;
+        while (n < length) {
+            int inflated = inflater.inflate(data, n, length - n);
+            if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            n += inflated;
+        }
+        if (n != length || !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+            throw new DataFormatException("Compressed entry does not hold " + length + " bytes");
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,314 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Statistics of the search keys read by the consumers of a keyed data queue:
+ * hits, misses, time of the last hit and moving average of the time between
+ * hits of every key.
+ * <p/>
+ * The statistics live in parallel primitive arrays indexed through an open
+ * addressing table, so that tracking a hundred thousand keys costs a few
+ * megabytes and recording a read does not allocate once a key is known.
+ * Recording is done by the polling threads of the consumers and is cheap
+ * enough to be guarded by the monitor of this object; the reports scan all
+ * the keys and are meant to be requested from time to time (through JMX).
+ * <p/>
+ * The search keys provider may change its keys over time, so the number of
+ * keys is capped: when a new key finds the table full, the half of the keys
+ * read least recently (those no longer provided, first of all) are evicted.
+ */
+final class Jt400KeyStatistics {
+
+    /**
+     * Weight of the latest interval in the moving average of the time between
+     * hits.
+     */
+    private static final double ALPHA = 0.2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Default maximum number of keys.
+     */
+    static final int MAX_KEYS = 100000;
+
+    private final int maxKeys;
+
+    /**
+     * Index of each key in the arrays plus one (0 for free slots), by hash.
+     */
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+
+    private long[] hits = new long[INITIAL_CAPACITY];
+
+    private long[] misses = new long[INITIAL_CAPACITY];
+
+    /**
+     * {@code System.currentTimeMillis()} of the last hit, 0 if never hit.
+     */
+    private long[] lastHits = new long[INITIAL_CAPACITY];
+
+    /**
+     * Moving average of the time between hits in millis, 0 until two hits.
+     */
+    private double[] intervals = new double[INITIAL_CAPACITY];
+
+    /**
+     * Value of {@link #reads} at the last read of the key.
+     */
+    private long[] lastReads = new long[INITIAL_CAPACITY];
+
+    /**
+     * Number of reads recorded, which orders the reads of the keys.
+     */
+    private long reads;
+
+    private int size;
+
+    Jt400KeyStatistics() {
+        this(MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys the maximum number of keys (at least 2)
+     */
+    Jt400KeyStatistics(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Records a read of a key.
+     *
+     * @param key the search key that was read
+     * @param hit whether an entry was read
+     */
+    synchronized void record(String key, boolean hit) {
+        int i = indexOf(key);
+        lastReads[i] = ++reads;
+        if (hit) {
+            long now = System.currentTimeMillis();
+            long last = lastHits[i];
+            if (last != 0) {
+                long interval = Math.max(now - last, 0);
+                intervals[i] = hits[i] <= 1 ? interval : intervals[i] + ALPHA * (interval - intervals[i]);
+            }
+            lastHits[i] = now;
+            hits[i]++;
+        } else {
+            misses[i]++;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the statistics of a key, or null if it was never read.
+     */
+    synchronized String describe(String key) {
+        int slot = slot(key);
+        int i = table[slot] - 1;
+        return i < 0 ? null : describe(i, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the statistics of the keys with the most hits, most hit first.
+     *
+     * @param count the maximum number of keys to return
+     */
+    synchronized String[] hotKeys(int count) {
+        final long[] values = hits;
+        return report(count, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return compareLongs(values[a], values[b]);
+            }
+        }, false, 0);
+    }
+
+    /**
+     * Returns the statistics of the keys without hits for at least the given
+     * time, longest idle first (keys never hit first of all).
+     *
+     * @param idleMillis the minimum time since the last hit
+     * @param count the maximum number of keys to return
+     */
+    synchronized String[] idleKeys(long idleMillis, int count) {
+        final long[] values = lastHits;
+        long threshold = System.currentTimeMillis() - idleMillis;
+        // an older last hit ranks higher
+        return report(count, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return compareLongs(values[b], values[a]);
+            }
+        }, true, threshold);
+    }
+
+    synchronized void reset() {
+        table = new int[INITIAL_CAPACITY * 2];
+        keys = new String[INITIAL_CAPACITY];
+        hits = new long[INITIAL_CAPACITY];
+        misses = new long[INITIAL_CAPACITY];
+        lastHits = new long[INITIAL_CAPACITY];
+        intervals = new double[INITIAL_CAPACITY];
+        lastReads = new long[INITIAL_CAPACITY];
+        reads = 0;
+        size = 0;
+    }
+
+    /**
+     * Selects the <code>count</code> greatest keys according to the given
+     * order with a bounded heap.
+     *
+     * @param idleOnly whether to only select the keys last hit before the threshold
+     * @param idleThreshold time before which the selected keys were last hit
+     */
+    private String[] report(int count, final Comparator<Integer> order, boolean idleOnly, long idleThreshold) {
+        if (count <= 0) {
+            return new String[0];
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.min(count, Math.max(size, 1)) + 1, order);
+        for (int i = 0; i < size; i++) {
+            if (idleOnly && lastHits[i] >= idleThreshold) {
+                continue;
+            }
+            heap.add(i);
+            if (heap.size() > count) {
+                heap.poll();
+            }
+        }
+        Integer[] selected = heap.toArray(new Integer[heap.size()]);
+        Arrays.sort(selected, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return order.compare(b, a);
+            }
+        });
+        long now = System.currentTimeMillis();
+        String[] report = new String[selected.length];
+        for (int i = 0; i < selected.length; i++) {
+            report[i] = describe(selected[i], now);
+        }
+        return report;
+    }
+
+    private String describe(int i, long now) {
+        StringBuilder sb = new StringBuilder(keys[i]);
+        sb.append(" hits=").append(hits[i]).append(" misses=").append(misses[i]);
+        if (lastHits[i] != 0) {
+            sb.append(" lastHitMillisAgo=").append(now - lastHits[i]);
+        }
+        if (hits[i] > 1) {
+            sb.append(" avgInterArrivalMillis=").append(Math.round(intervals[i]));
+        }
+        return sb.toString();
+    }
+
+    private int indexOf(String key) {
+        int slot = slot(key);
+        int i = table[slot] - 1;
+        if (i >= 0) {
+            return i;
+        }
+        if (size >= maxKeys) {
+            evict();
+            slot = slot(key);
+        } else if (size == keys.length) {
+            grow();
+            slot = slot(key);
+        }
+        i = size++;
+        keys[i] = key;
+        table[slot] = i + 1;
+        return i;
+    }
+
+    /**
+     * Returns the slot of a key in the table: the slot holding it, or else the
+     * free slot where it belongs (linear probing).
+     */
+    private int slot(String key) {
+        int mask = table.length - 1;
+        int h = key.hashCode();
+        int slot = (h ^ h >>> 16) & mask;
+        while (table[slot] != 0 && !keys[table[slot] - 1].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        hits = Arrays.copyOf(hits, capacity);
+        misses = Arrays.copyOf(misses, capacity);
+        lastHits = Arrays.copyOf(lastHits, capacity);
+        intervals = Arrays.copyOf(intervals, capacity);
+        lastReads = Arrays.copyOf(lastReads, capacity);
+        // the table stays at most half full
+        table = new int[capacity * 2];
+        rehash();
+    }
+
+    /**
+     * Drops the half of the keys read least recently, keeping the arrays.
+     */
+    private void evict() {
+        long[] order = Arrays.copyOf(lastReads, size);
+        Arrays.sort(order);
+        // the reads are numbered, so exactly the newer half is kept
+        long threshold = order[size / 2];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (lastReads[i] >= threshold) {
+                keys[kept] = keys[i];
+                hits[kept] = hits[i];
+                misses[kept] = misses[i];
+                lastHits[kept] = lastHits[i];
+                intervals[kept] = intervals[i];
+                lastReads[kept] = lastReads[i];
+                kept++;
+            }
+        }
+        Arrays.fill(keys, kept, size, null);
+        Arrays.fill(hits, kept, size, 0);
+        Arrays.fill(misses, kept, size, 0);
+        Arrays.fill(lastHits, kept, size, 0);
+        Arrays.fill(intervals, kept, size, 0);
+        Arrays.fill(lastReads, kept, size, 0);
+        size = kept;
+        Arrays.fill(table, 0);
+        rehash();
+    }
+
+    private void rehash() {
+        for (int i = 0; i < size; i++) {
+            table[slot(keys[i])] = i + 1;
+        }
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.spi.ExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the exchanges received by a keyed data queue consumer on a fixed
+ * set of lanes, with the <code>concurrentLanes</code> option. Each lane has a
+ * bounded queue and a single thread, and the exchanges of a key always go to
+ * the same lane, chosen from the hash of the key of the entry they were read
+ * from (whether read directly or ahead): the exchanges of a key are processed
+ * one at a time in the order they were read, and a slow key only holds up the
+ * keys of its lane. With the <code>EQ</code> search type, the consumer skips
+ * the search keys whose lane is full, and waits for room in a lane only when
+ * an entry read turns into more exchanges than the lane can take; with the
+ * other search types, the lane of an entry is only known once read, so the
+ * consumer waits for room in it.
+ */
+final class Jt400LaneDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400LaneDispatcher.class);
+
+    /**
+     * Time in millis after which waiting threads check whether the lanes are
+     * stopping.
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    private final Processor processor;
+
+    private final ExceptionHandler exceptionHandler;
+
+    private final BlockingQueue<Exchange>[] queues;
+
+    private final AtomicLong waits = new AtomicLong();
+
+    private volatile boolean running;
+
+    /**
+     * @param processor processes the exchanges
+     * @param exceptionHandler handles the exceptions of the processor
+     * @param lanes number of lanes
+     * @param capacity number of exchanges each lane can hold besides the one
+     *            being processed
+     */
+    @SuppressWarnings("unchecked")
+    Jt400LaneDispatcher(Processor processor, ExceptionHandler exceptionHandler, int lanes, int capacity) {
+        this.processor = processor;
+        this.exceptionHandler = exceptionHandler;
+        this.queues = new BlockingQueue[lanes];
+        for (int i = 0; i < lanes; i++) {
+            queues[i] = new ArrayBlockingQueue<Exchange>(capacity);
+        }
+    }
+
+    /**
+     * Starts a thread per lane.
+     *
+     * @param executor executor with a thread for each lane
+     */
+    void start(ExecutorService executor) {
+        running = true;
+        for (final BlockingQueue<Exchange> queue : queues) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    runLane(queue);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops taking exchanges; the lanes process the exchanges they hold and
+     * then let their threads end.
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Returns whether the lane of a key can take an exchange without waiting.
+     */
+    boolean hasRoom(Object key) {
+        return queues[laneOf(key, queues.length)].remainingCapacity() > 0;
+    }
+
+    /**
+     * Queues an exchange on the lane of its key, waiting for room in the lane
+     * if needed.
+     *
+     * @param key the key of the entry the exchange was read from
+     * @throws RejectedExecutionException if the lanes stop in the meantime
+     */
+    void dispatch(Exchange exchange, Object key) throws InterruptedException {
+        BlockingQueue<Exchange> queue = queues[laneOf(key, queues.length)];
+        if (queue.offer(exchange)) {
+            return;
+        }
+        waits.incrementAndGet();
+        while (!queue.offer(exchange, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (!running) {
+                throw new RejectedExecutionException("Lanes are stopped");
+            }
+        }
+    }
+
+    /**
+     * Returns the lane of a key: lane 0 without a key, spread by the hash of
+     * the key otherwise (by content for binary keys, and ignoring the blanks
+     * padding text keys to the key length of the queue).
+     */
+    static int laneOf(Object key, int lanes) {
+        if (key == null) {
+            return 0;
+        }
+        int hash;
+        if (key instanceof byte[]) {
+            hash = Arrays.hashCode((byte[]) key);
+        } else if (key instanceof String) {
+            hash = trimPadding((String) key).hashCode();
+        } else {
+            hash = key.hashCode();
+        }
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes;
+    }
+
+    private static String trimPadding(String key) {
+        int end = key.length();
+        while (end > 0 && (key.charAt(end - 1) == ' ' || key.charAt(end - 1) == '\0')) {
+            end--;
+        }
+        return key.substring(0, end);
+    }
+
+    /**
+     * Returns the number of exchanges waiting in the lanes.
+     */
+    int getPendingCount() {
+        int count = 0;
+        for (BlockingQueue<Exchange> queue : queues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of times the consumer waited for room in a lane.
+     */
+    long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the exchanges left in the lanes after their threads ended, and
+     * empties the lanes.
+     */
+    int clear() {
+        int count = 0;
+        for (BlockingQueue<Exchange> queue : queues) {
+            count += queue.size();
+            queue.clear();
+        }
+        return count;
+    }
+
+    private void runLane(BlockingQueue<Exchange> queue) {
+        while (true) {
+            Exchange exchange;
+            try {
+                exchange = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOG.debug("Lane interrupted with {} exchanges left", queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (exchange == null) {
+                if (!running) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                processor.process(exchange);
+            } catch (Throwable e) {
+                exchange.setException(e);
+            }
+            if (exchange.getException() != null) {
+                exceptionHandler.handleException("Error processing exchange", exchange, exchange.getException());
+            }
+        }
+    }
+
+}
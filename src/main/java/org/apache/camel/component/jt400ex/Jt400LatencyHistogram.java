@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in power of two buckets: bucket
+ * <code>i</code> counts the latencies of less than <code>2^i</code> nanos
+ * that do not fit in bucket <code>i - 1</code>. Recording does not allocate,
+ * and percentiles are reported as the upper bound of their bucket, so they
+ * are accurate within a factor of two.
+ */
+final class Jt400LatencyHistogram {
+
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanos
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(total.get() / n);
+    }
+
+    long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(max.get());
+    }
+
+    /**
+     * Returns the given percentile in micros, rounded up to the upper bound of
+     * its bucket (0 if nothing was recorded).
+     *
+     * @param percentile the percentile, between 0 and 100
+     */
+    long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                long upper = i >= Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+                return Math.min(TimeUnit.NANOSECONDS.toMicros(upper), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+}
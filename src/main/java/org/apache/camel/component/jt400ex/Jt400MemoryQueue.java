@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory data queue, as held by {@link Jt400MemoryQueues}. Non-keyed
+ * queues are FIFO. Keyed queues return entries in key order (unsigned byte
+ * comparison), FIFO among entries with the same key, as AS/400 keyed data
+ * queues do; a keyed read returns the first entry in key order whose key
+ * matches the search key with the search type (EQ, NE, LT, LE, GT or GE).
+ */
+final class Jt400MemoryQueue {
+
+    /**
+     * Maximum length of the entries, the largest allowed for an AS/400 data
+     * queue.
+     */
+    static final int MAX_ENTRY_LENGTH = 64512;
+
+    /**
+     * Entry of a data queue. Text is converted with the character set of the
+     * queue.
+     */
+    static final class Entry implements Jt400QueueEntry {
+
+        private final byte[] key;
+        private final byte[] data;
+        private final byte[] senderInformation;
+        private final Charset charset;
+
+        Entry(byte[] key, byte[] data, byte[] senderInformation, Charset charset) {
+            this.key = key;
+            this.data = data;
+            this.senderInformation = senderInformation;
+            this.charset = charset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getString() {
+            return new String(data, charset);
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the key as text, without the blanks or zeros padding it to
+         * the key length.
+         */
+        public String getKeyString() {
+            if (key == null) {
+                return null;
+            }
+            String text = new String(key, charset);
+            int end = text.length();
+            while (end > 0 && (text.charAt(end - 1) == ' ' || text.charAt(end - 1) == '\0')) {
+                end--;
+            }
+            return text.substring(0, end);
+        }
+
+        public String getSenderInformation() {
+            return senderInformation != null ? new String(senderInformation, charset) : null;
+        }
+
+        byte[] getSenderData() {
+            return senderInformation;
+        }
+    }
+
+    private static final Comparator<byte[]> UNSIGNED = new Comparator<byte[]>() {
+        public int compare(byte[] a, byte[] b) {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final String path;
+
+    private final int keyLength;
+
+    private final Charset charset;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition written = lock.newCondition();
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+
+    private final TreeMap<byte[], ArrayDeque<Entry>> keyedEntries = new TreeMap<byte[], ArrayDeque<Entry>>(UNSIGNED);
+
+    private int size;
+
+    /**
+     * Number of readers waiting for an entry.
+     */
+    private int waiting;
+
+    /**
+     * @param keyLength the length of the keys, or 0 for a non-keyed queue
+     * @param charset the character set of the text of the entries
+     */
+    Jt400MemoryQueue(String path, int keyLength, Charset charset) {
+        this.path = path;
+        this.keyLength = keyLength;
+        this.charset = charset;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    int getKeyLength() {
+        return keyLength;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    boolean isKeyed() {
+        return keyLength > 0;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            keyedEntries.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes an entry.
+     *
+     * @param key the key of the entry (ignored by non-keyed queues), padded
+     *            with zeros up to the key length
+     */
+    void write(byte[] key, byte[] data, byte[] senderInformation) {
+        if (data.length > MAX_ENTRY_LENGTH) {
+            throw new IllegalArgumentException("Entry of " + data.length + " bytes is longer than the maximum entry length of " + path);
+        }
+        lock.lock();
+        try {
+            if (isKeyed()) {
+                byte[] paddedKey = pad(key);
+                ArrayDeque<Entry> sameKey = keyedEntries.get(paddedKey);
+                if (sameKey == null) {
+                    sameKey = new ArrayDeque<Entry>();
+                    keyedEntries.put(paddedKey, sameKey);
+                }
+                sameKey.addLast(new Entry(paddedKey, data, senderInformation, charset));
+            } else {
+                entries.addLast(new Entry(null, data, senderInformation, charset));
+            }
+            size++;
+            if (waiting > 0) {
+                // keyed readers may wait for different keys
+                written.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads (and removes, unless peeking) the first matching entry, waiting
+     * for one if needed.
+     *
+     * @param key the search key (ignored by non-keyed queues)
+     * @param searchType the search type (ignored by non-keyed queues)
+     * @param wait the time in seconds to wait for an entry, -1 to wait forever
+     * @param peek whether to leave the entry on the queue
+     * @return the entry, or null if there was none within the wait time
+     */
+    Entry read(byte[] key, String searchType, int wait, boolean peek) throws InterruptedException {
+        byte[] searchKey = isKeyed() ? pad(key) : null;
+        long remaining = TimeUnit.SECONDS.toNanos(wait);
+        lock.lock();
+        try {
+            while (true) {
+                Entry entry = isKeyed() ? take(searchKey, searchType, peek) : take(peek);
+                if (entry != null || wait == 0) {
+                    return entry;
+                }
+                if (wait > 0 && remaining <= 0) {
+                    return null;
+                }
+                waiting++;
+                try {
+                    if (wait < 0) {
+                        written.await();
+                    } else {
+                        remaining = written.awaitNanos(remaining);
+                    }
+                } finally {
+                    waiting--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry take(boolean peek) {
+        Entry entry = peek ? entries.peekFirst() : entries.pollFirst();
+        if (entry != null && !peek) {
+            size--;
+        }
+        return entry;
+    }
+
+    private Entry take(byte[] searchKey, String searchType, boolean peek) {
+        Map.Entry<byte[], ArrayDeque<Entry>> match = find(searchKey, searchType);
+        if (match == null) {
+            return null;
+        }
+        ArrayDeque<Entry> sameKey = match.getValue();
+        if (peek) {
+            return sameKey.peekFirst();
+        }
+        Entry entry = sameKey.pollFirst();
+        if (sameKey.isEmpty()) {
+            keyedEntries.remove(match.getKey());
+        }
+        size--;
+        return entry;
+    }
+
+    private Map.Entry<byte[], ArrayDeque<Entry>> find(byte[] searchKey, String searchType) {
+        if (keyedEntries.isEmpty()) {
+            return null;
+        }
+        Map.Entry<byte[], ArrayDeque<Entry>> first = keyedEntries.firstEntry();
+        int firstToKey = UNSIGNED.compare(first.getKey(), searchKey);
+        if ("EQ".equals(searchType)) {
+            return keyedEntries.containsKey(searchKey) ? keyedEntries.floorEntry(searchKey) : null;
+        } else if ("GE".equals(searchType)) {
+            return keyedEntries.ceilingEntry(searchKey);
+        } else if ("GT".equals(searchType)) {
+            return keyedEntries.higherEntry(searchKey);
+        } else if ("LT".equals(searchType)) {
+            return firstToKey < 0 ? first : null;
+        } else if ("LE".equals(searchType)) {
+            return firstToKey <= 0 ? first : null;
+        } else if ("NE".equals(searchType)) {
+            return firstToKey != 0 ? first : keyedEntries.higherEntry(searchKey);
+        }
+        throw new IllegalArgumentException("Unknown search type " + searchType);
+    }
+
+    private byte[] pad(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("A key is required by keyed data queue " + path);
+        }
+        if (key.length > keyLength) {
+            throw new IllegalArgumentException("Key of " + key.length + " bytes is longer than the key length of " + path);
+        }
+        return key.length == keyLength ? key : Arrays.copyOf(key, keyLength);
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400MemoryQueue[" + path + (isKeyed() ? ", keyLength=" + keyLength : "") + "]";
+    }
+
+}
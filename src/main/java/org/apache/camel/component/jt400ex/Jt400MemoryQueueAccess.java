@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * {@link Jt400QueueAccess} to a {@link Jt400MemoryQueue}. Text keys are
+ * padded with blanks up to the key length, as the jt400 classes do.
+ */
+final class Jt400MemoryQueueAccess implements Jt400QueueAccess {
+
+    private final Jt400MemoryQueues queues;
+
+    private final Jt400MemoryQueue queue;
+
+    Jt400MemoryQueueAccess(Jt400MemoryQueues queues, Jt400MemoryQueue queue) {
+        this.queues = queues;
+        this.queue = queue;
+    }
+
+    public String getName() {
+        return queue.getPath();
+    }
+
+    public void connect() throws IOException {
+        // nothing to connect to
+        queues.checkAvailable();
+    }
+
+    public Charset getCharset() {
+        return queue.getCharset();
+    }
+
+    public int getKeyLength() {
+        return queue.getKeyLength();
+    }
+
+    public int getMaxEntryLength() {
+        return Jt400MemoryQueue.MAX_ENTRY_LENGTH;
+    }
+
+    public Jt400QueueEntry read(int wait) throws InterruptedException, IOException {
+        queues.delay();
+        return queue.read(null, null, wait, false);
+    }
+
+    public Jt400QueueEntry peek(int wait) throws InterruptedException, IOException {
+        queues.delay();
+        return queue.read(null, null, wait, true);
+    }
+
+    public Jt400QueueEntry read(byte[] key, int wait, String searchType) throws InterruptedException, IOException {
+        queues.delay();
+        return queue.read(key, searchType, wait, false);
+    }
+
+    public Jt400QueueEntry read(String key, int wait, String searchType) throws InterruptedException, IOException {
+        return read(encodeKey(key, queue.getKeyLength(), queue.getCharset()), wait, searchType);
+    }
+
+    public Jt400QueueEntry peek(byte[] key, int wait, String searchType) throws InterruptedException, IOException {
+        queues.delay();
+        return queue.read(key, searchType, wait, true);
+    }
+
+    public Jt400QueueEntry peek(String key, int wait, String searchType) throws InterruptedException, IOException {
+        return peek(encodeKey(key, queue.getKeyLength(), queue.getCharset()), wait, searchType);
+    }
+
+    public void write(byte[] data) throws IOException {
+        queues.delay();
+        queue.write(null, data, null);
+    }
+
+    public void write(String data) throws IOException {
+        write(data.getBytes(queue.getCharset()));
+    }
+
+    public void write(byte[] key, byte[] data) throws IOException {
+        queues.delay();
+        queue.write(key, data, null);
+    }
+
+    public void write(String key, String data) throws IOException {
+        write(encodeKey(key, queue.getKeyLength(), queue.getCharset()), data.getBytes(queue.getCharset()));
+    }
+
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * Converts a text key, padded with blanks of the character set up to
+     * the key length.
+     */
+    static byte[] encodeKey(String key, int keyLength, Charset charset) {
+        return key != null ? Jt400TextConverter.forCharset(charset).encodeKey(key, keyLength) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400MemoryQueueAccess[" + queue.getPath() + "]";
+    }
+
+}
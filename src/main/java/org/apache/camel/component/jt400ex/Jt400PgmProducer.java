@@ -16,19 +16,11 @@
  */
 package org.apache.camel.component.jt400ex;
 
-import java.beans.PropertyVetoException;
-import java.util.ArrayList;
-import java.util.List;
-
 import com.ibm.as400.access.AS400;
-import com.ibm.as400.access.AS400ByteArray;
-import com.ibm.as400.access.AS400DataType;
 import com.ibm.as400.access.AS400Message;
-import com.ibm.as400.access.AS400Text;
 import com.ibm.as400.access.ProgramCall;
 import com.ibm.as400.access.ProgramParameter;
 import org.apache.camel.Exchange;
-import org.apache.camel.InvalidPayloadException;
 import org.apache.camel.impl.DefaultProducer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,22 +29,40 @@ public class Jt400PgmProducer extends DefaultProducer {
 
     private static final Logger LOG = LoggerFactory.getLogger(Jt400PgmProducer.class);
     
-    private AS400 iSeries;
+    /**
+     * Connections to the systems of the endpoint (null if stopped).
+     */
+    private Jt400SystemConnections systems;
 
     public Jt400PgmProducer(Jt400Endpoint endpoint) {
         super(endpoint);
     }
 
-    private Jt400Endpoint getISeriesEndpoint() {
+    protected Jt400Endpoint getISeriesEndpoint() {
         return (Jt400Endpoint) super.getEndpoint();
     }
 
     public void process(Exchange exchange) throws Exception {
+        Jt400SystemHealth system = systems.acquire(null, true);
+        Throwable failure = null;
+        try {
+            process(exchange, systems.get(system));
+        } catch (Exception e) {
+            failure = e;
+            throw e;
+        } finally {
+            systems.release(system, failure);
+        }
+    }
+
+    private void process(Exchange exchange, AS400 iSeries) throws Exception {
 
         String commandStr = getISeriesEndpoint().getObjectPath();
-        ProgramParameter[] parameterList = getParameterList(exchange);
+        Object[] params = exchange.getIn().getMandatoryBody(Object[].class);
+        Jt400CallDescriptor descriptor = getISeriesEndpoint().getCallDescriptor(iSeries);
+        ProgramParameter[] parameterList = descriptor.createParameterList(params);
 
-        ProgramCall pgmCall = new ProgramCall(iSeries);
+        ProgramCall pgmCall = createProgramCall(iSeries);
         pgmCall.setProgram(commandStr);
         pgmCall.setParameterList(parameterList);
 
@@ -61,110 +71,45 @@ public class Jt400PgmProducer extends DefaultProducer {
                     new Object[]{commandStr, iSeries.getSystemName(), iSeries.getUserId()});
         }
 
-        boolean result = pgmCall.run();
+        long start = System.nanoTime();
+        boolean result = false;
+        try {
+            result = pgmCall.run();
+        } finally {
+            getISeriesEndpoint().getMetrics().recordProgramCall(System.nanoTime() - start, result);
+        }
 
         if (LOG.isTraceEnabled()) {
             LOG.trace("Executed PGM '{}' in host '{}'. Success? {}", new Object[]{commandStr, iSeries.getSystemName(), result});
         }
 
         if (result) {
-            handlePGMOutput(exchange, pgmCall, parameterList);
+            exchange.getOut().setBody(descriptor.toOutput(params, pgmCall.getParameterList()));
+            handleCallResult(exchange, pgmCall);
         } else {
             throw new Jt400PgmCallException(getOutputMessages(pgmCall));
         }
     }
 
-    private ProgramParameter[] getParameterList(Exchange exchange) throws InvalidPayloadException, PropertyVetoException {
-
-        Object body = exchange.getIn().getMandatoryBody();
-
-        Object[] params = (Object[]) body;
-
-        ProgramParameter[] parameterList = new ProgramParameter[params.length];
-        for (int i = 0; i < params.length; i++) {
-            Object param = params[i];
-
-            boolean input;
-            boolean output;
-            if (getISeriesEndpoint().isFieldIdxForOuput(i)) {
-                output = true;
-                input = param != null;
-            } else {
-                output = false;
-                input = true;
-            }
-
-            byte[] inputData = null;
-
-            // XXX Actually, returns any field length, not just output.
-            int length = getISeriesEndpoint().getOutputFieldLength(i);
-
-            if (input) {
-                if (param != null) {
-                    AS400DataType typeConverter;
-                    if (getISeriesEndpoint().getFormat() == Jt400Configuration.Format.binary) {
-                        typeConverter = new AS400ByteArray(length);
-                    } else {
-                        typeConverter = new AS400Text(length, iSeries);
-                    }
-                    inputData = typeConverter.toBytes(param);
-                }
-                // Else, inputData will remain null.
-            }
-
-            if (input && output) {
-                LOG.trace("Parameter {} is both input and output.", i);
-                parameterList[i] = new ProgramParameter(inputData, length);
-            } else if (input) {
-                LOG.trace("Parameter {} is input.", i);
-                if (inputData != null) {
-                    parameterList[i] = new ProgramParameter(inputData);
-                } else {
-                    parameterList[i] = new ProgramParameter();
-                    parameterList[i].setParameterType(ProgramParameter.PASS_BY_REFERENCE);
-                    parameterList[i].setNullParameter(true); // Just for self documentation.
-                }
-            } else {
-                // output
-                LOG.trace("Parameter {} is output.", i);
-                parameterList[i] = new ProgramParameter(length);
-            }
-        }
-
-        return parameterList;
+    /**
+     * Creates the call object used to run the program of the endpoint.
+     *
+     * @param system the {@code AS400} object to run the program on
+     * @return a new call object
+     */
+    protected ProgramCall createProgramCall(AS400 system) throws Exception {
+        return new ProgramCall(system);
     }
 
-    private void handlePGMOutput(Exchange exchange, ProgramCall pgmCall, ProgramParameter[] inputs) throws InvalidPayloadException {
-
-        Object body = exchange.getIn().getMandatoryBody();
-        Object[] params = (Object[]) body;
-
-        List<Object> results = new ArrayList<Object>();
-
-        int i = 1;
-        for (ProgramParameter pgmParam : pgmCall.getParameterList()) {
-            byte[] output = pgmParam.getOutputData();
-            Object javaValue = params[i - 1];
-
-            if (output != null) {
-                int length = pgmParam.getOutputDataLength();
-                AS400DataType typeConverter;
-                if (getISeriesEndpoint().getFormat() == Jt400Configuration.Format.binary) {
-                    typeConverter = new AS400ByteArray(length);
-                } else {
-                    typeConverter = new AS400Text(length, iSeries);
-                }
-                javaValue = typeConverter.toObject(output);
-            }
-
-            results.add(javaValue);
-            i++;
-        }
-
-        Object[] bodyOUT = new Object[results.size()];
-        bodyOUT = results.toArray(bodyOUT);
-
-        exchange.getOut().setBody(bodyOUT);
+    /**
+     * Hook invoked after the output parameters of a successful call have been
+     * set as the body of the out message.
+     *
+     * @param exchange the exchange being processed
+     * @param pgmCall the completed call
+     */
+    protected void handleCallResult(Exchange exchange, ProgramCall pgmCall) throws Exception {
+        // nothing to do for plain programs
     }
 
     private String getOutputMessages(ProgramCall pgmCall) throws Exception {
@@ -185,21 +130,21 @@ public class Jt400PgmProducer extends DefaultProducer {
 
     @Override
     protected void doStart() throws Exception {
-        if (iSeries == null) {
-            iSeries = getISeriesEndpoint().getSystem();
+        if (getISeriesEndpoint().getFormat() == Jt400Configuration.Format.utf8) {
+            throw new IllegalArgumentException("The utf8 format is only supported by data queues on " + getISeriesEndpoint());
         }
-        if (!iSeries.isConnected(AS400.COMMAND)) {
-            LOG.info("Connecting to {}", getISeriesEndpoint());
-            iSeries.connectService(AS400.COMMAND);
+        if (systems == null) {
+            systems = new Jt400SystemConnections(getISeriesEndpoint(), AS400.COMMAND);
         }
+        // connects to the first system that can be reached
+        systems.release(systems.acquire(null, true), null);
     }
 
     @Override
     protected void doStop() throws Exception {
-        if (iSeries != null) {
-            LOG.info("Releasing connection to {}", getISeriesEndpoint());
-            getISeriesEndpoint().releaseSystem(iSeries);
-            iSeries = null;
+        if (systems != null) {
+            systems.close();
+            systems = null;
         }
     }
 
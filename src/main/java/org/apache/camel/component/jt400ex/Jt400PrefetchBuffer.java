@@ -0,0 +1,314 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Buffer of the entries read ahead by a consumer with the prefetchMemory
+ * option, so that the data queue is drained as fast as the host allows,
+ * however long the entries take to process.
+ * <p/>
+ * Entries are held in memory up to the memory limit. Past the limit, they
+ * are appended to a {@link Jt400SegmentLog} if there is a spill directory,
+ * and taken back from it once the entries in memory are taken, so that
+ * entries are taken in the order they were read; without a spill directory,
+ * adding an entry waits for room. The consumer takes the entries held in
+ * memory before it stops; the entries left spilled are taken first on the
+ * next start.
+ */
+final class Jt400PrefetchBuffer {
+
+    private final Jt400EndpointMetrics metrics;
+
+    private final long memoryLimit;
+
+    /**
+     * Log of the entries spilled to disk (null without a spill directory).
+     */
+    private final Jt400SegmentLog spill;
+
+    private final Deque<Item> memory = new ArrayDeque<Item>();
+
+    private long memoryBytes;
+
+    private boolean closed;
+
+    /**
+     * @param memoryLimit the length of the entries held in memory from which
+     *            entries are spilled or wait for room
+     * @param spill the log entries are spilled to, or null
+     */
+    Jt400PrefetchBuffer(Jt400EndpointMetrics metrics, long memoryLimit, Jt400SegmentLog spill) {
+        this.metrics = metrics;
+        this.memoryLimit = memoryLimit;
+        this.spill = spill;
+    }
+
+    /**
+     * Opens the spill log, whose entries left by the last stop are taken
+     * first.
+     */
+    synchronized void open() throws IOException {
+        closed = false;
+        if (spill != null) {
+            spill.open();
+            metrics.recordSpill(spill.size(), spill.getBytes());
+        }
+    }
+
+    /**
+     * Adds an entry read from the data queue, waiting for room in memory
+     * without a spill directory. An entry added while the buffer closes or
+     * the thread is interrupted is held in memory whatever its length, as it
+     * was removed from the queue.
+     *
+     * @param systemName the system the entry was read from
+     * @param charset the character set of the queue the entry was read from
+     */
+    synchronized void put(Jt400QueueEntry entry, String systemName, Charset charset) throws IOException {
+        Item item = new Item(entry, systemName, charset);
+        boolean interrupted = false;
+        while (spill == null && !closed && !interrupted && !memory.isEmpty() && memoryBytes + item.length > memoryLimit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (spill != null && (spill.size() > 0 || !memory.isEmpty() && memoryBytes + item.length > memoryLimit)) {
+            byte[] record = item.toRecord();
+            spill.append(record);
+            metrics.recordSpill(1, record.length);
+        } else {
+            memory.add(item);
+            memoryBytes += item.length;
+            metrics.recordBuffer(1, item.length);
+        }
+        notifyAll();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes the oldest entry, waiting for one up to a timeout.
+     *
+     * @param timeout the time to wait in milliseconds, -1 to wait until an
+     *            entry is added or the buffer closes
+     * @return the entry, or null if none was added in time
+     */
+    synchronized Item poll(long timeout) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            Item item = memory.poll();
+            if (item != null) {
+                memoryBytes -= item.length;
+                metrics.recordBuffer(-1, -item.length);
+                notifyAll();
+                return item;
+            }
+            if (spill != null && spill.size() > 0) {
+                byte[] record = spill.peek();
+                spill.remove();
+                metrics.recordSpill(-1, -record.length);
+                return Item.fromRecord(record);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (closed || timeout >= 0 && remaining <= 0) {
+                return null;
+            }
+            wait(timeout < 0 ? 0 : remaining);
+        }
+    }
+
+    /**
+     * Returns the number of entries held.
+     */
+    synchronized int size() {
+        return memory.size() + (spill != null ? spill.size() : 0);
+    }
+
+    /**
+     * Returns the number of entries held in memory.
+     */
+    synchronized int getMemorySize() {
+        return memory.size();
+    }
+
+    /**
+     * Closes the buffer, appending the entries still in memory to the spill
+     * log. Being older than the entries spilled, they are to be taken before
+     * closing to keep the order.
+     *
+     * @return the number of entries discarded, without a spill directory
+     */
+    synchronized int close() throws IOException {
+        closed = true;
+        notifyAll();
+        int discarded = 0;
+        for (Item item = memory.poll(); item != null; item = memory.poll()) {
+            metrics.recordBuffer(-1, -item.length);
+            if (spill != null) {
+                byte[] record = item.toRecord();
+                spill.append(record);
+                metrics.recordSpill(1, record.length);
+            } else {
+                discarded++;
+            }
+        }
+        memoryBytes = 0;
+        if (spill != null) {
+            metrics.recordSpill(-spill.size(), -spill.getBytes());
+            spill.close();
+        }
+        return discarded;
+    }
+
+    /**
+     * Entry read ahead, with the system it was read from.
+     */
+    static final class Item {
+
+        private final Jt400QueueEntry entry;
+
+        private final String systemName;
+
+        private final Charset charset;
+
+        private final int length;
+
+        Item(Jt400QueueEntry entry, String systemName, Charset charset) {
+            this.entry = entry;
+            this.systemName = systemName;
+            this.charset = charset;
+            this.length = entry.getData().length + (entry.getKey() != null ? entry.getKey().length : 0);
+        }
+
+        Jt400QueueEntry getEntry() {
+            return entry;
+        }
+
+        String getSystemName() {
+            return systemName;
+        }
+
+        byte[] toRecord() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(systemName);
+            out.writeUTF(charset.name());
+            writeBytes(out, entry.getKey());
+            writeString(out, entry.getKeyString());
+            writeString(out, entry.getSenderInformation());
+            writeBytes(out, entry.getData());
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Item fromRecord(byte[] record) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            String systemName = in.readUTF();
+            Charset charset = Charset.forName(in.readUTF());
+            byte[] key = readBytes(in);
+            String keyString = readString(in);
+            String senderInformation = readString(in);
+            byte[] data = readBytes(in);
+            return new Item(new SpilledEntry(data, charset, key, keyString, senderInformation), systemName, charset);
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            out.writeInt(bytes != null ? bytes.length : -1);
+            if (bytes != null) {
+                out.write(bytes);
+            }
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        private static void writeString(DataOutputStream out, String text) throws IOException {
+            out.writeBoolean(text != null);
+            if (text != null) {
+                out.writeUTF(text);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+
+    /**
+     * Entry read back from the spill log.
+     */
+    private static final class SpilledEntry implements Jt400QueueEntry {
+
+        private final byte[] data;
+
+        private final Charset charset;
+
+        private final byte[] key;
+
+        private final String keyString;
+
+        private final String senderInformation;
+
+        SpilledEntry(byte[] data, Charset charset, byte[] key, String keyString, String senderInformation) {
+            this.data = data;
+            this.charset = charset;
+            this.key = key;
+            this.keyString = keyString;
+            this.senderInformation = senderInformation;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getString() {
+            return new String(data, charset);
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public String getKeyString() {
+            return keyString;
+        }
+
+        public String getSenderInformation() {
+            return senderInformation;
+        }
+    }
+
+}
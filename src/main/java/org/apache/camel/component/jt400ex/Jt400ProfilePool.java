@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.beans.PropertyVetoException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400ConnectionPool;
+import com.ibm.as400.access.ConnectionPoolException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection pool whose connections all have the same CCSID and prompting
+ * setting. Each connection is configured the first time it is leased and
+ * never touched again, so connections handed out by this pool are always
+ * configured correctly without any change on checkout.
+ * <p/>
+ * The pools serving the profiles of a pool created by the component share
+ * its maximum number of connections: a lease beyond that budget fails with an
+ * {@code IllegalStateException}.
+ * <p/>
+ * A pool supplied by the application serves all the profiles using it, so its
+ * connections are configured every time they are leased instead.
+ */
+final class Jt400ProfilePool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400ProfilePool.class);
+
+    private final AS400ConnectionPool pool;
+
+    private final int ccsid;
+
+    private final boolean guiAvailable;
+
+    /**
+     * Connections of the pool that have already been configured (weak keys,
+     * so that connections dropped by the pool are forgotten).
+     */
+    private final Map<AS400, Boolean> configured = Collections.synchronizedMap(new WeakHashMap<AS400, Boolean>());
+
+    /**
+     * Number of threads currently waiting for the pool to lease a connection.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Leases left to the pools sharing the connection budget of this pool, or
+     * <code>null</code> if the leases are only limited by the pool itself.
+     */
+    private final Semaphore budget;
+
+    /**
+     * Whether the connections of the pool are shared with pools of other
+     * profiles, and must thus be configured on every lease.
+     */
+    private final boolean shared;
+
+    Jt400ProfilePool(AS400ConnectionPool pool, int ccsid, boolean guiAvailable) {
+        this(pool, ccsid, guiAvailable, null, false);
+    }
+
+    Jt400ProfilePool(AS400ConnectionPool pool, int ccsid, boolean guiAvailable, Semaphore budget, boolean shared) {
+        this.pool = pool;
+        this.ccsid = ccsid;
+        this.guiAvailable = guiAvailable;
+        this.budget = budget;
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the underlying connection pool.
+     */
+    AS400ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Leases a connection of the given profile.
+     *
+     * @param service the service to connect to, or -1 for no particular service
+     */
+    AS400 getConnection(Jt400ConnectionProfile profile, String password, int service) throws ConnectionPoolException, PropertyVetoException {
+        if (budget != null && !budget.tryAcquire()) {
+            throw new IllegalStateException("The maximum number of connections shared with " + pool + " has been reached");
+        }
+        AS400 system;
+        waiting.incrementAndGet();
+        try {
+            if (profile.isSecured()) {
+                system = service < 0
+                        ? pool.getSecureConnection(profile.getSystemName(), profile.getUserID(), password)
+                        : pool.getSecureConnection(profile.getSystemName(), profile.getUserID(), password, service);
+            } else {
+                system = service < 0
+                        ? pool.getConnection(profile.getSystemName(), profile.getUserID(), password)
+                        : pool.getConnection(profile.getSystemName(), profile.getUserID(), password, service);
+            }
+        } catch (ConnectionPoolException e) {
+            release();
+            throw e;
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        // connections are leased by a single client at a time, so there is no
+        // race between the check and the update
+        if (shared || !configured.containsKey(system)) {
+            try {
+                configure(system);
+            } catch (PropertyVetoException e) {
+                returnConnection(system);
+                throw e;
+            }
+            configured.put(system, Boolean.TRUE);
+        }
+        return system;
+    }
+
+    /**
+     * Returns the number of threads currently waiting for a connection.
+     */
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Returns a connection leased from this pool.
+     */
+    void returnConnection(AS400 system) {
+        pool.returnConnectionToPool(system);
+        release();
+    }
+
+    private void release() {
+        if (budget != null) {
+            budget.release();
+        }
+    }
+
+    private void configure(AS400 system) throws PropertyVetoException {
+        if (ccsid != Jt400Configuration.DEFAULT_SYSTEM_CCSID) {
+            system.setCcsid(ccsid);
+        }
+        try {
+            system.setGuiAvailable(guiAvailable);
+        } catch (PropertyVetoException e) {
+            LOG.warn("Failed to disable AS/400 prompting in the environment running Camel. This exception will be ignored.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pool + "[ccsid=" + ccsid + ", guiAvailable=" + guiAvailable + "]";
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import com.ibm.as400.access.AS400ConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the pools serving each connection profile of a component.
+ * <p/>
+ * An {@code AS400ConnectionPool} only tells its connections apart by system
+ * and user (and SSL), so the connections of profiles with another CCSID or
+ * prompting setting cannot share a pool with the others. The profiles using
+ * the system CCSID without prompting (the default) use the configured pool
+ * itself.
+ * <p/>
+ * The other profiles of a pool created by the component (see
+ * {@link #register(AS400ConnectionPool)}) use pools derived from it: plain
+ * {@code AS400ConnectionPool}s with the same settings, sharing its maximum
+ * number of connections. A pool supplied by the application may have
+ * settings that cannot be copied (such as socket properties or SSL), so it is
+ * never derived from: it serves all the profiles using it, and its
+ * connections are configured for the profile of each lease.
+ */
+final class Jt400ProfilePools {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400ProfilePools.class);
+
+    private final ConcurrentMap<Key, Jt400ProfilePool> pools = new ConcurrentHashMap<Key, Jt400ProfilePool>();
+
+    /**
+     * Pools created by the component, with the connection budget they share
+     * with their derived pools (<code>null</code> if unlimited).
+     */
+    private final Map<AS400ConnectionPool, Semaphore> registered = new IdentityHashMap<AS400ConnectionPool, Semaphore>();
+
+    private final List<AS400ConnectionPool> derivedPools = new ArrayList<AS400ConnectionPool>();
+
+    /**
+     * Declares a pool created by the component, so that the pools of its
+     * profiles may be derived from it. Its settings must be final.
+     */
+    synchronized void register(AS400ConnectionPool pool) {
+        int maxConnections = pool.getMaxConnections();
+        registered.put(pool, maxConnections > 0 ? new Semaphore(maxConnections) : null);
+    }
+
+    /**
+     * Returns the pool serving the given profile on top of the given pool.
+     */
+    Jt400ProfilePool getPool(AS400ConnectionPool base, Jt400ConnectionProfile profile) {
+        Key key = new Key(base, profile.getCcsid(), profile.isGuiAvailable());
+        Jt400ProfilePool pool = pools.get(key);
+        if (pool == null) {
+            synchronized (this) {
+                pool = pools.get(key);
+                if (pool == null) {
+                    pool = createPool(base, profile);
+                    LOG.debug("Using {} for connections like {}", pool, profile);
+                    pools.put(key, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Closes the derived pools.
+     */
+    synchronized void close() {
+        for (AS400ConnectionPool pool : derivedPools) {
+            pool.close();
+        }
+        derivedPools.clear();
+        pools.clear();
+        registered.clear();
+    }
+
+    private Jt400ProfilePool createPool(AS400ConnectionPool base, Jt400ConnectionProfile profile) {
+        int ccsid = profile.getCcsid();
+        boolean guiAvailable = profile.isGuiAvailable();
+        if (!registered.containsKey(base)) {
+            return new Jt400ProfilePool(base, ccsid, guiAvailable, null, true);
+        }
+        Semaphore budget = registered.get(base);
+        boolean defaults = ccsid == Jt400Configuration.DEFAULT_SYSTEM_CCSID && !guiAvailable;
+        return new Jt400ProfilePool(defaults ? base : derive(base), ccsid, guiAvailable, budget, false);
+    }
+
+    private AS400ConnectionPool derive(AS400ConnectionPool base) {
+        // pools created by the component are plain pools configured through
+        // the settings of ConnectionPool only, so this is an exact copy
+        AS400ConnectionPool pool = new AS400ConnectionPool();
+        pool.setMaxConnections(base.getMaxConnections());
+        pool.setMaxInactivity(base.getMaxInactivity());
+        pool.setMaxLifetime(base.getMaxLifetime());
+        pool.setMaxUseCount(base.getMaxUseCount());
+        pool.setMaxUseTime(base.getMaxUseTime());
+        pool.setCleanupInterval(base.getCleanupInterval());
+        pool.setRunMaintenance(base.isRunMaintenance());
+        pool.setThreadUsed(base.isThreadUsed());
+        derivedPools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Identifies the pool of a base pool (by identity) for a CCSID and
+     * prompting setting.
+     */
+    private static final class Key {
+
+        private final AS400ConnectionPool base;
+        private final int ccsid;
+        private final boolean guiAvailable;
+
+        Key(AS400ConnectionPool base, int ccsid, boolean guiAvailable) {
+            this.base = base;
+            this.ccsid = ccsid;
+            this.guiAvailable = guiAvailable;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return base == other.base && ccsid == other.ccsid && guiAvailable == other.guiAvailable;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(base) + ccsid) + (guiAvailable ? 1 : 0);
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.apache.camel.Producer;
+import org.apache.camel.spi.ExceptionHandler;
+import org.apache.camel.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sets aside the exchanges that a consumer with the <code>errorUri</code>
+ * option failed to process, so that the entries behind them are read
+ * without delay. A failed exchange is retried in the background with a new
+ * exchange of its original message, after a delay doubled for each retry;
+ * once its retries fail, its original message is sent to the error
+ * endpoint. Retries are not ordered with the exchanges read in the meantime.
+ * <p/>
+ * The retries still pending when the consumer stops are sent to the error
+ * endpoint right away.
+ */
+final class Jt400Quarantine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400Quarantine.class);
+
+    private final Jt400Endpoint endpoint;
+
+    private final Processor processor;
+
+    private final Producer errorProducer;
+
+    private final ExceptionHandler exceptionHandler;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<Retry> pending = Collections.newSetFromMap(new ConcurrentHashMap<Retry, Boolean>());
+
+    /**
+     * @param endpoint creates the exchanges of the retries and records them
+     * @param processor processes the retries
+     * @param errorProducer sends the messages whose retries failed
+     * @param exceptionHandler handles the failures to send to the error endpoint
+     * @param scheduler runs the retries
+     */
+    Jt400Quarantine(Jt400Endpoint endpoint, Processor processor, Producer errorProducer, ExceptionHandler exceptionHandler,
+            ScheduledExecutorService scheduler) {
+        this.endpoint = endpoint;
+        this.processor = processor;
+        this.errorProducer = errorProducer;
+        this.exceptionHandler = exceptionHandler;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns a copy of the in message of an exchange about to be processed,
+     * to retry it if needed. Byte buffers are copied, since pooled ones are
+     * reused once the exchange completes, and streams are read into memory,
+     * the body of the exchange becoming a stream of the bytes read.
+     */
+    Message snapshot(Exchange exchange) throws Exception {
+        Message original = exchange.getIn().copy();
+        Object body = original.getBody();
+        if (body instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) body;
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            original.setBody(ByteBuffer.wrap(data).asReadOnlyBuffer());
+        } else if (body instanceof InputStream) {
+            InputStream in = (InputStream) body;
+            byte[] data;
+            try {
+                data = Jt400DataQueueProducer.readEntry(in, Integer.MAX_VALUE - 8);
+            } finally {
+                IOHelper.close(in);
+            }
+            exchange.getIn().setBody(new ByteArrayInputStream(data));
+            original.setBody(new Snapshot(data));
+        }
+        return original;
+    }
+
+    /**
+     * Sets aside the original message of an exchange that failed.
+     *
+     * @param original the snapshot of the message taken before processing
+     * @param cause the exception of the exchange
+     * @param ack the acknowledgement of the entry of the exchange, completed
+     *        once the exchange succeeds or is moved (null if none)
+     */
+    void add(Message original, Throwable cause, Jt400Acknowledger.Ack ack) {
+        LOG.debug("Setting aside failed exchange of {}: {}", endpoint, cause.getMessage());
+        schedule(new Retry(original, cause, ack), endpoint.getErrorRetries() > 0 ? endpoint.getErrorRetryDelay() : 0);
+    }
+
+    /**
+     * Returns the number of failed exchanges waiting for a retry.
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Sends the failed exchanges still waiting for a retry to the error
+     * endpoint, once the scheduler is shut down.
+     */
+    void close() {
+        for (Retry retry : pending.toArray(new Retry[0])) {
+            if (pending.remove(retry)) {
+                retry.quarantine();
+            }
+        }
+    }
+
+    private void schedule(Retry retry, long delay) {
+        pending.add(retry);
+        try {
+            scheduler.schedule(retry, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopping, left to close
+            LOG.debug("Retry of {} rejected while stopping", endpoint);
+        }
+    }
+
+    /**
+     * Next retry of a failed exchange.
+     */
+    private final class Retry implements Runnable {
+
+        private final Message original;
+
+        private final Jt400Acknowledger.Ack ack;
+
+        private Throwable cause;
+
+        /**
+         * Number of times the exchange was processed.
+         */
+        private int attempts = 1;
+
+        private long delay = endpoint.getErrorRetryDelay();
+
+        Retry(Message original, Throwable cause, Jt400Acknowledger.Ack ack) {
+            this.original = original;
+            this.cause = cause;
+            this.ack = ack;
+        }
+
+        public void run() {
+            if (!pending.remove(this)) {
+                // taken by close
+                return;
+            }
+            if (attempts > endpoint.getErrorRetries()) {
+                quarantine();
+                return;
+            }
+            Exchange exchange = createExchange();
+            try {
+                processor.process(exchange);
+            } catch (Throwable e) {
+                exchange.setException(e);
+            }
+            attempts++;
+            endpoint.getMetrics().recordRetry(exchange.getException() == null);
+            if (exchange.getException() == null) {
+                LOG.debug("Retry {} of failed exchange of {} succeeded", attempts - 1, endpoint);
+                if (ack != null) {
+                    ack.complete();
+                }
+                return;
+            }
+            cause = exchange.getException();
+            if (attempts > endpoint.getErrorRetries()) {
+                quarantine();
+            } else {
+                delay *= 2;
+                schedule(this, delay);
+            }
+        }
+
+        /**
+         * Sends the original message to the error endpoint.
+         */
+        void quarantine() {
+            Exchange exchange = createExchange();
+            exchange.getIn().setHeader(Jt400Endpoint.ATTEMPTS, attempts);
+            exchange.setProperty(Exchange.EXCEPTION_CAUGHT, cause);
+            LOG.warn("Moving exchange of {} to {} after {} failed attempts: {}",
+                    new Object[] {endpoint, errorProducer.getEndpoint(), attempts, cause.getMessage()});
+            try {
+                errorProducer.process(exchange);
+            } catch (Throwable e) {
+                exchange.setException(e);
+            }
+            if (exchange.getException() != null) {
+                exceptionHandler.handleException("Unable to move failed exchange to " + errorProducer.getEndpoint(), exchange, exchange.getException());
+                if (ack != null) {
+                    // its entry is read again
+                    ack.fail();
+                }
+            } else {
+                endpoint.getMetrics().recordQuarantine();
+                if (ack != null) {
+                    ack.complete();
+                }
+            }
+        }
+
+        private Exchange createExchange() {
+            Exchange exchange = endpoint.createExchange();
+            Message message = original.copy();
+            if (message.getBody() instanceof Snapshot) {
+                message.setBody(new ByteArrayInputStream(((Snapshot) message.getBody()).data));
+            } else if (message.getBody() instanceof ByteBuffer) {
+                // each attempt reads the buffer from its start
+                message.setBody(((ByteBuffer) message.getBody()).duplicate());
+            }
+            exchange.setIn(message);
+            return exchange;
+        }
+    }
+
+    /**
+     * Bytes read from a stream body, turned into a new stream for each
+     * attempt.
+     */
+    private static final class Snapshot {
+
+        private final byte[] data;
+
+        Snapshot(byte[] data) {
+            this.data = data;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.charset.Charset;
+
+/**
+ * Access to the data queue of an endpoint on one of its systems, as used by
+ * {@link Jt400DataQueueConsumer} and {@link Jt400DataQueueProducer}. The
+ * operations mirror those of the jt400 <code>DataQueue</code> and
+ * <code>KeyedDataQueue</code> classes: non-keyed operations are only called
+ * on non-keyed queues and keyed operations on keyed queues.
+ * <p/>
+ * An instance is used by one thread at a time.
+ *
+ * @see Jt400QueueAccessFactory
+ */
+public interface Jt400QueueAccess {
+
+    /**
+     * Returns the name of the data queue.
+     */
+    String getName();
+
+    /**
+     * Connects to the data queue, unless already connected.
+     */
+    void connect() throws Exception;
+
+    /**
+     * Returns the character set the text of the entries is encoded with.
+     */
+    Charset getCharset() throws Exception;
+
+    /**
+     * Returns the length of the keys of a keyed queue.
+     */
+    int getKeyLength() throws Exception;
+
+    /**
+     * Returns the maximum length of the entries of the queue.
+     */
+    int getMaxEntryLength() throws Exception;
+
+    /**
+     * Reads and removes the first entry of a non-keyed queue.
+     *
+     * @param wait the time in seconds to wait for an entry, -1 to wait forever
+     * @return the entry, or null if there was none within the wait time
+     */
+    Jt400QueueEntry read(int wait) throws Exception;
+
+    /**
+     * Reads the first entry of a non-keyed queue, leaving it on the queue.
+     *
+     * @param wait the time in seconds to wait for an entry, -1 to wait forever
+     * @return the entry, or null if there was none within the wait time
+     */
+    Jt400QueueEntry peek(int wait) throws Exception;
+
+    /**
+     * Reads and removes the first entry of a keyed queue whose key matches
+     * the search key.
+     *
+     * @param key the search key
+     * @param wait the time in seconds to wait for an entry, -1 to wait forever
+     * @param searchType how keys are compared to the search key: EQ, NE, LT,
+     *            LE, GT or GE
+     * @return the entry, or null if there was none within the wait time
+     */
+    Jt400QueueEntry read(byte[] key, int wait, String searchType) throws Exception;
+
+    /**
+     * Same as {@link #read(byte[], int, String)}, with a text key.
+     */
+    Jt400QueueEntry read(String key, int wait, String searchType) throws Exception;
+
+    /**
+     * Reads the first entry of a keyed queue whose key matches the search
+     * key, leaving it on the queue.
+     *
+     * @see #read(byte[], int, String)
+     */
+    Jt400QueueEntry peek(byte[] key, int wait, String searchType) throws Exception;
+
+    /**
+     * Same as {@link #peek(byte[], int, String)}, with a text key.
+     */
+    Jt400QueueEntry peek(String key, int wait, String searchType) throws Exception;
+
+    /**
+     * Writes an entry to a non-keyed queue.
+     */
+    void write(byte[] data) throws Exception;
+
+    /**
+     * Writes an entry converted from text to a non-keyed queue.
+     */
+    void write(String data) throws Exception;
+
+    /**
+     * Writes an entry to a keyed queue.
+     */
+    void write(byte[] key, byte[] data) throws Exception;
+
+    /**
+     * Writes an entry converted from text to a keyed queue.
+     */
+    void write(String key, String data) throws Exception;
+
+    /**
+     * Releases the connection to the data queue.
+     */
+    void close() throws Exception;
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+/**
+ * Creates the {@link Jt400QueueAccess} through which the consumers and
+ * producers of an endpoint work with its data queue. The default factory
+ * goes through the jt400 host servers; {@link Jt400MemoryQueues} keeps the
+ * queues in memory instead.
+ *
+ * @see Jt400Endpoint#setQueueAccessFactory(Jt400QueueAccessFactory)
+ */
+public interface Jt400QueueAccessFactory {
+
+    /**
+     * Creates an access to the data queue of an endpoint, not connected yet.
+     *
+     * @param endpoint the endpoint of the data queue
+     * @param systemName the system of the endpoint holding the data queue
+     */
+    Jt400QueueAccess createQueueAccess(Jt400Endpoint endpoint, String systemName) throws Exception;
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+
+/**
+ * Entry read from a data queue through a {@link Jt400QueueAccess}.
+ */
+public interface Jt400QueueEntry {
+
+    /**
+     * Returns the data of the entry.
+     */
+    byte[] getData();
+
+    /**
+     * Returns the data of the entry converted to text.
+     */
+    String getString() throws IOException;
+
+    /**
+     * Returns the key of the entry, or null if read from a non-keyed queue.
+     */
+    byte[] getKey();
+
+    /**
+     * Returns the key of the entry converted to text, or null if read from a
+     * non-keyed queue.
+     */
+    String getKeyString() throws IOException;
+
+    /**
+     * Returns the sender information of the entry, if the queue keeps it.
+     */
+    String getSenderInformation();
+
+}
@@ -0,0 +1,516 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.CamelExchangeException;
+import org.apache.camel.Exchange;
+import org.apache.camel.ExchangeTimedOutException;
+import org.apache.camel.Message;
+import org.apache.camel.support.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for the replies of request-reply exchanges on a keyed reply data
+ * queue.
+ * <p/>
+ * A single listener thread reads the replies by the correlation keys of its
+ * exchanges (search type EQ), which it completes, so the entries of the
+ * managers of other Camel nodes sharing the queue are neither read nor
+ * scanned. While a single exchange is waiting, the read of its key waits for
+ * the reply; while several are, their keys are read in turn without waiting.
+ * Exchanges that get no reply within their timeout fail with an
+ * {@link ExchangeTimedOutException}; a late reply to one of them is read and
+ * discarded. The queue is accessed through the {@link Jt400QueueAccess} of
+ * the endpoint, so that in-memory queues can stand in for it. Instances are
+ * shared by all the producers of a component that use the same reply queue
+ * (see {@link Jt400Component#acquireReplyManager(Jt400Endpoint)}).
+ */
+class Jt400ReplyManager extends ServiceSupport implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400ReplyManager.class);
+
+    /**
+     * Number of seconds a read of the reply queue waits for an entry. This is
+     * also the granularity of the reply timeouts.
+     */
+    private static final int READ_WAIT = 1;
+
+    /**
+     * Number of characters of the random prefix of generated correlation keys.
+     */
+    private static final int PREFIX_LENGTH = 4;
+
+    /**
+     * Number of milliseconds between the reads of the keys of several
+     * waiting exchanges, when none of their replies was there.
+     */
+    private static final long READ_INTERVAL = 50;
+
+    /**
+     * Maximum number of timed out correlation keys whose late replies are
+     * still read and discarded.
+     */
+    private static final int MAX_EXPIRED_KEYS = 10000;
+
+    /**
+     * Endpoint whose connection settings are used to read the reply queue
+     * (the endpoint of the first producer using this manager).
+     */
+    private final Jt400Endpoint endpoint;
+
+    /**
+     * Endpoint of the reply queue, with the connection settings of
+     * {@link #endpoint}.
+     */
+    private final Jt400Endpoint replyEndpoint;
+
+    private final String replyQueue;
+
+    /**
+     * Health of the connections to the system of the reply queue, shared with
+     * the endpoints of the component.
+     */
+    private final Jt400ConnectionHealth health;
+
+    private final ConcurrentMap<String, PendingReply> pending = new ConcurrentHashMap<String, PendingReply>();
+
+    private final DelayQueue<PendingReply> timeouts = new DelayQueue<PendingReply>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Signalled when an exchange is registered, for the listener to stop
+     * waiting.
+     */
+    private final Object registered = new Object();
+
+    /**
+     * Keys of the exchanges that timed out, oldest first, only used by the
+     * listener thread.
+     */
+    private final Map<String, Boolean> expired = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_EXPIRED_KEYS;
+        }
+    };
+
+    /**
+     * Number of producers using this manager, guarded by the component.
+     */
+    int users;
+
+    private String prefix;
+
+    private int keyLength;
+
+    private long nextExpiredRead;
+
+    private Jt400DataQueueService service;
+
+    private Jt400QueueAccess queue;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    Jt400ReplyManager(Jt400Endpoint endpoint) {
+        this.endpoint = endpoint;
+        this.replyEndpoint = endpoint.createReplyEndpoint();
+        this.replyQueue = endpoint.getReplyQueue();
+        this.health = endpoint.getSystemGroup().get(0).getHealth();
+    }
+
+    /**
+     * Registers an exchange that waits for a reply. The correlation key of the
+     * exchange is taken from its <code>CORRELATION_KEY</code> header, or
+     * generated and set in that header when missing. It is also used as the
+     * <code>KEY</code> header when a keyed request queue is written without
+     * one.
+     *
+     * @param requester endpoint of the producer that sends the request
+     * @param exchange the exchange waiting for a reply
+     * @param callback the callback to notify once the reply arrives or times out
+     * @return the correlation key the exchange is registered under
+     */
+    String register(Jt400Endpoint requester, Exchange exchange, AsyncCallback callback) throws CamelExchangeException {
+        Message in = exchange.getIn();
+        String key = in.getHeader(Jt400Endpoint.CORRELATION_KEY, String.class);
+        if (key == null) {
+            key = formatCorrelationKey(prefix, sequence.incrementAndGet(), keyLength);
+        } else if (key.length() > keyLength) {
+            throw new CamelExchangeException("Correlation key '" + key + "' is longer than the key length of " + replyQueue, exchange);
+        } else {
+            key = padKey(key, keyLength);
+        }
+        in.setHeader(Jt400Endpoint.CORRELATION_KEY, key);
+        if (requester.isKeyed() && in.getHeader(Jt400Endpoint.KEY) == null) {
+            in.setHeader(Jt400Endpoint.KEY, key);
+        }
+
+        PendingReply reply = new PendingReply(key, exchange, callback, requester.getReplyTimeout(), requester.getFormat());
+        if (pending.putIfAbsent(key, reply) != null) {
+            throw new CamelExchangeException("Another exchange is already waiting for a reply with correlation key '" + key + "'", exchange);
+        }
+        timeouts.add(reply);
+        synchronized (registered) {
+            registered.notifyAll();
+        }
+        return key;
+    }
+
+    /**
+     * Unregisters an exchange, typically because its request could not be sent.
+     *
+     * @return whether the exchange was still waiting, in which case its
+     *         callback will not be notified by this manager
+     */
+    boolean cancel(String key) {
+        PendingReply reply = pending.remove(key);
+        if (reply != null) {
+            reply.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of exchanges waiting for a reply.
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (pending.isEmpty() && expired.isEmpty()) {
+                // nothing to read until an exchange is registered
+                awaitRegistration();
+            } else if (!health.tryAcquire()) {
+                // while the system is backing off, only the timeouts are handled
+                sleep();
+            } else {
+                try {
+                    boolean none = takeReplies();
+                    health.recordSuccess();
+                    if (pending.isEmpty()) {
+                        // only late replies are left to read
+                        awaitRegistration();
+                    } else if (none && pending.size() > 1) {
+                        pause(READ_INTERVAL);
+                    }
+                } catch (Exception e) {
+                    if (Jt400SystemGroup.isSystemFailure(e)) {
+                        health.recordFailure();
+                    } else {
+                        health.recordSuccess();
+                    }
+                    if (running) {
+                        LOG.warn("Unable to read from reply data queue " + replyQueue + ". Will retry.", e);
+                        sleep();
+                    }
+                }
+            }
+            expireTimedOut();
+        }
+    }
+
+    /**
+     * Reads the replies of the waiting exchanges by their correlation keys,
+     * waiting for the reply when a single exchange is waiting, and the late
+     * replies of the exchanges that timed out, at most once per read wait.
+     *
+     * @return whether no reply was read
+     */
+    private boolean takeReplies() throws Exception {
+        boolean none = true;
+        if (pending.size() == 1) {
+            for (String key : pending.keySet()) {
+                none &= !takeReply(key, READ_WAIT);
+            }
+        } else {
+            for (String key : pending.keySet()) {
+                if (!running) {
+                    return none;
+                }
+                none &= !takeReply(key, 0);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (!expired.isEmpty() && now >= nextExpiredRead) {
+            nextExpiredRead = now + READ_WAIT * 1000L;
+            for (Iterator<String> keys = expired.keySet().iterator(); keys.hasNext() && running;) {
+                String key = keys.next();
+                Jt400QueueEntry entry = queue.read(key, 0, "EQ");
+                if (entry != null) {
+                    keys.remove();
+                    LOG.warn("Discarding late reply with expired correlation key '{}' from {}", key, replyQueue);
+                }
+            }
+        }
+        return none;
+    }
+
+    /**
+     * Reads the reply with the given correlation key, by its exact key so
+     * that no other entry is removed.
+     *
+     * @return whether the reply was read
+     */
+    private boolean takeReply(String key, int wait) throws Exception {
+        Jt400QueueEntry entry = queue.read(key, wait, "EQ");
+        if (entry == null) {
+            return false;
+        }
+        onReply(key, entry);
+        return true;
+    }
+
+    private void onReply(String key, Jt400QueueEntry entry) {
+        PendingReply reply = pending.remove(key);
+        if (reply == null) {
+            expired.remove(key);
+            LOG.warn("Discarding late reply with expired correlation key '{}' from {}", key, replyQueue);
+            return;
+        }
+
+        Exchange exchange = reply.exchange;
+        AsyncCallback callback = reply.callback;
+        reply.clear();
+        try {
+            Message out = exchange.getOut();
+            out.setHeader(Jt400Endpoint.SENDER_INFORMATION, entry.getSenderInformation());
+            out.setHeader(Jt400Endpoint.CORRELATION_KEY, key);
+            if (reply.format == Jt400Configuration.Format.binary) {
+                out.setBody(entry.getData());
+            } else if (reply.format == Jt400Configuration.Format.utf8) {
+                out.setBody(Jt400TextConverter.forCharset(queue.getCharset()).toUtf8(entry.getData()));
+            } else {
+                out.setBody(entry.getString());
+            }
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        callback.done(false);
+    }
+
+    private void expireTimedOut() {
+        PendingReply reply;
+        while ((reply = timeouts.poll()) != null) {
+            if (pending.remove(reply.key, reply)) {
+                Exchange exchange = reply.exchange;
+                AsyncCallback callback = reply.callback;
+                reply.clear();
+                expired.put(reply.key, Boolean.TRUE);
+                LOG.debug("No reply received for correlation key '{}' within {} millis", reply.key, reply.timeout);
+                exchange.setException(new ExchangeTimedOutException(exchange, reply.timeout));
+                callback.done(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for an exchange to be registered, or for the next timeout.
+     */
+    private void awaitRegistration() {
+        synchronized (registered) {
+            if (running && pending.isEmpty()) {
+                try {
+                    registered.wait(READ_WAIT * 1000L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void sleep() {
+        pause(READ_WAIT * 1000L);
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        service = new Jt400DataQueueService(replyEndpoint);
+        try {
+            service.start();
+            queue = service.getQueueAccess();
+            keyLength = queue.getKeyLength();
+        } catch (Exception e) {
+            service.stop();
+            service = null;
+            queue = null;
+            throw e;
+        }
+
+        prefix = randomPrefix(Math.min(PREFIX_LENGTH, keyLength / 2));
+
+        running = true;
+        executor = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "Jt400ReplyManager[" + replyQueue + "]");
+        executor.execute(this);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        running = false;
+        synchronized (registered) {
+            registered.notifyAll();
+        }
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+            executor = null;
+        }
+
+        // fail the exchanges still waiting, as their reply will never be read
+        for (PendingReply reply : pending.values()) {
+            if (pending.remove(reply.key, reply)) {
+                Exchange exchange = reply.exchange;
+                AsyncCallback callback = reply.callback;
+                reply.clear();
+                exchange.setException(new CamelExchangeException("Reply manager of " + replyQueue + " was stopped", exchange));
+                callback.done(false);
+            }
+        }
+        timeouts.clear();
+        expired.clear();
+
+        if (service != null) {
+            service.stop();
+            service = null;
+            queue = null;
+        }
+    }
+
+    /**
+     * Generates a correlation key of exactly <code>keyLength</code>
+     * characters from the given prefix and sequence number.
+     */
+    static String formatCorrelationKey(String prefix, long sequence, int keyLength) {
+        String seq = Long.toString(sequence, Character.MAX_RADIX).toUpperCase();
+        StringBuilder key = new StringBuilder(keyLength + seq.length());
+        key.append(prefix);
+        for (int i = prefix.length() + seq.length(); i < keyLength; i++) {
+            key.append('0');
+        }
+        key.append(seq);
+        // on overflow, keep the low order digits
+        return key.length() > keyLength ? key.substring(key.length() - keyLength) : key.toString();
+    }
+
+    /**
+     * Pads a key with blanks up to <code>keyLength</code> characters, as the
+     * keys of the entries read from the reply queue are.
+     */
+    static String padKey(String key, int keyLength) {
+        if (key.length() >= keyLength) {
+            return key;
+        }
+        StringBuilder padded = new StringBuilder(keyLength);
+        padded.append(key);
+        while (padded.length() < keyLength) {
+            padded.append(' ');
+        }
+        return padded.toString();
+    }
+
+    /**
+     * Generates the random prefix that keeps the generated keys of different
+     * managers (typically on different Camel nodes) sharing a reply queue
+     * apart.
+     */
+    private static String randomPrefix(int length) {
+        Random random = new Random();
+        StringBuilder prefix = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            prefix.append(Character.toUpperCase(Character.forDigit(random.nextInt(Character.MAX_RADIX), Character.MAX_RADIX)));
+        }
+        return prefix.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400ReplyManager[" + replyQueue + "]";
+    }
+
+    /**
+     * Exchange waiting for a reply. Instances are claimed by removing them
+     * from the pending map, after which only the claiming thread touches the
+     * exchange and callback.
+     */
+    private static final class PendingReply implements Delayed {
+
+        private final String key;
+        private final long timeout;
+        private final long deadline;
+        private final Jt400Configuration.Format format;
+        private Exchange exchange;
+        private AsyncCallback callback;
+
+        PendingReply(String key, Exchange exchange, AsyncCallback callback, long timeout, Jt400Configuration.Format format) {
+            this.key = key;
+            this.format = format;
+            this.exchange = exchange;
+            this.callback = callback;
+            this.timeout = timeout;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+
+        /**
+         * Drops the references to the exchange, as the instance may stay in
+         * the timeout queue until its deadline.
+         */
+        void clear() {
+            exchange = null;
+            callback = null;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+    }
+
+}
@@ -0,0 +1,420 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+import org.apache.camel.util.FileUtil;
+import org.apache.camel.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of records kept in memory-mapped segment files of a
+ * directory, and read back in the order they were appended.
+ * <p/>
+ * Appending a record copies it to the mapped segment, without a system call
+ * once the segment is mapped. Records are marked as removed in place, and a
+ * segment file is deleted once all its records are removed; the records
+ * still there when the log is closed are read again when it is reopened. The
+ * length of a record is written last and its CRC is checked when the log is
+ * reopened, so that a record torn by a crash of the JVM ends its segment
+ * rather than being read. Records are not forced to disk when appended and
+ * may be lost on a crash of the machine.
+ * <p/>
+ * A log is used by a single instance at a time, which holds a lock on a file
+ * next to its segments.
+ */
+final class Jt400SegmentLog {
+
+    /**
+     * Length of the header of a record: its length, its CRC and its state.
+     */
+    static final int RECORD_HEADER_LENGTH = 9;
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400SegmentLog.class);
+
+    private static final byte PENDING = 0;
+
+    private static final byte REMOVED = 1;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+
+    private final String name;
+
+    private final int segmentSize;
+
+    /**
+     * Segments holding records not removed yet, from the oldest; the last one
+     * is appended to unless sealed.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+
+    private RandomAccessFile lockFile;
+
+    private FileLock lock;
+
+    private long nextSequence;
+
+    private int count;
+
+    private long bytes;
+
+    /**
+     * @param directory the directory of the segment files
+     * @param name the name the segment files start with
+     * @param segmentSize the length of a segment file
+     */
+    Jt400SegmentLog(File directory, String name, int segmentSize) {
+        if (segmentSize <= RECORD_HEADER_LENGTH) {
+            throw new IllegalArgumentException("Segment size must be greater than " + RECORD_HEADER_LENGTH + " bytes");
+        }
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the log, reading the records left by its previous instance.
+     *
+     * @throws IOException if the log is used by another instance or cannot be
+     *             read
+     */
+    synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        lockFile = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+        try {
+            lock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            IOHelper.close(lockFile);
+            lockFile = null;
+            throw new IOException("Log " + name + " of " + directory + " is used by another instance");
+        }
+
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return sequenceOf(file) >= 0;
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long s1 = sequenceOf(f1);
+                long s2 = sequenceOf(f2);
+                return s1 < s2 ? -1 : s1 == s2 ? 0 : 1;
+            }
+        });
+        for (File file : files) {
+            Segment segment = new Segment(file, sequenceOf(file));
+            segment.sealed = true;
+            int pending = segment.recover();
+            nextSequence = segment.sequence + 1;
+            if (pending == 0) {
+                segment.delete();
+            } else {
+                // mapped again once read
+                segment.buffer = null;
+                segments.add(segment);
+                count += pending;
+            }
+        }
+        if (count > 0) {
+            LOG.info("Recovered {} records of log {} of {}", new Object[] {count, name, directory});
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @throws IllegalArgumentException if the record does not fit in a segment
+     */
+    synchronized void append(byte[] record) throws IOException {
+        checkOpen();
+        int length = RECORD_HEADER_LENGTH + record.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes is longer than the segment size of log " + name);
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.sealed || tail.writePosition + length > segmentSize) {
+            if (tail != null) {
+                tail.seal();
+            }
+            tail = new Segment(new File(directory, String.format("%s-%016d%s", name, nextSequence, SEGMENT_SUFFIX)), nextSequence);
+            nextSequence++;
+            segments.add(tail);
+        }
+        ByteBuffer buffer = tail.map();
+        int position = tail.writePosition;
+        if (position + length + 4 <= segmentSize) {
+            // ends the segment after the record until the next one is written
+            buffer.putInt(position + length, 0);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.put(position + 8, PENDING);
+        ByteBuffer data = buffer.duplicate();
+        data.position(position + RECORD_HEADER_LENGTH);
+        data.put(record);
+        buffer.putInt(position, record.length);
+        tail.writePosition = position + length;
+        count++;
+        bytes += record.length;
+    }
+
+    /**
+     * Returns the oldest record not removed yet, or null if there is none.
+     */
+    synchronized byte[] peek() throws IOException {
+        checkOpen();
+        Segment head = next();
+        if (head == null) {
+            return null;
+        }
+        ByteBuffer data = head.map().duplicate();
+        data.position(head.readPosition);
+        byte[] record = new byte[data.getInt()];
+        data.position(head.readPosition + RECORD_HEADER_LENGTH);
+        data.get(record);
+        return record;
+    }
+
+    /**
+     * Removes the oldest record.
+     *
+     * @throws IllegalStateException if there is none
+     */
+    synchronized void remove() throws IOException {
+        checkOpen();
+        Segment head = next();
+        if (head == null) {
+            throw new IllegalStateException("Log " + name + " is empty");
+        }
+        ByteBuffer buffer = head.map();
+        int length = buffer.getInt(head.readPosition);
+        buffer.put(head.readPosition + 8, REMOVED);
+        head.readPosition += RECORD_HEADER_LENGTH + length;
+        count--;
+        bytes -= length;
+        if (head.sealed && head.readPosition == head.writePosition) {
+            segments.removeFirst();
+            head.delete();
+        }
+    }
+
+    /**
+     * Returns the number of records not removed yet.
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the length of the records not removed yet, without their
+     * headers.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Closes the log, deleting its segment files if all their records were
+     * removed.
+     */
+    synchronized void close() {
+        if (lock == null) {
+            return;
+        }
+        for (Segment segment : segments) {
+            if (count == 0) {
+                segment.delete();
+            } else if (segment.buffer != null) {
+                segment.buffer.force();
+                segment.buffer = null;
+            }
+        }
+        segments.clear();
+        count = 0;
+        bytes = 0;
+        try {
+            lock.release();
+        } catch (IOException e) {
+            LOG.debug("Unable to release lock of log " + name, e);
+        }
+        lock = null;
+        IOHelper.close(lockFile);
+        lockFile = null;
+    }
+
+    /**
+     * Returns the segment of the oldest record not removed yet, skipping the
+     * records removed before the log was reopened and deleting the segments
+     * read up to their end.
+     */
+    private Segment next() throws IOException {
+        while (!segments.isEmpty()) {
+            Segment head = segments.peekFirst();
+            if (head.readPosition < head.writePosition) {
+                ByteBuffer buffer = head.map();
+                if (buffer.get(head.readPosition + 8) == PENDING) {
+                    return head;
+                }
+                head.readPosition += RECORD_HEADER_LENGTH + buffer.getInt(head.readPosition);
+            } else if (head.sealed) {
+                segments.removeFirst();
+                head.delete();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void checkOpen() {
+        if (lock == null) {
+            throw new IllegalStateException("Log " + name + " is not open");
+        }
+    }
+
+    private long sequenceOf(File file) {
+        String fileName = file.getName();
+        if (!fileName.startsWith(name + "-") || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Segment file, mapped while it is read or appended to.
+     */
+    private final class Segment {
+
+        private final File file;
+
+        private final long sequence;
+
+        private MappedByteBuffer buffer;
+
+        private int readPosition;
+
+        private int writePosition;
+
+        /**
+         * Whether no more records are appended to this segment.
+         */
+        private boolean sealed;
+
+        Segment(File file, long sequence) {
+            this.file = file;
+            this.sequence = sequence;
+        }
+
+        MappedByteBuffer map() throws IOException {
+            if (buffer == null) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    long length = sealed ? raf.length() : segmentSize;
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                } finally {
+                    IOHelper.close(raf);
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * Finds the records of a segment left by a previous instance and
+         * returns the number of those not removed.
+         */
+        int recover() throws IOException {
+            ByteBuffer data = map().duplicate();
+            int limit = data.capacity();
+            int position = 0;
+            int pending = 0;
+            int first = -1;
+            CRC32 crc = new CRC32();
+            while (position + RECORD_HEADER_LENGTH <= limit) {
+                int length = data.getInt(position);
+                if (length <= 0 || length > limit - position - RECORD_HEADER_LENGTH) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                data.position(position + RECORD_HEADER_LENGTH);
+                data.get(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != data.getInt(position + 4)) {
+                    LOG.warn("Ignoring the records of {} from offset {}, which were not completely written", file, position);
+                    break;
+                }
+                if (data.get(position + 8) == PENDING) {
+                    pending++;
+                    bytes += length;
+                    if (first < 0) {
+                        first = position;
+                    }
+                }
+                position += RECORD_HEADER_LENGTH + length;
+            }
+            writePosition = position;
+            readPosition = first < 0 ? position : first;
+            return pending;
+        }
+
+        /**
+         * Stops appending to this segment, unmapping it unless it is still
+         * read.
+         */
+        void seal() {
+            sealed = true;
+            if (this != segments.peekFirst()) {
+                buffer = null;
+            }
+        }
+
+        void delete() {
+            buffer = null;
+            if (!FileUtil.deleteFile(file)) {
+                LOG.warn("Unable to delete segment {}", file);
+            }
+        }
+    }
+
+}
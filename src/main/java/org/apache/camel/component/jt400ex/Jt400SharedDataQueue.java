@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Data queue handles on a fixed set of connections, shared by the producers
+ * writing to the same data queue of the same system (see
+ * {@link Jt400DataQueueRegistry}). Each write uses the next connection in
+ * turn.
+ */
+final class Jt400SharedDataQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400SharedDataQueue.class);
+
+    private final Object key;
+
+    private final Jt400Endpoint endpoint;
+
+    private final String systemName;
+
+    private final int connections;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Services of the connections (null until opened).
+     */
+    private volatile Jt400DataQueueService[] services;
+
+    /**
+     * Number of producers using these handles, guarded by the registry.
+     */
+    int refs;
+
+    /**
+     * @param key the key of the handles in the registry, or null if not shared
+     */
+    Jt400SharedDataQueue(Object key, Jt400Endpoint endpoint, String systemName, int connections) {
+        this.key = key;
+        this.endpoint = endpoint;
+        this.systemName = systemName;
+        this.connections = connections;
+    }
+
+    Object getKey() {
+        return key;
+    }
+
+    int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Opens the connections, unless already done.
+     */
+    synchronized void open() throws Exception {
+        if (services != null) {
+            return;
+        }
+        Jt400DataQueueService[] opened = new Jt400DataQueueService[connections];
+        try {
+            for (int i = 0; i < connections; i++) {
+                opened[i] = new Jt400DataQueueService(endpoint, systemName);
+                opened[i].start();
+            }
+        } catch (Exception e) {
+            stop(opened);
+            throw e;
+        }
+        services = opened;
+    }
+
+    /**
+     * Returns the handle of the next connection in turn.
+     */
+    Jt400QueueAccess next() {
+        Jt400DataQueueService[] current = services;
+        if (current.length == 1) {
+            return current[0].getQueueAccess();
+        }
+        int i = (next.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+        return current[i].getQueueAccess();
+    }
+
+    synchronized void close() {
+        if (services != null) {
+            stop(services);
+            services = null;
+        }
+    }
+
+    private static void stop(Jt400DataQueueService[] services) {
+        for (Jt400DataQueueService service : services) {
+            if (service != null) {
+                try {
+                    service.stop();
+                } catch (Exception e) {
+                    LOG.warn("Failed to stop " + service + ". This exception will be ignored.", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400SharedDataQueue[" + endpoint.getObjectPath() + " on " + systemName + ", connections=" + connections + "]";
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+/**
+ * {@link Jt400SharedDataQueue}s held by a producer on each of the systems of
+ * its endpoint, obtained from the registry of the component.
+ */
+final class Jt400SharedDataQueues extends Jt400SystemResources<Jt400SharedDataQueue> {
+
+    private final Jt400Endpoint endpoint;
+
+    private final Jt400DataQueueRegistry registry;
+
+    Jt400SharedDataQueues(Jt400Endpoint endpoint) {
+        super(endpoint.getSystemGroup());
+        this.endpoint = endpoint;
+        this.registry = endpoint.getComponent().getDataQueueRegistry();
+    }
+
+    @Override
+    protected Jt400SharedDataQueue open(Jt400SystemHealth system) throws Exception {
+        return registry.acquire(endpoint, system.getSystemName(), endpoint.getSharedConnections());
+    }
+
+    @Override
+    protected void failed(Jt400SharedDataQueue queue) {
+        registry.invalidate(queue);
+    }
+
+    @Override
+    protected void close(Jt400SharedDataQueue queue) throws Exception {
+        registry.release(queue);
+    }
+
+}
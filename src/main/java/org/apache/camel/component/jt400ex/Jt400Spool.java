@@ -0,0 +1,398 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.StreamCache;
+import org.apache.camel.support.ServiceSupport;
+import org.apache.camel.util.ServiceHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store-and-forward spool of the exchanges written to a data queue while none
+ * of its systems can be reached, kept in a {@link Jt400SegmentLog} on local
+ * disk.
+ * <p/>
+ * Producers spool an exchange when its write fails because its system cannot
+ * be reached, and every exchange that follows as long as spooled exchanges
+ * are left, so that they are written in order. A single drainer thread
+ * writes the spooled exchanges one after the other, and waits for the retry
+ * interval whenever the systems still cannot be reached. Spooled exchanges
+ * are written again when the spool is restarted after a stop or a crash of
+ * the JVM.
+ * <p/>
+ * A spooled exchange whose write fails for another reason is sent to the
+ * endpoint of the <code>errorUri</code> option, with the failure as the
+ * <code>CamelExceptionCaught</code> property. Without that option, or if it
+ * cannot be sent there either, it is kept and retried after the retry
+ * interval, holding up the exchanges spooled after it.
+ * <p/>
+ * An exchange is only spooled once its write has failed, so the producer
+ * still waits for the connection and socket timeouts of the system to
+ * expire on the first write of an outage, and a system that answers slowly
+ * is written to as usual; those timeouts bound how long a write can hold up
+ * a route.
+ * <p/>
+ * Only the body and the <code>KEY</code> header of an exchange are spooled.
+ * Instances are shared by all the producers of a component that write to the
+ * same queue with the same spool directory (see
+ * {@link Jt400Component#acquireSpool(Jt400Endpoint)}).
+ */
+class Jt400Spool extends ServiceSupport implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400Spool.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NO_KEY = 0;
+
+    private static final byte BINARY_KEY = 1;
+
+    private static final byte TEXT_KEY = 2;
+
+    /**
+     * Endpoint whose settings are used to write the spooled exchanges (the
+     * endpoint of the first producer using this spool).
+     */
+    private final Jt400Endpoint endpoint;
+
+    private final Jt400SegmentLog log;
+
+    /**
+     * Number of producers using this spool, guarded by the component.
+     */
+    int users;
+
+    /**
+     * Writes the spooled exchanges, without spooling them again.
+     */
+    private Jt400DataQueueProducer producer;
+
+    /**
+     * Sends the spooled exchanges that cannot be written, with the errorUri
+     * option.
+     */
+    private Producer errorProducer;
+
+    private ExecutorService executor;
+
+    private final Object pauses = new Object();
+
+    /**
+     * Whether the failure of the first spooled exchange was logged already,
+     * used by the drainer thread only.
+     */
+    private boolean failureLogged;
+
+    private volatile boolean running;
+
+    Jt400Spool(Jt400Endpoint endpoint) {
+        this.endpoint = endpoint;
+        this.log = new Jt400SegmentLog(new File(endpoint.getSpoolDirectory()), spoolName(endpoint), endpoint.getSpoolSegmentSize());
+    }
+
+    /**
+     * Returns the name of the segment files of the spool of an endpoint, made
+     * of its system and the path of its queue.
+     */
+    static String spoolName(Jt400Endpoint endpoint) {
+        return (endpoint.getSystemName() + endpoint.getObjectPath()).replaceAll("[^A-Za-z0-9.]+", "_");
+    }
+
+    /**
+     * Returns whether an exchange failed because none of the systems of its
+     * queue could be reached.
+     */
+    static boolean isUnreachable(Throwable e) {
+        return e instanceof Jt400SystemUnavailableException || Jt400SystemGroup.isSystemFailure(e);
+    }
+
+    /**
+     * Spools an exchange if exchanges spooled before are still to be written.
+     *
+     * @return whether the exchange was spooled
+     */
+    synchronized boolean offer(Exchange exchange) throws IOException {
+        if (log.size() == 0) {
+            return false;
+        }
+        append(exchange);
+        return true;
+    }
+
+    /**
+     * Spools an exchange whose write failed.
+     *
+     * @return whether the exchange was spooled, which is not the case of a
+     *         stream body already read by the write
+     */
+    synchronized boolean add(Exchange exchange) throws IOException {
+        Object body = exchange.getIn().getBody();
+        if (body instanceof StreamCache) {
+            ((StreamCache) body).reset();
+        } else if (body instanceof InputStream) {
+            return false;
+        }
+        append(exchange);
+        return true;
+    }
+
+    /**
+     * Returns the number of exchanges still to be written.
+     */
+    int getPendingCount() {
+        return log.size();
+    }
+
+    private void append(Exchange exchange) throws IOException {
+        log.append(toRecord(exchange));
+        endpoint.getMetrics().recordSpool();
+        notifyAll();
+    }
+
+    public void run() {
+        while (running) {
+            byte[] record;
+            try {
+                synchronized (this) {
+                    record = log.peek();
+                    if (record == null) {
+                        wait(endpoint.getSpoolRetryInterval());
+                        continue;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                LOG.error("Unable to read spool of " + endpoint, e);
+                pause();
+                continue;
+            }
+
+            Exchange exchange = toExchange(record);
+            try {
+                producer.process(exchange);
+            } catch (Exception e) {
+                exchange.setException(e);
+            }
+            Exception failure = exchange.getException();
+            if (failure != null && isUnreachable(failure)) {
+                LOG.debug("Unable to write spooled exchange to {}, retrying in {} ms: {}",
+                        new Object[] {endpoint, endpoint.getSpoolRetryInterval(), failure.getMessage()});
+                pause();
+                continue;
+            }
+            if (failure != null) {
+                if (!moveToError(exchange, failure)) {
+                    // kept in order, at the cost of the exchanges spooled after it
+                    pause();
+                    continue;
+                }
+            } else {
+                endpoint.getMetrics().recordReplay();
+            }
+            failureLogged = false;
+            try {
+                synchronized (this) {
+                    log.remove();
+                }
+            } catch (IOException e) {
+                LOG.error("Unable to remove exchange from spool of " + endpoint, e);
+                pause();
+            }
+        }
+    }
+
+    /**
+     * Sends a spooled exchange that cannot be written to the error endpoint.
+     *
+     * @return whether it was sent
+     */
+    private boolean moveToError(Exchange exchange, Exception failure) {
+        if (errorProducer == null) {
+            logRetry("Unable to write spooled exchange to " + endpoint, failure);
+            return false;
+        }
+        LOG.warn("Moving spooled exchange that cannot be written to {} to {}: {}",
+                new Object[] {endpoint, errorProducer.getEndpoint(), failure.getMessage()});
+        exchange.setException(null);
+        exchange.setProperty(Exchange.EXCEPTION_CAUGHT, failure);
+        try {
+            errorProducer.process(exchange);
+        } catch (Exception e) {
+            exchange.setException(e);
+        }
+        if (exchange.getException() != null) {
+            logRetry("Unable to move spooled exchange to " + errorProducer.getEndpoint(), exchange.getException());
+            return false;
+        }
+        endpoint.getMetrics().recordQuarantine();
+        return true;
+    }
+
+    /**
+     * Logs the failure of a spooled exchange kept for a retry, as an error
+     * the first time only.
+     */
+    private void logRetry(String message, Exception failure) {
+        message += ", retrying in " + endpoint.getSpoolRetryInterval() + " ms";
+        if (failureLogged) {
+            LOG.debug(message, failure);
+        } else {
+            LOG.error(message, failure);
+            failureLogged = true;
+        }
+    }
+
+    /**
+     * Waits for the retry interval, or until the spool stops.
+     */
+    private void pause() {
+        synchronized (pauses) {
+            try {
+                if (running) {
+                    pauses.wait(endpoint.getSpoolRetryInterval());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the body and key of an exchange as a record of the spool.
+     */
+    private byte[] toRecord(Exchange exchange) {
+        byte[] key;
+        byte keyType;
+        Object header = exchange.getIn().getHeader(Jt400Endpoint.KEY);
+        if (header == null) {
+            keyType = NO_KEY;
+            key = new byte[0];
+        } else if (header instanceof byte[]) {
+            keyType = BINARY_KEY;
+            key = (byte[]) header;
+        } else {
+            keyType = TEXT_KEY;
+            key = header.toString().getBytes(UTF8);
+        }
+
+        byte[] body;
+        Object value = exchange.getIn().getBody();
+        if (endpoint.getFormat() == Jt400Configuration.Format.text) {
+            String text = exchange.getIn().getBody(String.class);
+            body = text != null ? text.getBytes(UTF8) : null;
+        } else if (value instanceof ByteBuffer) {
+            // leaves the position of the buffer as is
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            body = new byte[buffer.remaining()];
+            buffer.get(body);
+        } else {
+            body = exchange.getIn().getBody(byte[].class);
+        }
+        if (body == null) {
+            body = new byte[0];
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 4 + key.length + body.length);
+        record.put(keyType).putInt(key.length).put(key).put(body);
+        return record.array();
+    }
+
+    /**
+     * Returns a new exchange holding the body and key of a record of the
+     * spool.
+     */
+    private Exchange toExchange(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        byte keyType = buffer.get();
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        byte[] body = new byte[buffer.remaining()];
+        buffer.get(body);
+
+        Exchange exchange = endpoint.createExchange();
+        if (keyType == BINARY_KEY) {
+            exchange.getIn().setHeader(Jt400Endpoint.KEY, key);
+        } else if (keyType == TEXT_KEY) {
+            exchange.getIn().setHeader(Jt400Endpoint.KEY, new String(key, UTF8));
+        }
+        if (endpoint.getFormat() == Jt400Configuration.Format.text) {
+            exchange.getIn().setBody(new String(body, UTF8));
+        } else {
+            exchange.getIn().setBody(body);
+        }
+        return exchange;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        log.open();
+        producer = new Jt400DataQueueProducer(endpoint, false);
+        try {
+            ServiceHelper.startService(producer);
+            if (endpoint.getErrorUri() != null) {
+                errorProducer = endpoint.getCamelContext().getEndpoint(endpoint.getErrorUri()).createProducer();
+                ServiceHelper.startService(errorProducer);
+            }
+        } catch (Exception e) {
+            ServiceHelper.stopService(producer);
+            log.close();
+            throw e;
+        }
+        if (log.size() > 0) {
+            LOG.info("Writing {} exchanges spooled to {} before the last stop", log.size(), endpoint);
+        }
+        running = true;
+        executor = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "Jt400Spool[" + endpoint.getObjectPath() + "]");
+        executor.execute(this);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        synchronized (pauses) {
+            pauses.notifyAll();
+        }
+        if (executor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+            executor = null;
+        }
+        ServiceHelper.stopServices(producer, errorProducer);
+        producer = null;
+        errorProducer = null;
+        if (log.size() > 0) {
+            LOG.warn("{} exchanges spooled to {} are left to write on the next start", log.size(), endpoint);
+        }
+        log.close();
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.ProgramCall;
+import com.ibm.as400.access.ServiceProgramCall;
+import org.apache.camel.Exchange;
+import org.apache.camel.util.ObjectHelper;
+
+/**
+ * {@link org.apache.camel.Producer} that calls an exported procedure of an
+ * AS/400 service program (*SRVPGM) directly, without going through a wrapper
+ * program.
+ * <p/>
+ * The body and the out message are handled as for program calls. If the
+ * endpoint's return value format is
+ * {@link org.apache.camel.component.jt400ex.Jt400Configuration.ReturnValueFormat#integer},
+ * the value returned by the procedure is set in the <code>RETURN_VALUE</code>
+ * header of the out message.
+ */
+public class Jt400SrvPgmProducer extends Jt400PgmProducer {
+
+    public Jt400SrvPgmProducer(Jt400Endpoint endpoint) {
+        super(endpoint);
+    }
+
+    @Override
+    protected ProgramCall createProgramCall(AS400 system) throws Exception {
+        ServiceProgramCall call = new ServiceProgramCall(system);
+        call.setProcedureName(getISeriesEndpoint().getProcedureName());
+        if (getISeriesEndpoint().getReturnValueFormat() == Jt400Configuration.ReturnValueFormat.integer) {
+            call.setReturnValueFormat(ServiceProgramCall.RETURN_INTEGER);
+        } else {
+            call.setReturnValueFormat(ServiceProgramCall.NO_RETURN_VALUE);
+        }
+        return call;
+    }
+
+    @Override
+    protected void handleCallResult(Exchange exchange, ProgramCall pgmCall) throws Exception {
+        if (getISeriesEndpoint().getReturnValueFormat() == Jt400Configuration.ReturnValueFormat.integer) {
+            exchange.getOut().setHeader(Jt400Endpoint.RETURN_VALUE, ((ServiceProgramCall) pgmCall).getIntegerReturnValue());
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        ObjectHelper.notEmpty(getISeriesEndpoint().getProcedureName(), "procedureName", getISeriesEndpoint());
+        super.doStart();
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import com.ibm.as400.access.AS400;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code AS400} objects held by a producer on each of the systems of its
+ * endpoint, connected to a given service.
+ */
+final class Jt400SystemConnections extends Jt400SystemResources<AS400> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400SystemConnections.class);
+
+    private final Jt400Endpoint endpoint;
+
+    private final int service;
+
+    Jt400SystemConnections(Jt400Endpoint endpoint, int service) {
+        super(endpoint.getSystemGroup());
+        this.endpoint = endpoint;
+        this.service = service;
+    }
+
+    @Override
+    protected AS400 open(Jt400SystemHealth system) throws Exception {
+        AS400 iSeries = endpoint.getSystem(system.getSystemName(), service);
+        try {
+            if (!iSeries.isConnected(service)) {
+                LOG.info("Connecting to {} on {}", endpoint, system.getSystemName());
+                iSeries.connectService(service);
+            }
+        } catch (Exception e) {
+            endpoint.releaseSystem(iSeries);
+            throw e;
+        }
+        return iSeries;
+    }
+
+    @Override
+    protected void close(AS400 iSeries) throws Exception {
+        LOG.info("Releasing connection to {} on {}", endpoint, iSeries.getSystemName());
+        endpoint.releaseSystem(iSeries);
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ibm.as400.access.ConnectionPoolException;
+
+/**
+ * Systems of an endpoint, in order of preference, with their health. Shared
+ * by all the producers and consumers of the endpoint.
+ */
+final class Jt400SystemGroup {
+
+    private final Jt400SystemHealth[] systems;
+
+    Jt400SystemGroup(List<Jt400ConnectionHealth> healths) {
+        systems = new Jt400SystemHealth[healths.size()];
+        for (int i = 0; i < systems.length; i++) {
+            systems[i] = new Jt400SystemHealth(i, healths.get(i));
+        }
+    }
+
+    int size() {
+        return systems.length;
+    }
+
+    Jt400SystemHealth get(int index) {
+        return systems[index];
+    }
+
+    /**
+     * Returns the available system with the fewest exchanges in flight (the
+     * first one on ties) among those not yet tried, or null if there is none.
+     *
+     * @param tried bit set of the indexes of the systems to skip
+     */
+    Jt400SystemHealth leastInFlight(long tried) {
+        Jt400SystemHealth best = null;
+        for (Jt400SystemHealth system : systems) {
+            if ((tried & 1L << system.getIndex()) == 0 && system.isAvailable()
+                    && (best == null || system.getInFlight() < best.getInFlight())) {
+                best = system;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the first available system in order of preference among those
+     * not yet tried, or null if there is none.
+     *
+     * @param tried bit set of the indexes of the systems to skip
+     */
+    Jt400SystemHealth firstAvailable(long tried) {
+        for (Jt400SystemHealth system : systems) {
+            if ((tried & 1L << system.getIndex()) == 0 && system.isAvailable()) {
+                return system;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether an exception means that the system could not be reached,
+     * as opposed to a failure of the requested operation itself.
+     */
+    static boolean isSystemFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof ConnectionPoolException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Jt400SystemHealth system : systems) {
+            sb.append(sb.length() == 0 ? "[" : ", ").append(system);
+        }
+        return sb.append("]").toString();
+    }
+
+}
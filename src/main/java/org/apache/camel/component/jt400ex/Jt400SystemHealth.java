@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the systems of an endpoint: its position among the systems of the
+ * endpoint, the number of exchanges the endpoint has in flight on it, and the
+ * health of the connections to it (shared with the other endpoints of the
+ * component using the same system and user).
+ */
+final class Jt400SystemHealth {
+
+    private final int index;
+
+    private final Jt400ConnectionHealth health;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Jt400SystemHealth(int index, Jt400ConnectionHealth health) {
+        this.index = index;
+        this.health = health;
+    }
+
+    String getSystemName() {
+        return health.getSystemName();
+    }
+
+    /**
+     * Returns the position of the system in the systems of the endpoint.
+     */
+    int getIndex() {
+        return index;
+    }
+
+    Jt400ConnectionHealth getHealth() {
+        return health;
+    }
+
+    Jt400ConnectionHealth.State getState() {
+        return health.getState();
+    }
+
+    boolean isAvailable() {
+        return health.isAvailable();
+    }
+
+    boolean tryAcquire() {
+        return health.tryAcquire();
+    }
+
+    void recordSuccess() {
+        health.recordSuccess();
+    }
+
+    void recordFailure() {
+        health.recordFailure();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    void begin() {
+        inFlight.incrementAndGet();
+    }
+
+    void end() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return health.toString();
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resources (connections, data queues) held by a producer or consumer on each
+ * of the systems of its endpoint, opened when a system is first used.
+ * <p/>
+ * Every operation starts with {@link #acquire(Jt400SystemHealth, boolean)},
+ * which picks a system, and ends with
+ * {@link #release(Jt400SystemHealth, Throwable)}, which records its outcome
+ * in the health of the system. A system whose resource cannot be opened is
+ * marked as failed and the next one is tried, so an unreachable system costs
+ * a single failed attempt until it is probed again.
+ *
+ * @param <T> the type of the resources
+ */
+abstract class Jt400SystemResources<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Jt400SystemResources.class);
+
+    private final Jt400SystemGroup group;
+
+    private final AtomicReferenceArray<T> resources;
+
+    private final Object[] locks;
+
+    Jt400SystemResources(Jt400SystemGroup group) {
+        this.group = group;
+        this.resources = new AtomicReferenceArray<T>(group.size());
+        this.locks = new Object[group.size()];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens the resource of a system.
+     */
+    protected abstract T open(Jt400SystemHealth system) throws Exception;
+
+    /**
+     * Closes a resource returned by {@link #open(Jt400SystemHealth)}.
+     */
+    protected abstract void close(T resource) throws Exception;
+
+    /**
+     * Invoked when an operation on a resource failed because its system could
+     * not be reached, right before the resource is closed.
+     */
+    protected void failed(T resource) {
+        // nothing by default
+    }
+
+    /**
+     * Selects a system and opens its resource if needed. The system is counted
+     * in flight until {@link #release(Jt400SystemHealth, Throwable)} is called.
+     *
+     * @param preferred the system to try first, or null
+     * @param balanced whether to select the system with the fewest exchanges
+     *            in flight rather than the first available one
+     * @return the selected system
+     * @throws Jt400SystemUnavailableException if no system can be used
+     */
+    Jt400SystemHealth acquire(Jt400SystemHealth preferred, boolean balanced) {
+        long tried = 0;
+        Exception failure = null;
+        Jt400SystemHealth system = preferred != null ? preferred : next(tried, balanced);
+        while (system != null) {
+            tried |= 1L << system.getIndex();
+            if (system.tryAcquire()) {
+                system.begin();
+                try {
+                    resource(system);
+                    return system;
+                } catch (Exception e) {
+                    system.end();
+                    system.recordFailure();
+                    LOG.warn("Unable to connect to system " + system.getSystemName() + ", trying the other systems", e);
+                    failure = e;
+                }
+            }
+            system = next(tried, balanced);
+        }
+        throw new Jt400SystemUnavailableException("None of the systems " + group + " is available", failure);
+    }
+
+    /**
+     * Returns the resource of a system returned by
+     * {@link #acquire(Jt400SystemHealth, boolean)}.
+     */
+    T get(Jt400SystemHealth system) {
+        return resources.get(system.getIndex());
+    }
+
+    /**
+     * Ends an operation on a system. If it failed because the system could
+     * not be reached, the system is marked as failed and its resource closed.
+     *
+     * @param system the system returned by {@link #acquire(Jt400SystemHealth, boolean)}
+     * @param failure the exception the operation failed with, or null
+     */
+    void release(Jt400SystemHealth system, Throwable failure) {
+        system.end();
+        if (failure != null && Jt400SystemGroup.isSystemFailure(failure)) {
+            system.recordFailure();
+            T resource = resources.get(system.getIndex());
+            if (resource != null) {
+                failed(resource);
+            }
+            discard(system.getIndex());
+        } else {
+            system.recordSuccess();
+        }
+    }
+
+    /**
+     * Closes the resources of all the systems.
+     */
+    void close() {
+        for (int i = 0; i < resources.length(); i++) {
+            discard(i);
+        }
+    }
+
+    private Jt400SystemHealth next(long tried, boolean balanced) {
+        return balanced ? group.leastInFlight(tried) : group.firstAvailable(tried);
+    }
+
+    private T resource(Jt400SystemHealth system) throws Exception {
+        int index = system.getIndex();
+        T resource = resources.get(index);
+        if (resource == null) {
+            synchronized (locks[index]) {
+                resource = resources.get(index);
+                if (resource == null) {
+                    resource = open(system);
+                    resources.set(index, resource);
+                }
+            }
+        }
+        return resource;
+    }
+
+    private void discard(int index) {
+        T resource = resources.getAndSet(index, null);
+        if (resource != null) {
+            try {
+                close(resource);
+            } catch (Exception e) {
+                LOG.warn("Failed to close the resource of system " + group.get(index).getSystemName() + ". This exception will be ignored.", e);
+            }
+        }
+    }
+
+}
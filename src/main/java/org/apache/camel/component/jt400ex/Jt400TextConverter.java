@@ -0,0 +1,353 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts text between the character set of a system (given by its CCSID)
+ * and UTF-8, from bytes to bytes without an intermediate <code>String</code>.
+ * <p/>
+ * Single-byte character sets, such as the EBCDIC CCSIDs 37, 273, 500 or
+ * 1140 to 1149, use lookup tables built once per character set: one from
+ * each host byte to its UTF-8 encoding, one from each UTF-16 code unit back
+ * to the host byte. Other character sets go through the Java coders of the
+ * character set. Characters without an equivalent are replaced by the
+ * substitution character of the target character set.
+ * <p/>
+ * The character set of a CCSID is looked up in a table of the Java names of
+ * the CCSIDs, as the names Java gives to the IBM character sets do not follow
+ * a single pattern (IBM037, IBM01140, x-IBM930) and vary between releases.
+ * The mixed CCSIDs, such as 5026 or 5035, map to the Java character set
+ * they are a subset of.
+ * <p/>
+ * Converters are cached and thread-safe.
+ */
+final class Jt400TextConverter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Map<Integer, String> CHARSET_NAMES = new HashMap<Integer, String>();
+
+    static {
+        // single-byte EBCDIC
+        for (int ccsid : new int[] {37, 273, 277, 278, 280, 284, 285, 290, 297, 420, 424, 500, 870, 871, 918}) {
+            CHARSET_NAMES.put(ccsid, ccsid < 100 ? "IBM0" + ccsid : "IBM" + ccsid);
+        }
+        for (int ccsid = 1140; ccsid <= 1149; ccsid++) {
+            CHARSET_NAMES.put(ccsid, "IBM0" + ccsid);
+        }
+        CHARSET_NAMES.put(838, "IBM-Thai");
+        CHARSET_NAMES.put(1026, "IBM1026");
+        CHARSET_NAMES.put(1047, "IBM1047");
+        for (int ccsid : new int[] {300, 833, 834, 875, 1025, 1097, 1112, 1122, 1123}) {
+            CHARSET_NAMES.put(ccsid, "x-IBM" + ccsid);
+        }
+        // mixed EBCDIC
+        for (int ccsid : new int[] {930, 933, 935, 937, 939, 1364}) {
+            CHARSET_NAMES.put(ccsid, "x-IBM" + ccsid);
+        }
+        CHARSET_NAMES.put(5026, "x-IBM930");
+        CHARSET_NAMES.put(5029, "x-IBM933");
+        CHARSET_NAMES.put(5031, "x-IBM935");
+        CHARSET_NAMES.put(5033, "x-IBM937");
+        CHARSET_NAMES.put(5035, "x-IBM939");
+        // ASCII and Unicode
+        CHARSET_NAMES.put(367, "US-ASCII");
+        CHARSET_NAMES.put(437, "IBM437");
+        CHARSET_NAMES.put(819, "ISO-8859-1");
+        CHARSET_NAMES.put(850, "IBM850");
+        CHARSET_NAMES.put(1252, "windows-1252");
+        CHARSET_NAMES.put(1208, "UTF-8");
+        CHARSET_NAMES.put(1200, "UTF-16BE");
+        CHARSET_NAMES.put(13488, "UTF-16BE");
+    }
+
+    private static final ConcurrentMap<String, Jt400TextConverter> CONVERTERS = new ConcurrentHashMap<String, Jt400TextConverter>();
+
+    private final Charset charset;
+
+    /**
+     * UTF-8 encoding of each host byte (null unless single-byte).
+     */
+    private final byte[][] toUtf8;
+
+    /**
+     * Length of the UTF-8 encoding of each host byte (null unless single-byte).
+     */
+    private final byte[] toUtf8Lengths;
+
+    /**
+     * ASCII character of each host byte, -1 if none (null unless single-byte).
+     */
+    private final byte[] toAscii;
+
+    /**
+     * Host byte of each UTF-16 code unit (null unless single-byte).
+     */
+    private final byte[] fromUtf16;
+
+    /**
+     * Host byte substituted for characters without an equivalent.
+     */
+    private final byte substitution;
+
+    /**
+     * Host bytes of the blank, used to pad keys (two bytes in UTF-16).
+     */
+    private final byte[] blank;
+
+    private Jt400TextConverter(Charset charset) {
+        this.charset = charset;
+        CharsetEncoder encoder = charset.newEncoder();
+        this.substitution = encoder.replacement()[0];
+        this.blank = " ".getBytes(charset);
+        if (encoder.maxBytesPerChar() == 1 && charset.newDecoder().maxCharsPerByte() == 1) {
+            toUtf8 = new byte[256][];
+            toUtf8Lengths = new byte[256];
+            toAscii = new byte[256];
+            fromUtf16 = new byte[Character.MAX_VALUE + 1];
+            Arrays.fill(fromUtf16, substitution);
+            // characters that round-trip first, so that they win over
+            // characters several host bytes decode to
+            for (int pass = 0; pass < 2; pass++) {
+                for (int b = 0; b < 256; b++) {
+                    String c = new String(new byte[] {(byte) b}, charset);
+                    boolean roundTrip = Arrays.equals(c.getBytes(charset), new byte[] {(byte) b});
+                    if (pass == 0) {
+                        toUtf8[b] = c.getBytes(UTF8);
+                        toUtf8Lengths[b] = (byte) toUtf8[b].length;
+                        toAscii[b] = toUtf8[b].length == 1 ? toUtf8[b][0] : -1;
+                        if (roundTrip) {
+                            fromUtf16[c.charAt(0)] = (byte) b;
+                        }
+                    } else if (!roundTrip && fromUtf16[c.charAt(0)] == substitution) {
+                        fromUtf16[c.charAt(0)] = c.getBytes(charset)[0];
+                    }
+                }
+            }
+        } else {
+            toUtf8 = null;
+            toUtf8Lengths = null;
+            toAscii = null;
+            fromUtf16 = null;
+        }
+    }
+
+    /**
+     * Returns the converter of a CCSID.
+     *
+     * @throws IllegalArgumentException if Java has no character set for the CCSID
+     */
+    static Jt400TextConverter forCcsid(int ccsid) {
+        return forCharset(charsetForCcsid(ccsid));
+    }
+
+    /**
+     * Returns the converter of a character set.
+     */
+    static Jt400TextConverter forCharset(Charset charset) {
+        Jt400TextConverter converter = CONVERTERS.get(charset.name());
+        if (converter == null) {
+            converter = new Jt400TextConverter(charset);
+            Jt400TextConverter existing = CONVERTERS.putIfAbsent(charset.name(), converter);
+            if (existing != null) {
+                converter = existing;
+            }
+        }
+        return converter;
+    }
+
+    /**
+     * Returns the Java character set of a CCSID.
+     *
+     * @throws IllegalArgumentException if Java has no character set for the CCSID
+     */
+    static Charset charsetForCcsid(int ccsid) {
+        String name = CHARSET_NAMES.get(ccsid);
+        if (name == null || !Charset.isSupported(name)) {
+            throw new IllegalArgumentException("No character set available for CCSID " + ccsid);
+        }
+        return Charset.forName(name);
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Converts host text to UTF-8.
+     */
+    byte[] toUtf8(byte[] data) {
+        return toUtf8(data, 0, data.length);
+    }
+
+    /**
+     * Converts host text to UTF-8.
+     */
+    byte[] toUtf8(byte[] data, int offset, int length) {
+        if (toUtf8 == null) {
+            if (charset.equals(UTF8)) {
+                return offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+            }
+            return encode(decode(ByteBuffer.wrap(data, offset, length), charset), UTF8);
+        }
+        int end = offset + length;
+        // single pass when the text is ASCII, which is checked once at the end
+        byte[] utf8 = new byte[length];
+        int nonAscii = 0;
+        for (int i = 0; i < length; i++) {
+            byte ascii = toAscii[data[offset + i] & 0xFF];
+            utf8[i] = ascii;
+            nonAscii |= ascii;
+        }
+        if (nonAscii >= 0) {
+            return utf8;
+        }
+        int size = 0;
+        for (int i = offset; i < end; i++) {
+            size += toUtf8Lengths[data[i] & 0xFF];
+        }
+        utf8 = new byte[size];
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            int b = data[i] & 0xFF;
+            if (toUtf8Lengths[b] == 1) {
+                utf8[n++] = toUtf8[b][0];
+            } else {
+                byte[] encoded = toUtf8[b];
+                System.arraycopy(encoded, 0, utf8, n, encoded.length);
+                n += encoded.length;
+            }
+        }
+        return utf8;
+    }
+
+    /**
+     * Converts UTF-8 text to host text.
+     */
+    byte[] fromUtf8(byte[] utf8) {
+        return fromUtf8(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Converts UTF-8 text to host text.
+     */
+    byte[] fromUtf8(byte[] utf8, int offset, int length) {
+        if (fromUtf16 == null) {
+            if (charset.equals(UTF8)) {
+                return offset == 0 && length == utf8.length ? utf8 : Arrays.copyOfRange(utf8, offset, offset + length);
+            }
+            return encode(decode(ByteBuffer.wrap(utf8, offset, length), UTF8), charset);
+        }
+        // at most one host byte per UTF-8 byte
+        byte[] data = new byte[length];
+        int n = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b0 = utf8[i];
+            if (b0 >= 0) {
+                data[n++] = fromUtf16[b0];
+                i++;
+            } else if ((b0 & 0xE0) == 0xC0 && i + 1 < end && isContinuation(utf8[i + 1])) {
+                data[n++] = fromUtf16[(b0 & 0x1F) << 6 | utf8[i + 1] & 0x3F];
+                i += 2;
+            } else if ((b0 & 0xF0) == 0xE0 && i + 2 < end && isContinuation(utf8[i + 1]) && isContinuation(utf8[i + 2])) {
+                data[n++] = fromUtf16[(b0 & 0x0F) << 12 | (utf8[i + 1] & 0x3F) << 6 | utf8[i + 2] & 0x3F];
+                i += 3;
+            } else if ((b0 & 0xF8) == 0xF0 && i + 3 < end && isContinuation(utf8[i + 1])
+                    && isContinuation(utf8[i + 2]) && isContinuation(utf8[i + 3])) {
+                // outside the basic multilingual plane, never single-byte
+                data[n++] = substitution;
+                i += 4;
+            } else {
+                // malformed
+                data[n++] = substitution;
+                i++;
+            }
+        }
+        return n == data.length ? data : Arrays.copyOf(data, n);
+    }
+
+    /**
+     * Converts a UTF-8 key to host text, padded with blanks up to the key
+     * length.
+     */
+    byte[] encodeKey(String key, int keyLength) {
+        byte[] data = fromUtf8(key.getBytes(UTF8));
+        if (data.length >= keyLength) {
+            return data;
+        }
+        byte[] padded = Arrays.copyOf(data, keyLength);
+        for (int i = data.length; i < keyLength; i++) {
+            padded[i] = blank[(i - data.length) % blank.length];
+        }
+        return padded;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static CharBuffer decode(ByteBuffer bytes, Charset charset) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(bytes);
+        } catch (CharacterCodingException e) {
+            // cannot happen when replacing
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] encode(CharBuffer chars, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            ByteBuffer bytes = encoder.encode(chars);
+            if (bytes.hasArray() && bytes.arrayOffset() == 0 && bytes.remaining() == bytes.array().length) {
+                return bytes.array();
+            }
+            byte[] data = new byte[bytes.remaining()];
+            bytes.get(data);
+            return data;
+        } catch (CharacterCodingException e) {
+            // cannot happen when replacing
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Jt400TextConverter[" + charset.name() + (toUtf8 != null ? ", table" : "") + "]";
+    }
+
+}
@@ -18,5 +18,5 @@ package org.apache.camel.component.jt400ex;
 
 public enum Jt400Type {
 
-    DTAQ, PGM
+    DTAQ, PGM, SRVPGM, CMD
 }
@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+
+/**
+ * Packs the messages sent by a producer into coalesced entries (see
+ * {@link Jt400EntryCodec}), with an open entry per key.
+ * <p/>
+ * An entry is ready to be written once the next message of its key does not
+ * fit in it, or once the linger time has elapsed since its first message.
+ * Ready entries are written one at a time, in the order they became ready,
+ * by the threads that made them ready or by the linger timer; the messages
+ * sent in the meantime keep filling the open entries. The exchanges of an
+ * entry are completed once it is written, outside of any lock. An entry
+ * holding a single message is written as the plain message.
+ */
+final class Jt400WriteCoalescer {
+
+    /**
+     * Writes the entries of a coalescer.
+     */
+    interface Writer {
+
+        /**
+         * Writes an entry.
+         *
+         * @param key the key of the entry, null for a non-keyed queue
+         */
+        void write(byte[] key, byte[] entry) throws Exception;
+    }
+
+    private static final ByteBuffer NO_KEY = ByteBuffer.allocate(0);
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final Writer writer;
+
+    private final ScheduledExecutorService timer;
+
+    private final long lingerTime;
+
+    private final int maxEntryLength;
+
+    /**
+     * Open entries by key, guarded by this coalescer.
+     */
+    private final Map<ByteBuffer, Batch> open = new HashMap<ByteBuffer, Batch>();
+
+    /**
+     * Entries ready to be written, in order, guarded by this coalescer. An
+     * entry that became ready with the linger time stays open until taken.
+     */
+    private final Deque<Batch> ready = new ArrayDeque<Batch>();
+
+    /**
+     * Held while writing an entry, to write entries in order.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private boolean closed;
+
+    /**
+     * @param writer writes the entries
+     * @param timer runs the linger time of the entries
+     * @param lingerTime time in millis an entry waits for more messages
+     * @param maxEntryLength maximum length of an entry of the queue
+     */
+    Jt400WriteCoalescer(Writer writer, ScheduledExecutorService timer, long lingerTime, int maxEntryLength) {
+        this.writer = writer;
+        this.timer = timer;
+        this.lingerTime = lingerTime;
+        this.maxEntryLength = maxEntryLength;
+    }
+
+    /**
+     * Adds a message to the open entry of its key. The exchange is completed
+     * through its callback once the entry is written, or failed with the
+     * exception of the write.
+     *
+     * @param key the key of the message, null for a non-keyed queue
+     * @param record the message, or null if it is to be written on its own
+     * @return whether the message was added; if not, it is to be written on
+     *         its own by the caller, the open entry of its key having been
+     *         written first
+     * @throws IllegalStateException if the coalescer is closed
+     */
+    boolean add(byte[] key, byte[] record, Exchange exchange, AsyncCallback callback) {
+        ByteBuffer mapKey = key != null ? ByteBuffer.wrap(key) : NO_KEY;
+        boolean added;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Coalescing producer is stopped");
+            }
+            Batch batch = open.get(mapKey);
+            added = record != null && record.length <= maxEntryLength - Jt400EntryCodec.COALESCED_HEADER_LENGTH
+                    - Jt400EntryCodec.RECORD_HEADER_LENGTH;
+            if (batch != null && (!added || !batch.fits(record.length))) {
+                open.remove(mapKey);
+                if (!batch.ready) {
+                    // else made ready by its linger time, and not taken yet
+                    markReady(batch);
+                }
+                batch = null;
+            }
+            if (added) {
+                if (batch == null) {
+                    batch = new Batch(key, mapKey);
+                    open.put(mapKey, batch);
+                    if (lingerTime > 0) {
+                        final Batch lingering = batch;
+                        timer.schedule(new Runnable() {
+                            public void run() {
+                                linger(lingering);
+                            }
+                        }, lingerTime, TimeUnit.MILLISECONDS);
+                    } else {
+                        markReady(batch);
+                    }
+                }
+                batch.add(record, exchange, callback);
+            }
+        }
+        writeReady();
+        return added;
+    }
+
+    /**
+     * Writes all the open entries and rejects the next messages.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            for (Batch batch : open.values()) {
+                if (!batch.ready) {
+                    markReady(batch);
+                }
+            }
+        }
+        writeReady();
+    }
+
+    /**
+     * Returns the number of messages waiting to be written.
+     */
+    synchronized int getPendingCount() {
+        int count = 0;
+        for (Batch batch : open.values()) {
+            count += batch.exchanges.size();
+        }
+        for (Batch batch : ready) {
+            if (open.get(batch.mapKey) != batch) {
+                count += batch.exchanges.size();
+            }
+        }
+        return count;
+    }
+
+    private void linger(Batch batch) {
+        synchronized (this) {
+            if (batch.ready) {
+                return;
+            }
+            markReady(batch);
+        }
+        writeReady();
+    }
+
+    private void markReady(Batch batch) {
+        batch.ready = true;
+        ready.add(batch);
+    }
+
+    /**
+     * Writes the ready entries, one per hold of the write lock, and completes
+     * their exchanges.
+     */
+    private void writeReady() {
+        while (true) {
+            Batch batch;
+            writeLock.lock();
+            try {
+                synchronized (this) {
+                    batch = ready.poll();
+                    if (batch == null) {
+                        return;
+                    }
+                    if (open.get(batch.mapKey) == batch) {
+                        open.remove(batch.mapKey);
+                    }
+                }
+                try {
+                    writer.write(batch.key, batch.toEntry());
+                } catch (Exception e) {
+                    batch.failure = e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            batch.complete();
+        }
+    }
+
+    /**
+     * Messages of an entry.
+     */
+    private final class Batch {
+
+        private final byte[] key;
+
+        private final ByteBuffer mapKey;
+
+        private final List<Exchange> exchanges = new ArrayList<Exchange>();
+
+        private final List<AsyncCallback> callbacks = new ArrayList<AsyncCallback>();
+
+        /**
+         * Only message of the entry, until a second one comes.
+         */
+        private byte[] first;
+
+        private byte[] buffer;
+
+        private int length = Jt400EntryCodec.COALESCED_HEADER_LENGTH;
+
+        private boolean ready;
+
+        private Exception failure;
+
+        Batch(byte[] key, ByteBuffer mapKey) {
+            this.key = key;
+            this.mapKey = mapKey;
+        }
+
+        boolean fits(int recordLength) {
+            int total = exchanges.size() == 1 ? length + Jt400EntryCodec.RECORD_HEADER_LENGTH + first.length : length;
+            return total + Jt400EntryCodec.RECORD_HEADER_LENGTH + recordLength <= maxEntryLength;
+        }
+
+        void add(byte[] record, Exchange exchange, AsyncCallback callback) {
+            if (exchanges.isEmpty()) {
+                first = record;
+            } else {
+                if (buffer == null) {
+                    buffer = new byte[Math.min(Math.max(INITIAL_CAPACITY, 2 * (first.length + record.length)
+                            + Jt400EntryCodec.COALESCED_HEADER_LENGTH + 2 * Jt400EntryCodec.RECORD_HEADER_LENGTH), maxEntryLength)];
+                    Jt400EntryCodec.setCoalescedHeader(buffer);
+                    length = Jt400EntryCodec.putRecord(buffer, length, first);
+                    first = null;
+                }
+                int required = length + Jt400EntryCodec.RECORD_HEADER_LENGTH + record.length;
+                if (required > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(Math.max(2 * buffer.length, required), maxEntryLength));
+                }
+                length = Jt400EntryCodec.putRecord(buffer, length, record);
+            }
+            exchanges.add(exchange);
+            callbacks.add(callback);
+        }
+
+        byte[] toEntry() {
+            if (buffer == null) {
+                return first;
+            }
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+
+        void complete() {
+            for (int i = 0; i < exchanges.size(); i++) {
+                if (failure != null) {
+                    exchanges.get(i).setException(failure);
+                }
+                callbacks.get(i).done(false);
+            }
+        }
+    }
+
+}
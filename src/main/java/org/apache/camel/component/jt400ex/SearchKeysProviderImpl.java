@@ -7,7 +7,12 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 
-import java.util.*;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 
 /**
@@ -29,24 +34,28 @@ public class SearchKeysProviderImpl implements SearchKeysProvider {
     private static final Logger LOGGER = LoggerFactory.getLogger(SearchKeysProviderImpl.class);
     private static final int CLEANUP_INTERVAL = 60000;
 
-    final Map<String, Date> keys = new HashMap<String, Date>();
+    /**
+     * Keys with the time they were last added. Consumers sweep the keys while
+     * they are being added and removed, hence a concurrent map.
+     */
+    final ConcurrentMap<String, Date> keys = new ConcurrentHashMap<String, Date>();
 
     public SearchKeysProviderImpl() {
         LOGGER.info("Constructed SearchKeysProvider");
     }
 
     @Override
-    synchronized public void addKey(final String key) {
+    public void addKey(final String key) {
         keys.put(key, new Date());
     }
 
     @Override
-    synchronized public void removeKey(final String key) {
+    public void removeKey(final String key) {
         keys.remove(key);
     }
 
     @Override
-    synchronized public Set<String> getKeys() {
+    public Set<String> getKeys() {
         return Collections.unmodifiableSet(keys.keySet());
     }
 
@@ -54,21 +63,14 @@ public class SearchKeysProviderImpl implements SearchKeysProvider {
      * Every minute loop over the list of keys and remove any that have not been refreshed
      */
     @Scheduled(fixedRate=CLEANUP_INTERVAL)
-    synchronized private void cleanUpOldKeys() {
+    synchronized void cleanUpOldKeys() {
         final Date now = new Date();
 
-        final List<String> removeList = new ArrayList<String>();
-
-        for (final String key : keys.keySet()) {
-            final Date date = keys.get(key);
-            if (now.getTime() - date.getTime() > CLEANUP_INTERVAL) {
-                removeList.add(key);
+        for (final Map.Entry<String, Date> entry : keys.entrySet()) {
+            // unless refreshed in the meantime
+            if (now.getTime() - entry.getValue().getTime() > CLEANUP_INTERVAL && keys.remove(entry.getKey(), entry.getValue())) {
+                LOGGER.info("Removed key " + entry.getKey() + " from the list");
             }
         }
-
-        for (final String key : removeList) {
-            LOGGER.info("Removed key " + key + " from the list");
-            removeKey(key);
-        }
     }
 }
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link Jt400BufferPool}
+ */
+public class Jt400BufferPoolTest {
+
+    @Test
+    public void testBuffersAreReused() {
+        Jt400BufferPool pool = new Jt400BufferPool(1024);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(1024, buffer.capacity());
+        buffer.put((byte) 1).flip();
+        pool.release(buffer);
+
+        ByteBuffer again = pool.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+        assertNotSame(again, pool.acquire());
+        assertEquals(2, pool.getAllocated());
+    }
+
+    @Test
+    public void testIdleBuffersAreBounded() {
+        Jt400BufferPool pool = new Jt400BufferPool(16);
+        for (int i = 0; i < Jt400BufferPool.MAX_IDLE + 10; i++) {
+            pool.release(ByteBuffer.allocateDirect(16));
+        }
+        assertEquals(Jt400BufferPool.MAX_IDLE, pool.getIdle());
+        // buffers of another capacity are dropped
+        pool.acquire();
+        pool.release(ByteBuffer.allocateDirect(8));
+        assertEquals(Jt400BufferPool.MAX_IDLE - 1, pool.getIdle());
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link Jt400ChunkAssembler}
+ */
+public class Jt400ChunkAssemblerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) ('a' + i % 26);
+        }
+        return message;
+    }
+
+    private static Jt400QueueEntry chunk(long messageId, byte[] message, int offset, int length, boolean last) {
+        byte[] chunk = new byte[Jt400EntryCodec.CHUNK_HEADER_LENGTH + length];
+        Jt400EntryCodec.setChunkHeader(chunk, messageId, offset, last);
+        System.arraycopy(message, offset, chunk, Jt400EntryCodec.CHUNK_HEADER_LENGTH, length);
+        assertTrue(Jt400EntryCodec.isChunk(chunk));
+        return new Jt400MemoryQueue.Entry("KEY".getBytes(UTF8), chunk, null, UTF8);
+    }
+
+    @Test
+    public void testChunkHeader() {
+        byte[] chunk = new byte[Jt400EntryCodec.CHUNK_HEADER_LENGTH];
+        Jt400EntryCodec.setChunkHeader(chunk, -2L, 123456789, true);
+        assertEquals(-2L, Jt400EntryCodec.getChunkMessageId(chunk));
+        assertEquals(123456789, Jt400EntryCodec.getChunkOffset(chunk));
+        assertTrue(Jt400EntryCodec.isLastChunk(chunk));
+        assertFalse(Jt400EntryCodec.isCompressed(chunk));
+    }
+
+    @Test
+    public void testInOrder() throws Exception {
+        Jt400ChunkAssembler assembler = new Jt400ChunkAssembler(60000, 1024 * 1024);
+        byte[] message = message(250);
+        assertNull(assembler.add(chunk(1, message, 0, 100, false), UTF8));
+        assertNull(assembler.add(chunk(1, message, 100, 100, false), UTF8));
+        Jt400ChunkAssembler.Message complete = assembler.add(chunk(1, message, 200, 50, true), UTF8);
+        assertArrayEquals(message, complete.getData());
+        assertEquals(new String(message, UTF8), complete.getString());
+        assertEquals("KEY", complete.getKeyString());
+        assertEquals(0, assembler.getPartialCount());
+    }
+
+    @Test
+    public void testOutOfOrderInterleavedAndDuplicate() throws Exception {
+        Jt400ChunkAssembler assembler = new Jt400ChunkAssembler(60000, 1024 * 1024);
+        byte[] first = message(200);
+        byte[] second = message(150);
+        assertNull(assembler.add(chunk(1, first, 100, 100, true), UTF8));
+        assertNull(assembler.add(chunk(2, second, 0, 100, false), UTF8));
+        assertNull(assembler.add(chunk(2, second, 0, 100, false), UTF8));
+        assertEquals(2, assembler.getPartialCount());
+        assertArrayEquals(second, assembler.add(chunk(2, second, 100, 50, true), UTF8).getData());
+        assertArrayEquals(first, assembler.add(chunk(1, first, 0, 100, false), UTF8).getData());
+    }
+
+    @Test
+    public void testSpilledToFile() throws Exception {
+        Jt400ChunkAssembler assembler = new Jt400ChunkAssembler(60000, 150);
+        byte[] message = message(300);
+        assertNull(assembler.add(chunk(1, message, 0, 100, false), UTF8));
+        assertNull(assembler.add(chunk(1, message, 200, 100, true), UTF8));
+        Jt400ChunkAssembler.Message complete = assembler.add(chunk(1, message, 100, 100, false), UTF8);
+        File file = complete.getFile();
+        assertNotNull(file);
+        assertEquals(300, file.length());
+        assertArrayEquals(message, complete.getData());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testIncompleteMessagesExpire() throws Exception {
+        Jt400ChunkAssembler assembler = new Jt400ChunkAssembler(0, 150);
+        byte[] message = message(300);
+        assertNull(assembler.add(chunk(1, message, 0, 200, false), UTF8));
+        assertEquals(1, assembler.getPartialCount());
+        Thread.sleep(1);
+        assembler.expire();
+        assertEquals(0, assembler.getPartialCount());
+        // the rest of the message then starts a new one
+        assertNull(assembler.add(chunk(1, message, 200, 100, true), UTF8));
+        assertEquals(1, assembler.getPartialCount());
+        assembler.clear();
+    }
+
+}
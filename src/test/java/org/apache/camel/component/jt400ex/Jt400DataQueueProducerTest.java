@@ -16,6 +16,11 @@
  */
 package org.apache.camel.component.jt400ex;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -40,4 +45,30 @@ public class Jt400DataQueueProducerTest extends Jt400TestSupport {
         assertFalse(producer.toString().contains(PASSWORD));
     }
 
+    @Test
+    public void testReadEntry() throws IOException {
+        byte[] data = new byte[1000];
+        data[999] = 42;
+        assertArrayEquals(data, Jt400DataQueueProducer.readEntry(new ByteArrayInputStream(data), 1000));
+        assertArrayEquals(data, Jt400DataQueueProducer.readEntry(unknownLength(data), 1000));
+        assertEquals(0, Jt400DataQueueProducer.readEntry(new ByteArrayInputStream(new byte[0]), 1000).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadEntryTooLong() throws IOException {
+        Jt400DataQueueProducer.readEntry(unknownLength(new byte[1001]), 1000);
+    }
+
+    /**
+     * Returns a stream that does not tell how many bytes are available.
+     */
+    private static InputStream unknownLength(byte[] data) {
+        return new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int available() {
+                return 0;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for {@link Jt400EntryCodec}
+ */
+public class Jt400EntryCodecTest {
+
+    private final Jt400CodecPool pool = new Jt400CodecPool();
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    private static byte[] json(int records) throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            json.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"status\":\"ACTIVE\",\"amount\":\"")
+                    .append(i * 7 % 1000).append(".00\"}");
+        }
+        return json.append(']').toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = json(1000);
+        byte[] entry = Jt400EntryCodec.compress(data, 512, pool);
+        assertTrue(Jt400EntryCodec.isCompressed(entry));
+        assertTrue(entry.length < data.length / 4);
+        assertArrayEquals(data, Jt400EntryCodec.decompress(entry, pool));
+    }
+
+    @Test
+    public void testLargerThanMaximumEntryLength() throws Exception {
+        byte[] data = json(10000);
+        assertTrue(data.length > Jt400MemoryQueue.MAX_ENTRY_LENGTH);
+        byte[] entry = Jt400EntryCodec.compress(data, 512, pool);
+        assertTrue(entry.length <= Jt400MemoryQueue.MAX_ENTRY_LENGTH);
+        assertArrayEquals(data, Jt400EntryCodec.decompress(entry, pool));
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        byte[] data = json(1);
+        assertSame(data, Jt400EntryCodec.compress(data, data.length + 1, pool));
+        assertFalse(Jt400EntryCodec.isCompressed(data));
+    }
+
+    @Test
+    public void testIncompressible() {
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        assertSame(data, Jt400EntryCodec.compress(data, 0, pool));
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        byte[] entry = Jt400EntryCodec.compress(json(100), 0, pool);
+        entry[6]++;
+        try {
+            Jt400EntryCodec.decompress(entry, pool);
+            fail("Should have thrown a DataFormatException");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCoalescedRecords() throws Exception {
+        byte[][] records = {json(1), new byte[0], json(2)};
+        byte[] entry = new byte[Jt400EntryCodec.COALESCED_HEADER_LENGTH + 3 * Jt400EntryCodec.RECORD_HEADER_LENGTH
+                + records[0].length + records[2].length];
+        Jt400EntryCodec.setCoalescedHeader(entry);
+        int position = Jt400EntryCodec.COALESCED_HEADER_LENGTH;
+        for (byte[] record : records) {
+            position = Jt400EntryCodec.putRecord(entry, position, record);
+        }
+        assertEquals(entry.length, position);
+        assertTrue(Jt400EntryCodec.isCoalesced(entry));
+        assertFalse(Jt400EntryCodec.isCompressed(entry));
+
+        List<byte[]> unpacked = Jt400EntryCodec.getRecords(entry);
+        assertEquals(3, unpacked.size());
+        for (int i = 0; i < records.length; i++) {
+            assertArrayEquals(records[i], unpacked.get(i));
+        }
+
+        // truncated
+        try {
+            Jt400EntryCodec.getRecords(Arrays.copyOf(entry, entry.length - 1));
+            fail("Should have thrown a DataFormatException");
+        } catch (DataFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCodecsAreReusedUntilClosed() throws Exception {
+        Jt400CodecPool.Compressor compressor = pool.takeCompressor();
+        pool.giveBack(compressor);
+        byte[] entry = Jt400EntryCodec.compress(json(100), 0, pool);
+        assertArrayEquals(json(100), Jt400EntryCodec.decompress(entry, pool));
+        assertSame(compressor, pool.takeCompressor());
+        pool.giveBack(compressor);
+
+        pool.close();
+        assertNotSame(compressor, pool.takeCompressor());
+        try {
+            // ended, its native memory released
+            compressor.deflater.reset();
+            fail("Should have thrown a NullPointerException");
+        } catch (NullPointerException e) {
+            // expected
+        }
+    }
+
+}
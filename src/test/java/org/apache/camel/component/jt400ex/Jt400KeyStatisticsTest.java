@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link Jt400KeyStatistics}
+ */
+public class Jt400KeyStatisticsTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        Jt400KeyStatistics statistics = new Jt400KeyStatistics();
+        statistics.record("A", true);
+        statistics.record("A", false);
+        statistics.record("A", true);
+        statistics.record("B", false);
+
+        assertEquals(2, statistics.size());
+        assertTrue(statistics.describe("A").startsWith("A hits=2 misses=1 lastHitMillisAgo="));
+        assertTrue(statistics.describe("A").contains(" avgInterArrivalMillis="));
+        assertEquals("B hits=0 misses=1", statistics.describe("B"));
+        assertNull(statistics.describe("C"));
+    }
+
+    @Test
+    public void testHotKeys() {
+        Jt400KeyStatistics statistics = new Jt400KeyStatistics();
+        for (int key = 0; key < 1000; key++) {
+            for (int i = 0; i < key % 100; i++) {
+                statistics.record("K" + key, true);
+            }
+        }
+        String[] hot = statistics.hotKeys(3);
+        assertEquals(3, hot.length);
+        for (String report : hot) {
+            assertTrue(report, report.contains(" hits=99 "));
+        }
+        // keys with no hits (key % 100 == 0) were never recorded
+        assertEquals(990, statistics.hotKeys(5000).length);
+    }
+
+    @Test
+    public void testIdleKeys() {
+        Jt400KeyStatistics statistics = new Jt400KeyStatistics();
+        statistics.record("BUSY", true);
+        statistics.record("NEVER", false);
+
+        String[] idle = statistics.idleKeys(60000, 10);
+        assertEquals(1, idle.length);
+        assertEquals("NEVER hits=0 misses=1", idle[0]);
+        assertEquals(2, statistics.idleKeys(-1, 10).length);
+    }
+
+    @Test
+    public void testManyKeys() {
+        Jt400KeyStatistics statistics = new Jt400KeyStatistics();
+        for (int key = 0; key < 100000; key++) {
+            statistics.record(Integer.toString(key), key % 2 == 0);
+        }
+        for (int key = 0; key < 100000; key++) {
+            statistics.record(Integer.toString(key), false);
+        }
+        assertEquals(100000, statistics.size());
+        assertEquals("99999 hits=0 misses=2", statistics.describe("99999"));
+        statistics.reset();
+        assertEquals(0, statistics.size());
+    }
+
+    @Test
+    public void testKeysNoLongerReadAreEvicted() {
+        Jt400KeyStatistics statistics = new Jt400KeyStatistics(100);
+        for (int sweep = 0; sweep < 50; sweep++) {
+            // the provider keeps 40 keys and churns the others
+            for (int key = 0; key < 40; key++) {
+                statistics.record("KEEP" + key, key % 2 == 0);
+            }
+            for (int key = 0; key < 20; key++) {
+                statistics.record("CHURN" + sweep + "-" + key, false);
+            }
+            assertTrue(statistics.size() <= 100);
+        }
+        for (int key = 0; key < 40; key++) {
+            assertTrue(statistics.describe("KEEP" + key).startsWith("KEEP" + key + " hits=" + (key % 2 == 0 ? 50 : 0) + " misses=" + (key % 2 == 0 ? 0 : 50)));
+        }
+        assertNull(statistics.describe("CHURN0-0"));
+        assertEquals("CHURN49-19 hits=0 misses=1", statistics.describe("CHURN49-19"));
+    }
+
+}
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.spi.ExceptionHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link Jt400LaneDispatcher}
+ */
+public class Jt400LaneDispatcherTest {
+
+    private final DefaultCamelContext context = new DefaultCamelContext();
+
+    private final Map<String, List<Integer>> processed = new ConcurrentHashMap<String, List<Integer>>();
+
+    private final List<Throwable> handled = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final Processor processor = new Processor() {
+        public void process(Exchange exchange) throws Exception {
+            String key = exchange.getIn().getHeader(Jt400Endpoint.KEY, String.class);
+            if ("SLOW".equals(key)) {
+                release.await();
+            } else if ("FAIL".equals(key)) {
+                throw new IllegalStateException("Failed");
+            }
+            processed.get(key).add(exchange.getIn().getBody(Integer.class));
+        }
+    };
+
+    private final ExceptionHandler exceptionHandler = new ExceptionHandler() {
+        public void handleException(Throwable exception) {
+            handled.add(exception);
+        }
+
+        public void handleException(String message, Throwable exception) {
+            handled.add(exception);
+        }
+
+        public void handleException(String message, Exchange exchange, Throwable exception) {
+            handled.add(exception);
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Exchange exchange(String key, int sequence) {
+        if (!processed.containsKey(key)) {
+            processed.put(key, Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        Exchange exchange = new DefaultExchange(context);
+        exchange.getIn().setHeader(Jt400Endpoint.KEY, key);
+        exchange.getIn().setBody(sequence);
+        return exchange;
+    }
+
+    private static void awaitProcessed(List<Integer> list, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, list.size());
+    }
+
+    @Test
+    public void testLaneOf() {
+        assertEquals(0, Jt400LaneDispatcher.laneOf(null, 8));
+        assertEquals(Jt400LaneDispatcher.laneOf(new byte[] {1, 2, 3}, 8), Jt400LaneDispatcher.laneOf(new byte[] {1, 2, 3}, 8));
+        boolean[] used = new boolean[8];
+        for (int i = 0; i < 100; i++) {
+            int lane = Jt400LaneDispatcher.laneOf("KEY" + i, 8);
+            assertTrue(lane >= 0 && lane < 8);
+            used[lane] = true;
+        }
+        for (boolean lane : used) {
+            assertTrue(lane);
+        }
+    }
+
+    @Test
+    public void testLaneOfIgnoresKeyPadding() {
+        for (int i = 0; i < 100; i++) {
+            int lane = Jt400LaneDispatcher.laneOf("KEY" + i, 8);
+            assertEquals(lane, Jt400LaneDispatcher.laneOf("KEY" + i + "   ", 8));
+            assertEquals(lane, Jt400LaneDispatcher.laneOf("KEY" + i + "\0\0", 8));
+        }
+    }
+
+    @Test
+    public void testOrderPerKeyAcrossLanes() throws Exception {
+        Jt400LaneDispatcher dispatcher = new Jt400LaneDispatcher(processor, exceptionHandler, 4, 1000);
+        dispatcher.start(executor);
+        int slowLane = Jt400LaneDispatcher.laneOf("SLOW", 4);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; keys.size() < 5; i++) {
+            if (Jt400LaneDispatcher.laneOf("KEY" + i, 4) != slowLane) {
+                keys.add("KEY" + i);
+            }
+        }
+
+        dispatcher.dispatch(exchange("SLOW", 0), "SLOW");
+        for (int i = 0; i < 200; i++) {
+            for (String key : keys) {
+                dispatcher.dispatch(exchange(key, i), key);
+            }
+        }
+        dispatcher.dispatch(exchange("SLOW", 1), "SLOW");
+
+        // the other lanes go on while the slow key holds its lane
+        for (String key : keys) {
+            awaitProcessed(processed.get(key), 200);
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, processed.get(key).get(i).intValue());
+            }
+        }
+        assertTrue(processed.get("SLOW").isEmpty());
+        release.countDown();
+        awaitProcessed(processed.get("SLOW"), 2);
+        assertEquals(0, processed.get("SLOW").get(0).intValue());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final Jt400LaneDispatcher dispatcher = new Jt400LaneDispatcher(processor, exceptionHandler, 1, 2);
+        dispatcher.start(executor);
+        final List<Integer> interrupted = new ArrayList<Integer>();
+        dispatcher.dispatch(exchange("SLOW", 0), "SLOW");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        dispatcher.dispatch(exchange("SLOW", 1), "SLOW");
+        dispatcher.dispatch(exchange("SLOW", 2), "SLOW");
+        assertEquals(2, dispatcher.getPendingCount());
+        assertFalse(dispatcher.hasRoom("SLOW"));
+
+        final CountDownLatch dispatched = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    dispatcher.dispatch(exchange("SLOW", 3), "SLOW");
+                    dispatched.countDown();
+                } catch (InterruptedException e) {
+                    interrupted.add(3);
+                }
+            }
+        });
+        assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, dispatcher.getWaits());
+
+        release.countDown();
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        awaitProcessed(processed.get("SLOW"), 4);
+        assertTrue(interrupted.isEmpty());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testFailuresAndStop() throws Exception {
+        Jt400LaneDispatcher dispatcher = new Jt400LaneDispatcher(processor, exceptionHandler, 2, 100);
+        dispatcher.start(executor);
+        dispatcher.dispatch(exchange("FAIL", 0), "FAIL");
+        for (int i = 0; i < 50; i++) {
+            dispatcher.dispatch(exchange("KEY", i), "KEY");
+        }
+        dispatcher.stop();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // the lanes processed what they held before ending
+        assertEquals(50, processed.get("KEY").size());
+        assertEquals(0, dispatcher.clear());
+        assertEquals(1, handled.size());
+        assertTrue(handled.get(0) instanceof IllegalStateException);
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.camel.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test case for {@link Jt400PrefetchBuffer}
+ */
+public class Jt400PrefetchBufferTest {
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private File directory;
+
+    private final Jt400EndpointMetrics metrics = new Jt400EndpointMetrics(null);
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("jt400ex-", ".prefetch");
+        FileUtil.deleteFile(directory);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.removeDir(directory);
+    }
+
+    @Test
+    public void testSpillPastMemoryLimit() throws Exception {
+        Jt400PrefetchBuffer buffer = createBuffer();
+        for (int i = 0; i < 10; i++) {
+            buffer.put(entry(i), "host", CHARSET);
+        }
+        assertEquals(10, buffer.size());
+        // the key and data of 3 entries fit in memory
+        assertEquals(3, metrics.getBufferedEntries());
+        assertEquals(21, metrics.getBufferedBytes());
+        assertEquals(7, metrics.getSpilledEntries());
+
+        for (int i = 0; i < 10; i++) {
+            Jt400PrefetchBuffer.Item item = buffer.poll(0);
+            assertEquals("host", item.getSystemName());
+            assertEquals("K" + i, item.getEntry().getKeyString());
+            assertEquals("DATA" + i, item.getEntry().getString());
+            assertEquals("sender", item.getEntry().getSenderInformation());
+        }
+        assertNull(buffer.poll(0));
+        assertEquals(0, metrics.getBufferedEntries());
+        assertEquals(0, metrics.getSpilledEntries());
+        assertEquals(0, metrics.getSpilledBytes());
+        buffer.close();
+    }
+
+    @Test
+    public void testEntriesKeptInOrderAcrossRestart() throws Exception {
+        Jt400PrefetchBuffer buffer = createBuffer();
+        for (int i = 0; i < 10; i++) {
+            buffer.put(entry(i), "host", CHARSET);
+        }
+        // the consumer takes the entries in memory before closing
+        assertEquals(3, buffer.getMemorySize());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("DATA" + i, buffer.poll(0).getEntry().getString());
+        }
+        assertEquals(0, buffer.getMemorySize());
+        assertEquals(0, buffer.close());
+        assertEquals(0, metrics.getBufferedEntries());
+        assertEquals(0, metrics.getSpilledEntries());
+
+        buffer = createBuffer();
+        assertEquals(7, metrics.getSpilledEntries());
+        for (int i = 3; i < 10; i++) {
+            Jt400QueueEntry entry = buffer.poll(0).getEntry();
+            assertArrayEquals(("K" + i).getBytes(CHARSET), entry.getKey());
+            assertArrayEquals(("DATA" + i).getBytes(CHARSET), entry.getData());
+        }
+        assertNull(buffer.poll(0));
+        buffer.close();
+    }
+
+    @Test
+    public void testMemoryEntriesAppendedOnClose() throws Exception {
+        Jt400PrefetchBuffer buffer = createBuffer();
+        for (int i = 0; i < 10; i++) {
+            buffer.put(entry(i), "host", CHARSET);
+        }
+        assertEquals(0, buffer.close());
+
+        buffer = createBuffer();
+        assertEquals(10, metrics.getSpilledEntries());
+        // the entries in memory come after those spilled before them
+        for (int i = 0; i < 10; i++) {
+            assertEquals("DATA" + (i + 3) % 10, buffer.poll(0).getEntry().getString());
+        }
+        assertNull(buffer.poll(0));
+        buffer.close();
+    }
+
+    @Test
+    public void testDiscardWithoutSpill() throws Exception {
+        Jt400PrefetchBuffer buffer = new Jt400PrefetchBuffer(metrics, 24, null);
+        buffer.open();
+        buffer.put(entry(0), "host", CHARSET);
+        buffer.put(entry(1), "host", CHARSET);
+        assertEquals(2, buffer.close());
+        assertEquals(0, metrics.getBufferedEntries());
+        assertEquals(0, metrics.getBufferedBytes());
+        // a closed buffer neither waits for room nor for entries
+        buffer.put(entry(2), "host", CHARSET);
+        assertEquals("DATA2", buffer.poll(-1).getEntry().getString());
+        assertNull(buffer.poll(-1));
+    }
+
+    private Jt400PrefetchBuffer createBuffer() throws IOException {
+        Jt400PrefetchBuffer buffer = new Jt400PrefetchBuffer(metrics, 24, new Jt400SegmentLog(directory, "test", 4096));
+        buffer.open();
+        return buffer;
+    }
+
+    private static Jt400QueueEntry entry(int i) {
+        return new Jt400MemoryQueue.Entry(("K" + i).getBytes(CHARSET), ("DATA" + i).getBytes(CHARSET), "sender".getBytes(CHARSET), CHARSET);
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.concurrent.Semaphore;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400ConnectionPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for {@link Jt400ProfilePools}
+ */
+public class Jt400ProfilePoolsTest {
+
+    private AS400ConnectionPool base;
+
+    private Jt400ProfilePools pools;
+
+    @Before
+    public void setUp() {
+        base = new MockAS400ConnectionPool();
+        base.setMaxConnections(2);
+        base.setMaxInactivity(1234);
+        pools = new Jt400ProfilePools();
+        pools.register(base);
+    }
+
+    @After
+    public void tearDown() {
+        pools.close();
+    }
+
+    @Test
+    public void testDefaultProfileUsesBasePool() {
+        Jt400ProfilePool pool = pools.getPool(base, profile(-1, false));
+        assertSame(base, pool.getPool());
+        assertSame(pool, pools.getPool(base, profile(-1, false)));
+    }
+
+    @Test
+    public void testProfilesArePartitionedByCcsidAndGui() {
+        Jt400ProfilePool ccsid37 = pools.getPool(base, profile(37, false));
+        Jt400ProfilePool ccsid500 = pools.getPool(base, profile(500, false));
+        Jt400ProfilePool gui = pools.getPool(base, profile(-1, true));
+
+        assertNotSame(base, ccsid37.getPool());
+        assertNotSame(ccsid37, ccsid500);
+        assertNotSame(ccsid37.getPool(), gui.getPool());
+        assertSame(ccsid37, pools.getPool(base, new Jt400ConnectionProfile("other", "other", 37, false, false)));
+    }
+
+    @Test
+    public void testDerivedPoolCopiesBasePool() {
+        AS400ConnectionPool derived = pools.getPool(base, profile(37, false)).getPool();
+        assertSame(AS400ConnectionPool.class, derived.getClass());
+        assertEquals(2, derived.getMaxConnections());
+        assertEquals(1234, derived.getMaxInactivity());
+        assertEquals(base.isRunMaintenance(), derived.isRunMaintenance());
+        assertEquals(base.isThreadUsed(), derived.isThreadUsed());
+    }
+
+    @Test
+    public void testProfilePoolsShareConnectionBudget() throws Exception {
+        Semaphore budget = new Semaphore(2);
+        Jt400ProfilePool defaults = new Jt400ProfilePool(base, -1, false, budget, false);
+        Jt400ProfilePool derived = new Jt400ProfilePool(new MockAS400ConnectionPool(), 37, false, budget, false);
+
+        AS400 first = defaults.getConnection(profile(-1, false), "password", -1);
+        derived.getConnection(profile(37, false), "password", -1);
+        try {
+            derived.getConnection(profile(37, false), "password", -1);
+            fail("Should have thrown an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        defaults.returnConnection(first);
+        assertNotNull(derived.getConnection(profile(37, false), "password", -1));
+    }
+
+    @Test
+    public void testSuppliedPoolServesAllProfiles() {
+        AS400ConnectionPool supplied = new MockAS400ConnectionPool();
+        Jt400ProfilePool ccsid37 = pools.getPool(supplied, profile(37, false));
+        Jt400ProfilePool defaults = pools.getPool(supplied, profile(-1, false));
+        assertSame(supplied, ccsid37.getPool());
+        assertSame(supplied, defaults.getPool());
+        assertSame(ccsid37, pools.getPool(supplied, profile(37, false)));
+        assertNotSame(ccsid37, defaults);
+    }
+
+    @Test
+    public void testSharedConnectionIsConfiguredOnEveryLease() throws Exception {
+        final AS400 connection = new AS400("host", "USER", "password");
+        AS400ConnectionPool single = new MockAS400ConnectionPool() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public AS400 getConnection(String systemName, String userID, String password) {
+                return connection;
+            }
+        };
+        Jt400ProfilePool pool = pools.getPool(single, profile(37, false));
+
+        AS400 system = pool.getConnection(profile(37, false), "password", -1);
+        pool.returnConnection(system);
+        system.setCcsid(500);
+        system = pool.getConnection(profile(37, false), "password", -1);
+        assertEquals(37, system.getCcsid());
+    }
+
+    @Test
+    public void testConnectionIsConfiguredOnce() throws Exception {
+        final AS400 connection = new AS400("host", "USER", "password");
+        AS400ConnectionPool single = new MockAS400ConnectionPool() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public AS400 getConnection(String systemName, String userID, String password) {
+                return connection;
+            }
+        };
+        Jt400ProfilePool pool = new Jt400ProfilePool(single, 37, true);
+
+        AS400 system = pool.getConnection(profile(37, true), "password", -1);
+        assertEquals(37, system.getCcsid());
+        assertTrue(system.isGuiAvailable());
+        pool.returnConnection(system);
+
+        // a connection already configured is handed out untouched
+        system.setCcsid(500);
+        system = pool.getConnection(profile(37, true), "password", -1);
+        assertEquals(500, system.getCcsid());
+    }
+
+    private static Jt400ConnectionProfile profile(int ccsid, boolean guiAvailable) {
+        return new Jt400ConnectionProfile("host", "USER", ccsid, guiAvailable, false);
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.camel.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for {@link Jt400SegmentLog}
+ */
+public class Jt400SegmentLogTest {
+
+    private static final int SEGMENT_SIZE = 64;
+
+    private File directory;
+
+    private Jt400SegmentLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("jt400ex-", ".log");
+        FileUtil.deleteFile(directory);
+        log = new Jt400SegmentLog(directory, "test", SEGMENT_SIZE);
+        log.open();
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+        FileUtil.removeDir(directory);
+    }
+
+    @Test
+    public void testReadInOrderAcrossSegments() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            log.append(record(i));
+        }
+        assertEquals(20, log.size());
+        assertTrue(segmentFiles().length > 1);
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(record(i), log.peek());
+            // peeking does not remove
+            assertArrayEquals(record(i), log.peek());
+            log.remove();
+        }
+        assertNull(log.peek());
+        assertEquals(0, log.size());
+        assertEquals(0, log.getBytes());
+        // only the segment appended to is left
+        assertEquals(1, segmentFiles().length);
+    }
+
+    @Test
+    public void testRecordsLeftAreReadAfterReopening() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            log.append(record(i));
+        }
+        for (int i = 0; i < 7; i++) {
+            log.remove();
+        }
+        log.close();
+
+        log = new Jt400SegmentLog(directory, "test", SEGMENT_SIZE);
+        log.open();
+        assertEquals(13, log.size());
+        log.append(record(20));
+        for (int i = 7; i <= 20; i++) {
+            assertArrayEquals(record(i), log.peek());
+            log.remove();
+        }
+        assertNull(log.peek());
+
+        log.close();
+        assertEquals(0, segmentFiles().length);
+        log.open();
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        log.append(record(1));
+        log.append(record(2));
+        log.close();
+
+        // corrupts the data of the second record
+        File segment = segmentFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(2 * Jt400SegmentLog.RECORD_HEADER_LENGTH + record(1).length);
+            file.write('X');
+        } finally {
+            file.close();
+        }
+
+        log.open();
+        assertEquals(1, log.size());
+        assertArrayEquals(record(1), log.peek());
+        log.remove();
+        assertNull(log.peek());
+    }
+
+    @Test
+    public void testSingleInstance() throws IOException {
+        Jt400SegmentLog other = new Jt400SegmentLog(directory, "test", SEGMENT_SIZE);
+        try {
+            other.open();
+            fail("Should have thrown an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        // another name is another log
+        Jt400SegmentLog another = new Jt400SegmentLog(directory, "another", SEGMENT_SIZE);
+        another.open();
+        another.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordLongerThanSegment() throws IOException {
+        log.append(new byte[SEGMENT_SIZE]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRemoveFromEmptyLog() throws IOException {
+        log.remove();
+    }
+
+    private static byte[] record(int i) {
+        return ("record " + i).getBytes();
+    }
+
+    private File[] segmentFiles() {
+        return directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().endsWith(".seg");
+            }
+        });
+    }
+
+}
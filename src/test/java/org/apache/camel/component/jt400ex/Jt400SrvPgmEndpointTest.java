@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import com.ibm.as400.access.AS400;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for {@link Jt400Endpoint} pointing to a service program
+ */
+public class Jt400SrvPgmEndpointTest extends Jt400TestSupport {
+
+    private static final String USER = "USER";
+    private static final String HOST = "host";
+    private static final String PASSWORD = "password";
+    private static final String SRVPGM = "/qsys.lib/library.lib/service.srvpgm";
+
+    private Jt400Endpoint endpoint;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        endpoint = (Jt400Endpoint) resolveMandatoryEndpoint("jt400ex://" + USER + ":" + PASSWORD
+                + "@" + HOST + SRVPGM
+                + "?connectionPool=#mockPool&ccsid=37&procedureName=GETCUST&returnValueFormat=integer&outputFieldsIdx=1&fieldsLength=10,20");
+    }
+
+    @Test
+    public void testSystemConfiguration() {
+        assertEquals(Jt400Type.SRVPGM, endpoint.getType());
+        assertEquals(SRVPGM, endpoint.getObjectPath());
+        assertEquals("GETCUST", endpoint.getProcedureName());
+        assertEquals(Jt400Configuration.ReturnValueFormat.integer, endpoint.getReturnValueFormat());
+        assertEquals(10, endpoint.getOutputFieldLength(0));
+        assertEquals(20, endpoint.getOutputFieldLength(1));
+    }
+
+    @Test
+    public void testDefaultReturnValueFormat() {
+        Jt400Endpoint other = (Jt400Endpoint) resolveMandatoryEndpoint("jt400ex://" + USER + ":" + PASSWORD
+                + "@" + HOST + SRVPGM + "?connectionPool=#mockPool&procedureName=GETCUST");
+        assertEquals(Jt400Configuration.ReturnValueFormat.none, other.getReturnValueFormat());
+    }
+
+    /**
+     * The call descriptor is built once and shared by all calls of the endpoint
+     */
+    @Test
+    public void testCallDescriptorIsCached() {
+        AS400 system = endpoint.getSystem();
+        try {
+            assertSame(endpoint.getCallDescriptor(system), endpoint.getCallDescriptor(system));
+        } finally {
+            endpoint.releaseSystem(system);
+        }
+    }
+
+    /**
+     * Systems of different CCSIDs get their own call descriptor
+     */
+    @Test
+    public void testCallDescriptorPerCcsid() throws Exception {
+        AS400 system37 = new AS400(HOST, USER, PASSWORD);
+        system37.setCcsid(37);
+        AS400 system500 = new AS400(HOST, USER, PASSWORD);
+        system500.setCcsid(500);
+        AS400 other37 = new AS400(HOST, USER, PASSWORD);
+        other37.setCcsid(37);
+
+        assertNotSame(endpoint.getCallDescriptor(system37), endpoint.getCallDescriptor(system500));
+        assertSame(endpoint.getCallDescriptor(system37), endpoint.getCallDescriptor(other37));
+    }
+
+    @Test
+    public void testProducerRequiresProcedureName() throws Exception {
+        Jt400Endpoint other = (Jt400Endpoint) resolveMandatoryEndpoint("jt400ex://" + USER + ":" + PASSWORD
+                + "@" + HOST + SRVPGM + "?connectionPool=#mockPool");
+        try {
+            other.createProducer().start();
+            fail("Should have thrown an exception as procedureName is not set");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.as400.access.AS400;
+import org.apache.camel.impl.JndiRegistry;
+import org.junit.Test;
+
+/**
+ * Test case for the selection and failover of the systems of an endpoint,
+ * using a connection pool that cannot reach the system named {@code "dead"}.
+ */
+public class Jt400SystemFailoverTest extends Jt400TestSupport {
+
+    private final AtomicInteger deadAttempts = new AtomicInteger();
+
+    @Override
+    protected JndiRegistry createRegistry() throws Exception {
+        JndiRegistry registry = super.createRegistry();
+        registry.bind("failoverPool", new MockAS400ConnectionPool() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public AS400 getConnection(String systemName, String userID, String password) {
+                if ("dead".equals(systemName)) {
+                    deadAttempts.incrementAndGet();
+                    throw new IllegalStateException("Host dead is unreachable", new ConnectException());
+                }
+                return new AS400(systemName, userID, password);
+            }
+        });
+        return registry;
+    }
+
+    @Test
+    public void testSystemNames() {
+        Jt400Endpoint endpoint = endpoint("host", null);
+        endpoint.setAlternateSystems(" host2 , host ,host3");
+        assertEquals(Arrays.asList("host", "host2", "host3"), endpoint.getConfiguration().getSystemNames());
+        assertEquals(3, endpoint.getSystemGroup().size());
+    }
+
+    @Test
+    public void testDeadSystemCostsOneAttempt() {
+        Jt400SystemResources<AS400> systems = connections(endpoint("dead", "host"));
+        for (int i = 0; i < 5; i++) {
+            Jt400SystemHealth system = systems.acquire(null, true);
+            assertEquals("host", system.getSystemName());
+            systems.release(system, null);
+        }
+        assertEquals(1, deadAttempts.get());
+        assertEquals(Jt400ConnectionHealth.State.OPEN, endpoint("dead", "host").getSystemGroup().get(0).getState());
+    }
+
+    @Test
+    public void testLeastInFlight() {
+        Jt400SystemResources<AS400> systems = connections(endpoint("host", "host2"));
+        Jt400SystemHealth first = systems.acquire(null, true);
+        Jt400SystemHealth second = systems.acquire(null, true);
+        assertEquals("host", first.getSystemName());
+        assertEquals("host2", second.getSystemName());
+        systems.release(first, null);
+        assertSame(first, systems.acquire(null, true));
+    }
+
+    @Test
+    public void testStickyFailover() {
+        Jt400Endpoint endpoint = endpoint("host", "host2");
+        Jt400SystemResources<AS400> systems = connections(endpoint);
+        Jt400SystemHealth current = systems.acquire(null, false);
+        assertEquals("host", current.getSystemName());
+        systems.release(current, new IOException("Connection dropped"));
+
+        current = systems.acquire(current, false);
+        assertEquals("host2", current.getSystemName());
+        systems.release(current, null);
+
+        // stays on the alternate system even when the first one is back
+        endpoint.getSystemGroup().get(0).recordSuccess();
+        assertSame(current, systems.acquire(current, false));
+    }
+
+    @Test
+    public void testOperationFailureKeepsSystem() {
+        Jt400SystemResources<AS400> systems = connections(endpoint("host", "host2"));
+        Jt400SystemHealth system = systems.acquire(null, false);
+        systems.release(system, new Jt400PgmCallException("CPF9801"));
+        assertEquals(Jt400ConnectionHealth.State.CLOSED, system.getState());
+    }
+
+    @Test
+    public void testNoSystemAvailable() {
+        Jt400SystemResources<AS400> systems = connections(endpoint("dead", null));
+        try {
+            systems.acquire(null, true);
+            fail("Should have thrown an exception");
+        } catch (Jt400SystemUnavailableException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // fails fast while the system is skipped
+        try {
+            systems.acquire(null, true);
+            fail("Should have thrown an exception");
+        } catch (Jt400SystemUnavailableException e) {
+            assertNull(e.getCause());
+        }
+        assertEquals(1, deadAttempts.get());
+    }
+
+    private Jt400Endpoint endpoint(String systemName, String alternateSystems) {
+        return resolveMandatoryEndpoint("jt400ex://user:password@" + systemName + "/qsys.lib/library.lib/prog.pgm?connectionPool=#failoverPool"
+                + (alternateSystems != null ? "&alternateSystems=" + alternateSystems : ""), Jt400Endpoint.class);
+    }
+
+    private static Jt400SystemResources<AS400> connections(final Jt400Endpoint endpoint) {
+        return new Jt400SystemResources<AS400>(endpoint.getSystemGroup()) {
+            @Override
+            protected AS400 open(Jt400SystemHealth system) {
+                return endpoint.getSystem(system.getSystemName(), -1);
+            }
+
+            @Override
+            protected void close(AS400 system) {
+                endpoint.releaseSystem(system);
+            }
+        };
+    }
+
+}
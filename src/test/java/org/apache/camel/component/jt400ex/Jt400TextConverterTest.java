@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for {@link Jt400TextConverter}
+ */
+public class Jt400TextConverterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String TEXT = "Gr\u00fc\u00dfe, \u00e7a co\u00fbte 10\u20ac \u00ac|[]{}\\ 0123456789 ABCxyz";
+
+    @Test
+    public void testCharsetForCcsid() {
+        assertEquals(Charset.forName("IBM037"), Jt400TextConverter.charsetForCcsid(37));
+        assertEquals(Charset.forName("IBM273"), Jt400TextConverter.charsetForCcsid(273));
+        for (int ccsid = 1140; ccsid <= 1149; ccsid++) {
+            assertEquals(Charset.forName("IBM0" + ccsid), Jt400TextConverter.charsetForCcsid(ccsid));
+        }
+        assertEquals(Charset.forName("x-IBM1025"), Jt400TextConverter.charsetForCcsid(1025));
+        assertEquals(Charset.forName("x-IBM930"), Jt400TextConverter.charsetForCcsid(5026));
+        assertEquals(Charset.forName("x-IBM939"), Jt400TextConverter.charsetForCcsid(5035));
+        assertEquals(UTF8, Jt400TextConverter.charsetForCcsid(1208));
+        assertEquals(Charset.forName("UTF-16BE"), Jt400TextConverter.charsetForCcsid(1200));
+        assertEquals(Charset.forName("UTF-16BE"), Jt400TextConverter.charsetForCcsid(13488));
+    }
+
+    @Test
+    public void testUnknownCcsid() {
+        try {
+            Jt400TextConverter.charsetForCcsid(65535);
+            fail("Should have thrown an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConvertersAreCached() {
+        assertSame(Jt400TextConverter.forCcsid(37), Jt400TextConverter.forCharset(Charset.forName("IBM037")));
+    }
+
+    @Test
+    public void testSingleByteMatchesCharset() {
+        for (int ccsid : new int[] {37, 273, 500, 1140, 1141, 1148}) {
+            Charset charset = Jt400TextConverter.charsetForCcsid(ccsid);
+            Jt400TextConverter converter = Jt400TextConverter.forCcsid(ccsid);
+            byte[] all = new byte[256];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = (byte) i;
+            }
+            assertArrayEquals(new String(all, charset).getBytes(UTF8), converter.toUtf8(all));
+
+            String text = new String(all, charset) + TEXT + "\u4e2d\ud83d\ude00";
+            assertArrayEquals(text.getBytes(charset), converter.fromUtf8(text.getBytes(UTF8)));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(1141);
+        byte[] utf8 = TEXT.getBytes(UTF8);
+        byte[] host = converter.fromUtf8(utf8);
+        assertEquals(TEXT.length(), host.length);
+        assertArrayEquals(utf8, converter.toUtf8(host));
+    }
+
+    @Test
+    public void testPartialArray() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(37);
+        byte[] host = converter.fromUtf8("xxABCxx".getBytes(UTF8));
+        assertArrayEquals("ABC".getBytes(UTF8), converter.toUtf8(host, 2, 3));
+    }
+
+    @Test
+    public void testMalformedUtf8IsSubstituted() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(37);
+        byte[] host = converter.fromUtf8(new byte[] {'A', (byte) 0xC3, 'B', (byte) 0xE2, (byte) 0x82});
+        assertArrayEquals(new byte[] {(byte) 0xC1, 0x3F, (byte) 0xC2, 0x3F, 0x3F}, host);
+    }
+
+    @Test
+    public void testUtf8IsPassedThrough() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(1208);
+        byte[] utf8 = TEXT.getBytes(UTF8);
+        assertSame(utf8, converter.toUtf8(utf8));
+        assertSame(utf8, converter.fromUtf8(utf8));
+    }
+
+    @Test
+    public void testMultiByte() {
+        Jt400TextConverter converter = Jt400TextConverter.forCharset(Charset.forName("x-IBM930"));
+        String text = "ABC \u65e5\u672c\u8a9e 123";
+        byte[] host = converter.fromUtf8(text.getBytes(UTF8));
+        assertArrayEquals(text.getBytes(Charset.forName("x-IBM930")), host);
+        assertEquals(text, new String(converter.toUtf8(host), UTF8));
+    }
+
+    @Test
+    public void testEncodeKey() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(37);
+        assertArrayEquals(new byte[] {(byte) 0xD2, (byte) 0xF1, 0x40, 0x40}, converter.encodeKey("K1", 4));
+        assertArrayEquals(new byte[] {(byte) 0xD2, (byte) 0xF1}, converter.encodeKey("K1", 2));
+    }
+
+    @Test
+    public void testEncodeUtf16Key() {
+        Jt400TextConverter converter = Jt400TextConverter.forCcsid(13488);
+        assertArrayEquals(new byte[] {0, 'K', 0, '1', 0, ' ', 0, ' '}, converter.encodeKey("K1", 8));
+        assertArrayEquals("K1".getBytes(UTF8), converter.toUtf8(converter.encodeKey("K1", 4)));
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test case for {@link Jt400WriteCoalescer}
+ */
+public class Jt400WriteCoalescerTest {
+
+    private static final byte[] KEY_A = {'A'};
+
+    private static final byte[] KEY_B = {'B'};
+
+    private final List<byte[]> keys = new CopyOnWriteArrayList<byte[]>();
+
+    private final List<byte[]> entries = new CopyOnWriteArrayList<byte[]>();
+
+    private final Jt400WriteCoalescer.Writer writer = new Jt400WriteCoalescer.Writer() {
+        public void write(byte[] key, byte[] entry) throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            keys.add(key);
+            entries.add(entry);
+        }
+    };
+
+    private volatile Exception failure;
+
+    private ScheduledExecutorService timer;
+
+    private DefaultCamelContext context;
+
+    private CountDownLatch done;
+
+    private final AsyncCallback callback = new AsyncCallback() {
+        public void done(boolean doneSync) {
+            assertFalse(doneSync);
+            done.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        timer = new ScheduledThreadPoolExecutor(1);
+        context = new DefaultCamelContext();
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private static byte[] message(int length, int seed) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (seed + i);
+        }
+        return message;
+    }
+
+    private Exchange exchange() {
+        return new DefaultExchange(context);
+    }
+
+    @Test
+    public void testFullEntries() throws Exception {
+        // 3 + 4 * (4 + 20) = 99 bytes, room for 4 messages
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 60000, 100);
+        done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(coalescer.add(null, message(20, i), exchange(), callback));
+        }
+        assertTrue(entries.isEmpty());
+        assertEquals(4, coalescer.getPendingCount());
+
+        coalescer.add(null, message(20, 4), exchange(), callback);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, entries.size());
+        assertEquals(99, entries.get(0).length);
+        List<byte[]> records = Jt400EntryCodec.getRecords(entries.get(0));
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(message(20, i), records.get(i));
+        }
+        assertEquals(1, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testLingerTime() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 20, 64512);
+        done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            coalescer.add(null, message(10, i), exchange(), callback);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, entries.size());
+        assertEquals(3, Jt400EntryCodec.getRecords(entries.get(0)).size());
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testSingleMessageWrittenPlain() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 0, 64512);
+        done = new CountDownLatch(1);
+        byte[] message = message(10, 0);
+        coalescer.add(KEY_A, message, exchange(), callback);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(message, entries.get(0));
+        assertSame(KEY_A, keys.get(0));
+    }
+
+    @Test
+    public void testEntryPerKey() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 60000, 64512);
+        done = new CountDownLatch(4);
+        coalescer.add(KEY_A, message(10, 0), exchange(), callback);
+        coalescer.add(KEY_B, message(10, 1), exchange(), callback);
+        coalescer.add(new byte[] {'A'}, message(10, 2), exchange(), callback);
+        coalescer.add(KEY_B, message(10, 3), exchange(), callback);
+        coalescer.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, entries.size());
+        for (int i = 0; i < 2; i++) {
+            List<byte[]> records = Jt400EntryCodec.getRecords(entries.get(i));
+            assertEquals(2, records.size());
+            int seed = keys.get(i)[0] == 'A' ? 0 : 1;
+            assertArrayEquals(message(10, seed), records.get(0));
+            assertArrayEquals(message(10, seed + 2), records.get(1));
+        }
+    }
+
+    @Test
+    public void testLongMessageWrittenOnItsOwn() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 60000, 100);
+        done = new CountDownLatch(2);
+        coalescer.add(KEY_A, message(10, 0), exchange(), callback);
+        coalescer.add(KEY_A, message(10, 1), exchange(), callback);
+        // the open entry of the key is written first
+        assertFalse(coalescer.add(KEY_A, message(94, 2), exchange(), callback));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, entries.size());
+        assertFalse(coalescer.add(KEY_B, null, exchange(), callback));
+        assertEquals(0, coalescer.getPendingCount());
+    }
+
+    @Test
+    public void testFailedWrite() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 60000, 64512);
+        failure = new IOException("Connection lost");
+        done = new CountDownLatch(2);
+        Exchange first = exchange();
+        Exchange second = exchange();
+        coalescer.add(null, message(10, 0), first, callback);
+        coalescer.add(null, message(10, 1), second, callback);
+        coalescer.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(failure, first.getException());
+        assertSame(failure, second.getException());
+        assertTrue(entries.isEmpty());
+    }
+
+    @Test
+    public void testOverflowOfLingeredEntry() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<byte[]> written = new CopyOnWriteArrayList<byte[]>();
+        Jt400WriteCoalescer.Writer blockingWriter = new Jt400WriteCoalescer.Writer() {
+            public void write(byte[] key, byte[] entry) throws Exception {
+                if (key == KEY_B) {
+                    // holds the write lock while the entry of A lingers
+                    blocked.await();
+                }
+                written.add(entry);
+            }
+        };
+        ScheduledExecutorService timers = new ScheduledThreadPoolExecutor(2);
+        final AtomicIntegerArray completions = new AtomicIntegerArray(6);
+        done = new CountDownLatch(6);
+        try {
+            // room for 4 messages of 20 bytes
+            Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(blockingWriter, timers, 10, 100);
+            List<Thread> senders = new ArrayList<Thread>();
+            senders.add(send(coalescer, KEY_B, 0, completions));
+            Thread.sleep(50);
+            // the senders wait for the write lock once their message is added
+            for (int i = 1; i < 5; i++) {
+                senders.add(send(coalescer, KEY_A, i, completions));
+                Thread.sleep(5);
+            }
+            // made ready by its linger time, but not taken while B is written
+            Thread.sleep(50);
+            senders.add(send(coalescer, KEY_A, 5, completions));
+            Thread.sleep(50);
+            blocked.countDown();
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+        } finally {
+            timers.shutdownNow();
+        }
+
+        assertEquals(3, written.size());
+        assertEquals(4, Jt400EntryCodec.getRecords(written.get(1)).size());
+        assertArrayEquals(message(20, 5), written.get(2));
+        for (int i = 0; i < 6; i++) {
+            assertEquals("Completions of message " + i, 1, completions.get(i));
+        }
+    }
+
+    private Thread send(final Jt400WriteCoalescer coalescer, final byte[] key, final int index, final AtomicIntegerArray completions) {
+        Thread sender = new Thread() {
+            public void run() {
+                coalescer.add(key, message(20, index), exchange(), new AsyncCallback() {
+                    public void done(boolean doneSync) {
+                        completions.incrementAndGet(index);
+                        done.countDown();
+                    }
+                });
+            }
+        };
+        sender.start();
+        return sender;
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        Jt400WriteCoalescer coalescer = new Jt400WriteCoalescer(writer, timer, 60000, 64512);
+        coalescer.close();
+        try {
+            coalescer.add(null, message(10, 0), exchange(), callback);
+            fail("Should have thrown an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.camel.component.jt400ex;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test case for {@link SearchKeysProviderImpl}
+ */
+public class SearchKeysProviderImplTest {
+
+    @Test
+    public void testKeysCanBeSweptWhileChanging() throws Exception {
+        final SearchKeysProviderImpl provider = new SearchKeysProviderImpl();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread churn = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 200000; i++) {
+                        provider.addKey("KEY" + i % 1000);
+                        provider.removeKey("KEY" + (i + 500) % 1000);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        churn.start();
+        try {
+            // a consumer sweeping the keys while they are added and removed
+            while (done.getCount() > 0) {
+                for (String key : provider.getKeys()) {
+                    assertTrue(key.startsWith("KEY"));
+                }
+            }
+        } finally {
+            churn.join();
+        }
+    }
+
+    @Test
+    public void testCleanupKeepsRefreshedKeys() {
+        SearchKeysProviderImpl provider = new SearchKeysProviderImpl();
+        Date old = new Date(System.currentTimeMillis() - 120000);
+        provider.keys.put("STALE", old);
+        provider.keys.put("REFRESHED", old);
+        provider.addKey("REFRESHED");
+        provider.addKey("FRESH");
+
+        provider.cleanUpOldKeys();
+
+        assertFalse(provider.getKeys().contains("STALE"));
+        assertTrue(provider.getKeys().contains("REFRESHED"));
+        assertTrue(provider.getKeys().contains("FRESH"));
+        assertEquals(2, provider.getKeys().size());
+    }
+
+}